@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.flogger.backend.LoggerBackend;
+import com.google.common.flogger.backend.system.BackendFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link FluentdBackendFactory#create} from many threads at once over a set of logging
+ * class names, the lookup every logger performs when it is created.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class BackendFactoryBenchmark {
+
+  private static final int NAMES = 256;
+
+  private final String[] names = new String[NAMES];
+  private BackendFactory factory;
+
+  @Setup
+  public void setUp() {
+    factory = FluentdBackendFactory.getInstance();
+    for (int i = 0; i < NAMES; i++) names[i] = "com.example.Service" + i;
+  }
+
+  @Benchmark
+  public LoggerBackend create(Cursor cursor) {
+    return factory.create(names[cursor.next++ & (NAMES - 1)]);
+  }
+
+  /** The position of a thread in the logging class names, threads start at different names. */
+  @State(Scope.Thread)
+  public static class Cursor {
+
+    private int next = (int) Thread.currentThread().getId() * 31;
+  }
+}
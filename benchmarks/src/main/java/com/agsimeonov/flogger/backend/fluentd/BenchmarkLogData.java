@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import com.google.common.flogger.LogContext;
+import com.google.common.flogger.LogSite;
+import com.google.common.flogger.MetadataKey;
+import com.google.common.flogger.backend.LogData;
+import com.google.common.flogger.backend.Metadata;
+import com.google.common.flogger.backend.Tags;
+import com.google.common.flogger.backend.TemplateContext;
+import com.google.common.flogger.parser.DefaultPrintfMessageParser;
+import com.google.common.flogger.util.StackBasedLogSite;
+
+/** A log statement as the Flogger frontend would hand it to a backend, built once per benchmark. */
+final class BenchmarkLogData implements LogData {
+
+  private static final TemplateContext TEMPLATE = new TemplateContext(DefaultPrintfMessageParser.getInstance(), "Processed %d requests for %s in %.2f ms");
+  private static final LogSite LOG_SITE = new StackBasedLogSite(new StackTraceElement("com.example.Service", "handle", "Service.java", 42));
+  private static final MetadataKey<String> USER = MetadataKey.single("user", String.class);
+  private static final MetadataKey<String> REQUEST = MetadataKey.repeated("request", String.class);
+
+  private final Level level;
+  private final Object[] arguments;
+  private final Metadata metadata;
+
+  private BenchmarkLogData(Level level, Object[] arguments, Metadata metadata) {
+    this.level = level;
+    this.arguments = arguments;
+    this.metadata = metadata;
+  }
+
+  /** A formatted message without metadata. */
+  static LogData plain() {
+    return new BenchmarkLogData(Level.INFO, new Object[] {128, "tenant-42", 3.14}, Metadata.empty());
+  }
+
+  /** A formatted message with single and repeated metadata and tags with and without values. */
+  static LogData metadata() {
+    Tags tags = Tags.builder().addTag("canary").addTag("region", "eu-west-1").addTag("shard", 7).build();
+    return new BenchmarkLogData(Level.INFO, new Object[] {128, "tenant-42", 3.14}, new ArrayMetadata(
+        new MetadataKey<?>[] {USER, REQUEST, REQUEST, LogContext.Key.TAGS},
+        new Object[] {"alice", "r-1", "r-2", tags}));
+  }
+
+  /** A formatted message with a cause three exceptions deep. */
+  static LogData exception() {
+    Exception cause = new IllegalStateException("Connection reset", new RuntimeException("Timed out", new IOException("Broken pipe")));
+    return new BenchmarkLogData(Level.SEVERE, new Object[] {128, "tenant-42", 3.14}, new ArrayMetadata(
+        new MetadataKey<?>[] {LogContext.Key.LOG_CAUSE},
+        new Object[] {cause}));
+  }
+
+  @Override
+  public Level getLevel() {
+    return level;
+  }
+
+  @Override
+  public long getTimestampMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(getTimestampNanos());
+  }
+
+  @Override
+  public long getTimestampNanos() {
+    return 1_560_000_000_000_000_000L;
+  }
+
+  @Override
+  public String getLoggerName() {
+    return "com.example.Service";
+  }
+
+  @Override
+  public LogSite getLogSite() {
+    return LOG_SITE;
+  }
+
+  @Override
+  public Metadata getMetadata() {
+    return metadata;
+  }
+
+  @Override
+  public boolean wasForced() {
+    return false;
+  }
+
+  @Override
+  public TemplateContext getTemplateContext() {
+    return TEMPLATE;
+  }
+
+  @Override
+  public Object[] getArguments() {
+    return arguments;
+  }
+
+  @Override
+  public Object getLiteralArgument() {
+    throw new IllegalStateException("The log statement has a template");
+  }
+
+  /** Metadata backed by parallel arrays of keys and values. */
+  private static final class ArrayMetadata extends Metadata {
+
+    private final MetadataKey<?>[] keys;
+    private final Object[] values;
+
+    private ArrayMetadata(MetadataKey<?>[] keys, Object[] values) {
+      this.keys = keys;
+      this.values = values;
+    }
+
+    @Override
+    public int size() {
+      return keys.length;
+    }
+
+    @Override
+    public MetadataKey<?> getKey(int index) {
+      return keys[index];
+    }
+
+    @Override
+    public Object getValue(int index) {
+      return values[index];
+    }
+
+    @Override
+    public <T> T findValue(MetadataKey<T> key) {
+      for (int i = 0; i < keys.length; i++) if (keys[i].equals(key)) return key.cast(values[i]);
+      return null;
+    }
+  }
+}
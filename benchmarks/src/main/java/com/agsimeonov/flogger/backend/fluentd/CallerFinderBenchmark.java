@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.flogger.backend.Platform.LogCallerFinder;
+import com.google.common.flogger.util.CallerFinder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares capturing the whole stack with a throwable against walking it lazily when looking for
+ * the caller of a logging API, beneath a number of frames standing in for a framework stack, and
+ * measures finding the log site with each {@link FluentdCallerFinder} the same way.
+ *
+ * <p>Run on Java 9+ from the shaded jar so the multi-release variant of the backend is loaded:
+ * {@code mvn package && java -jar target/benchmarks.jar CallerFinderBenchmark}. The shaded jar
+ * carries an implementation title for {@link ImplementationTitleCallerFinder} to find.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallerFinderBenchmark {
+
+  @Param({"10", "50", "200"})
+  public int depth;
+
+  private LogCallerFinder systemProperties;
+  private LogCallerFinder implementationTitle;
+
+  @Setup
+  public void setUp() {
+    System.setProperty(SystemPropertiesCallerFinder.TAG_PREFIX, "com.example");
+    systemProperties = SystemPropertiesCallerFinder.getInstance();
+    implementationTitle = ImplementationTitleCallerFinder.getInstance();
+  }
+
+  @Benchmark
+  public Object throwable() {
+    return framework(depth, null, true);
+  }
+
+  @Benchmark
+  public Object stackWalker() {
+    return framework(depth, null, false);
+  }
+
+  @Benchmark
+  public Object systemPropertiesCallerFinder() {
+    return framework(depth, systemProperties, false);
+  }
+
+  @Benchmark
+  public Object implementationTitleCallerFinder() {
+    return framework(depth, implementationTitle, false);
+  }
+
+  private static Object framework(int depth, LogCallerFinder callerFinder, boolean throwable) {
+    return depth == 0 ? caller(callerFinder, throwable) : framework(depth - 1, callerFinder, throwable);
+  }
+
+  private static Object caller(LogCallerFinder callerFinder, boolean throwable) {
+    return Api.log(callerFinder, throwable);
+  }
+
+  /** A stand-in for a logging API, looking for its caller a few frames beneath the entry point. */
+  private static class Api {
+
+    static Object log(LogCallerFinder callerFinder, boolean throwable) {
+      return find(callerFinder, throwable);
+    }
+
+    private static Object find(LogCallerFinder callerFinder, boolean throwable) {
+      if (callerFinder != null) return callerFinder.findLogSite(Api.class, 0);
+      return throwable ? CallerFinder.findCallerOf(Api.class, new Throwable(), 0) : FluentdStackFrames.findCallerOf(Api.class, 0);
+    }
+  }
+}
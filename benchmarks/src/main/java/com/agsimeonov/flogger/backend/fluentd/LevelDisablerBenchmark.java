@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.fluentd.logger.FluentLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link FluentdLoggerBackend#isLoggable} with a {@link SystemPropertiesLevelDisabler}
+ * disabling {@code FINE} for the logger by prefix, the check every disabled log statement pays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class LevelDisablerBenchmark {
+
+  private FluentdLoggerBackend backend;
+
+  @Setup
+  public void setUp() {
+    System.setProperty(SystemPropertiesLevelDisabler.LEVEL_PREFIX + "com.example", "INFO");
+    FluentdLevelDisabler disabler = SystemPropertiesLevelDisabler.getInstance();
+    disabler.refresh();
+    backend = new FluentdLoggerBackend(new FluentLogger("", new NullSender()) {}, "com.example.Service", disabler.forLoggerName("com.example.Service"), null, null, null);
+  }
+
+  @Benchmark
+  public boolean disabled() {
+    return backend.isLoggable(Level.FINE);
+  }
+
+  @Benchmark
+  public boolean enabled() {
+    return backend.isLoggable(Level.WARNING);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.flogger.backend.LogData;
+
+import org.fluentd.logger.FluentLogger;
+import org.fluentd.logger.sender.Sender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link FluentdLoggerBackend#log} for a plain log statement, one with metadata and
+ * {@code Tags} and one with a cause, along the map based path used with the senders of the Fluentd
+ * logger and the encoded path used with the senders of this backend.
+ *
+ * <p>Log statements go either to a {@link NullSender}, which serializes and discards them, or
+ * through a {@link FluentdNioSender} to a {@link LoopbackServer}. Run with the GC profiler to see
+ * the allocation rate: {@code java -jar target/benchmarks.jar LoggerBackendBenchmark -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerBackendBenchmark {
+
+  @Param({"map", "encoded"})
+  public String path;
+
+  @Param({"null", "loopback"})
+  public String sender;
+
+  private final LogData plain = BenchmarkLogData.plain();
+  private final LogData metadata = BenchmarkLogData.metadata();
+  private final LogData exception = BenchmarkLogData.exception();
+  private LoopbackServer server;
+  private Sender out;
+  private FluentdLoggerBackend backend;
+
+  @Setup
+  public void setUp() throws IOException {
+    if (sender.equals("loopback")) {
+      server = new LoopbackServer();
+      out = new FluentdNioSender("localhost", server.getPort(), 3000, 64 * 1024 * 1024);
+    } else {
+      out = new NullSender();
+    }
+    // Without a tag prefix the backend leaves it to the Fluentd logger and builds a map.
+    backend = path.equals("map")
+              ? new FluentdLoggerBackend(new FluentLogger("com.example.Service", out) {}, null, null, null, null, null)
+              : new FluentdLoggerBackend(new FluentLogger("", out) {}, "com.example.Service", null, null, null, null);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    out.close();
+    if (server != null) server.close();
+  }
+
+  @Benchmark
+  public void plain() {
+    backend.log(plain);
+  }
+
+  @Benchmark
+  public void metadata() {
+    backend.log(metadata);
+  }
+
+  @Benchmark
+  public void exception() {
+    backend.log(exception);
+  }
+}
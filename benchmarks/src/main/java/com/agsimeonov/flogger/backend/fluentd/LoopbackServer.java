@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/** A loopback Fluentd stand-in which reads and discards everything sent to it. */
+final class LoopbackServer implements Closeable {
+
+  private final ServerSocketChannel server;
+
+  LoopbackServer() throws IOException {
+    server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    Thread acceptor = new Thread(this::accept, "loopback-server");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  int getPort() {
+    return server.socket().getLocalPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.close();
+  }
+
+  private void accept() {
+    while (server.isOpen()) {
+      try {
+        SocketChannel channel = server.accept();
+        Thread reader = new Thread(() -> discard(channel), "loopback-connection");
+        reader.setDaemon(true);
+        reader.start();
+      } catch (IOException exception) {
+        return;
+      }
+    }
+  }
+
+  private static void discard(SocketChannel channel) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+    try (SocketChannel connection = channel) {
+      while (connection.read(buffer) >= 0) buffer.clear();
+    } catch (IOException exception) {
+      return;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.Map;
+
+import org.fluentd.logger.errorhandler.ErrorHandler;
+
+/**
+ * A sender which encodes every log statement into a Message frame the way the non-blocking sender
+ * does and discards it, so benchmarks measure serialization without any I/O.
+ */
+final class NullSender implements FluentdRecordSender {
+
+  private final FluentdMessagePacker frame = new FluentdMessagePacker(1024);
+
+  @Override
+  public boolean emit(String tag, Map<String, Object> data) {
+    return emit(tag, 0, data);
+  }
+
+  @Override
+  public synchronized boolean emit(String tag, long timestamp, Map<String, Object> data) {
+    frame.reset();
+    frame.packArrayHeader(3).packString(tag).packLong(timestamp).packValue(data);
+    return true;
+  }
+
+  @Override
+  public synchronized boolean emit(String tag, long timestamp, FluentdMessagePacker record) {
+    frame.reset();
+    frame.packArrayHeader(3).packString(tag).packLong(timestamp).write(record);
+    return true;
+  }
+
+  @Override
+  public void flush() {}
+
+  @Override
+  public void close() {}
+
+  @Override
+  public String getName() {
+    return "null";
+  }
+
+  @Override
+  public boolean isConnected() {
+    return true;
+  }
+
+  @Override
+  public void setErrorHandler(ErrorHandler errorHandler) {}
+
+  @Override
+  public void removeErrorHandler() {}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads Fluentd Forward protocol ack responses, {@code {"ack": chunk}}, decoding just the subset of
+ * MessagePack such a response consists of.
+ *
+ * <p>Not thread safe, each connection is expected to have its own reader.
+ */
+final class FluentdAckReader {
+
+  private final DataInputStream in;
+  private byte[] bytes = new byte[64];
+
+  /**
+   * Reads Fluentd Forward protocol ack responses.
+   *
+   * @param in the input stream of the connection.
+   */
+  FluentdAckReader(InputStream in) {
+    this.in = new DataInputStream(in);
+  }
+
+  /**
+   * Blocks until the next ack response is read.
+   *
+   * @return the acknowledged chunk id, or null if the response holds no ack.
+   * @throws EOFException if the connection was closed.
+   * @throws IOException if the connection failed or the response is not a map of strings.
+   */
+  String read() throws IOException {
+    int header = in.readUnsignedByte();
+    int entries;
+    if ((header & 0xf0) == 0x80) {
+      entries = header & 0x0f;
+    } else if (header == 0xde) {
+      entries = in.readUnsignedShort();
+    } else {
+      throw new IOException("Unexpected ack response header: " + header);
+    }
+    String result = null;
+    for (int i = 0; i < entries; i++) {
+      String key = readString();
+      String value = readString();
+      if (key.equals("ack")) result = value;
+    }
+    return result;
+  }
+
+  private String readString() throws IOException {
+    int header = in.readUnsignedByte();
+    int length;
+    if ((header & 0xe0) == 0xa0) {
+      length = header & 0x1f;
+    } else if (header == 0xd9 || header == 0xc4) {
+      length = in.readUnsignedByte();
+    } else if (header == 0xda || header == 0xc5) {
+      length = in.readUnsignedShort();
+    } else if (header == 0xdb || header == 0xc6) {
+      length = in.readInt();
+    } else {
+      throw new IOException("Unexpected ack response value: " + header);
+    }
+    if (length < 0 || length > 1024) throw new IOException("Unexpected ack response length: " + length);
+    if (bytes.length < length) bytes = new byte[length];
+    in.readFully(bytes, 0, length);
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+import org.fluentd.logger.FluentLogger;
+
+/**
+ * Hands log statements over to a dedicated thread which sends them to Fluentd.
+ *
+ * <p>Log statements are buffered in a bounded ring of preallocated slots which any number of
+ * logging threads may fill and a single drain thread empties, so the cost on the logging thread is
+ * that of claiming and filling a slot. What happens when the ring is full is determined by the
+ * configured {@link FluentdOverflowPolicy}.
+ */
+final class FluentdAsyncDispatcher {
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  private static final FluentdMetrics METRICS = FluentdMetrics.active();
+
+  private final Slot[] slots;
+  private final int mask;
+  private final FluentdOverflowPolicy overflowPolicy;
+  private final int overflowLevel;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong released = new AtomicLong();
+  private final LongAdder dropped = new LongAdder();
+  private final FluentdMessagePacker drained = new FluentdMessagePacker();
+  private final Thread drainer;
+  private final LongSupplier depth = () -> tail.get() - head.get();
+
+  private volatile boolean parked;
+  private volatile boolean running = true;
+
+  /**
+   * Hands log statements over to a dedicated thread which sends them to Fluentd.
+   *
+   * @param settings the asynchronous dispatch settings.
+   */
+  FluentdAsyncDispatcher(FluentdAsyncSettings settings) {
+    int capacity = Integer.highestOneBit(Math.max(2, settings.getCapacity()) - 1) << 1;
+    this.slots = new Slot[capacity];
+    for (int i = 0; i < capacity; i++) slots[i] = new Slot(i);
+    this.mask = capacity - 1;
+    this.overflowPolicy = settings.getOverflowPolicy();
+    this.overflowLevel = settings.getOverflowLevel().intValue();
+    this.drainer = new Thread(this::drain, "flogger-fluentd-dispatcher");
+    drainer.setDaemon(true);
+    drainer.start();
+    if (METRICS != null) METRICS.addQueuedEvents(depth);
+  }
+
+  /**
+   * Buffers a log statement to be sent to Fluentd by the drain thread.
+   *
+   * @param logger the Fluentd logger which will send the log statement.
+   * @param level the level of the log statement.
+   * @param tag the tag suffix of the log statement.
+   * @param data the log statement.
+   * @param timestamp the timestamp of the log statement in seconds.
+   * @return true if the log statement was buffered, otherwise false if it was dropped.
+   */
+  boolean dispatch(FluentLogger logger, Level level, String tag, Map<String, Object> data, long timestamp) {
+    return dispatch(level, logger, null, tag, data, null, timestamp);
+  }
+
+  /**
+   * Buffers a log statement already encoded as a MessagePack map to be sent to Fluentd by the drain
+   * thread, the record is copied into the slot so the caller may reuse its packer right away.
+   *
+   * @param sender the sender which will send the log statement.
+   * @param level the level of the log statement.
+   * @param tag the full tag of the log statement.
+   * @param record the packer holding the encoded log statement.
+   * @param timestamp the timestamp of the log statement in seconds.
+   * @return true if the log statement was buffered, otherwise false if it was dropped.
+   */
+  boolean dispatch(FluentdRecordSender sender, Level level, String tag, FluentdMessagePacker record, long timestamp) {
+    return dispatch(level, null, sender, tag, null, record, timestamp);
+  }
+
+  private boolean dispatch(Level level, FluentLogger logger, FluentdRecordSender sender, String tag, Map<String, Object> data, FluentdMessagePacker record, long timestamp) {
+    while (!running || !offer(level, logger, sender, tag, data, record, timestamp)) {
+      if (!running || overflowPolicy == FluentdOverflowPolicy.DROP_NEWEST
+          || (overflowPolicy == FluentdOverflowPolicy.DROP_BELOW_LEVEL && level.intValue() < overflowLevel)) {
+        dropped.increment();
+        return false;
+      }
+      if (overflowPolicy == FluentdOverflowPolicy.DROP_OLDEST) {
+        if (poll(false)) dropped.increment();
+      } else {
+        LockSupport.unpark(drainer);
+        LockSupport.parkNanos(this, FULL_PARK_NANOS);
+      }
+    }
+    if (parked) LockSupport.unpark(drainer);
+    return true;
+  }
+
+  /** Blocks until every log statement buffered before this call has been handed to its logger. */
+  void flush() {
+    long target = tail.get();
+    while (released.get() < target && drainer.isAlive()) {
+      LockSupport.unpark(drainer);
+      LockSupport.parkNanos(this, FULL_PARK_NANOS);
+    }
+  }
+
+  /** Stops accepting log statements, sends everything still buffered and stops the drain thread. */
+  void close() {
+    running = false;
+    LockSupport.unpark(drainer);
+    try {
+      drainer.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    }
+    if (METRICS != null) METRICS.removeQueuedEvents(depth);
+  }
+
+  /**
+   * Acquires the number of log statements dropped due to the overflow policy.
+   *
+   * @return the number of dropped log statements.
+   */
+  long getDropped() {
+    return dropped.sum();
+  }
+
+  /** Empties the ring into the Fluentd loggers until the dispatcher is closed. */
+  private void drain() {
+    while (running || head.get() < tail.get()) {
+      if (poll(true)) continue;
+      parked = true;
+      if (running && head.get() == tail.get()) LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+      parked = false;
+    }
+  }
+
+  /**
+   * Claims the next free slot and fills it with a log statement.
+   *
+   * @return true if a slot was claimed, otherwise false if the ring is full.
+   */
+  private boolean offer(Level level, FluentLogger logger, FluentdRecordSender sender, String tag, Map<String, Object> data, FluentdMessagePacker record, long timestamp) {
+    long position = tail.get();
+    while (true) {
+      Slot slot = slots[(int) position & mask];
+      long difference = slot.sequence - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          slot.level = level;
+          slot.logger = logger;
+          slot.sender = sender;
+          slot.tag = tag;
+          slot.data = data;
+          if (record != null) {
+            if (slot.record == null) slot.record = new FluentdMessagePacker(record.size());
+            slot.record.reset();
+            slot.record.write(record);
+          }
+          slot.timestamp = timestamp;
+          slot.sequence = position + 1;
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Releases the oldest filled slot.
+   *
+   * @param send whether the log statement held by the slot should be sent or discarded.
+   * @return true if a slot was released, otherwise false if the ring is empty.
+   */
+  private boolean poll(boolean send) {
+    long position = head.get();
+    while (true) {
+      Slot slot = slots[(int) position & mask];
+      long difference = slot.sequence - (position + 1);
+      if (difference == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          Level level = slot.level;
+          FluentLogger logger = slot.logger;
+          FluentdRecordSender sender = slot.sender;
+          String tag = slot.tag;
+          Map<String, Object> data = slot.data;
+          long timestamp = slot.timestamp;
+          if (send && sender != null) {
+            drained.reset();
+            drained.write(slot.record);
+          }
+          slot.level = null;
+          slot.logger = null;
+          slot.sender = null;
+          slot.tag = null;
+          slot.data = null;
+          slot.sequence = position + slots.length;
+          boolean sent = false;
+          if (send) {
+            try {
+              sent = sender != null ? sender.emit(tag, timestamp, drained) : logger.log(tag, data, timestamp);
+            } catch (RuntimeException exception) {
+              exception.printStackTrace();
+            }
+          }
+          if (!sent && METRICS != null && level != null) {
+            FluentdMetrics.Counter counter = METRICS.counter(tag, level);
+            (send ? counter.failed : counter.dropped).increment();
+          }
+          released.incrementAndGet();
+          return true;
+        }
+        position = head.get();
+      } else if (difference < 0) {
+        return false;
+      } else {
+        position = head.get();
+      }
+    }
+  }
+
+  /** A preallocated ring slot, the sequence determines whether it is free or filled. */
+  private static final class Slot {
+
+    private volatile long sequence;
+    private Level level;
+    private FluentLogger logger;
+    private FluentdRecordSender sender;
+    private String tag;
+    private Map<String, Object> data;
+    private FluentdMessagePacker record;
+    private long timestamp;
+
+    private Slot(long sequence) {
+      this.sequence = sequence;
+    }
+  }
+}
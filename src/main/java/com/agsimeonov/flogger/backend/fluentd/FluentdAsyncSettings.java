@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.logging.Level;
+
+/** Used to configure asynchronous dispatch of log statements to Fluentd. */
+public interface FluentdAsyncSettings {
+
+  /**
+   * Acquires the number of log statements the dispatch buffer can hold.
+   *
+   * @return the capacity of the dispatch buffer, rounded up to a power of two when used.
+   */
+  public int getCapacity();
+
+  /**
+   * Acquires the policy applied when the dispatch buffer is full.
+   *
+   * @return the overflow policy.
+   */
+  public FluentdOverflowPolicy getOverflowPolicy();
+
+  /**
+   * Acquires the level below which log statements are dropped when the dispatch buffer is full.
+   * Only used by {@link FluentdOverflowPolicy#DROP_BELOW_LEVEL}.
+   *
+   * @return the overflow level.
+   */
+  public Level getOverflowLevel();
+}
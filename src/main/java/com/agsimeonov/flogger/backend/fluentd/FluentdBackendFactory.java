@@ -18,8 +18,9 @@ package com.agsimeonov.flogger.backend.fluentd;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nullable;
 
@@ -29,7 +30,10 @@ import com.google.common.flogger.backend.system.BackendFactory;
 import com.google.common.flogger.backend.system.DefaultPlatform;
 import com.google.common.flogger.backend.system.StackBasedCallerFinder;
 
+import org.fluentd.logger.Config;
 import org.fluentd.logger.FluentLogger;
+import org.fluentd.logger.sender.RawSocketSender;
+import org.fluentd.logger.sender.Sender;
 
 /**
  * BackendFactory for Fluentd.
@@ -46,10 +50,23 @@ public final class FluentdBackendFactory extends BackendFactory {
   private static final String CALLER_FINDER = "caller_finder";
   private static final String REMOTE_SETTINGS = "remote_settings";
   private static final String LEVEL_DISABLER = "level_disabler";
+  private static final String ASYNC_SETTINGS = "async_settings";
+  private static final String DEFAULT_HOST = "localhost";
+  private static final int DEFAULT_PORT = 24224;
+  private static final int DEFAULT_TIMEOUT = 3 * 1000;
+  private static final int DEFAULT_BUFFER_CAPACITY = 1024 * 1024;
 
+  private static final ConcurrentMap<String, ResolvedAttribute> RESOLVED_ATTRIBUTES = new ConcurrentHashMap<>();
+  private static final Method RESOLVE_ATTRIBUTE = resolveAttributeMethod();
   private static final FluentdBackendFactory INSTANCE = new FluentdBackendFactory();
 
-  private final Map<String, LoggerBackend> loggerBackends = new HashMap<>();
+  private final ConcurrentMap<String, LoggerBackend> loggerBackends = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, FluentLogger> loggers = new ConcurrentHashMap<>();
+  private final FluentdRateLimiter.Snapshot limits = FluentdRateLimiter.snapshot();
+
+  private volatile FluentdAsyncDispatcher dispatcher;
+  private volatile FluentdEventAggregator aggregator;
+  private volatile boolean initialized;
 
   static {
     try {
@@ -68,7 +85,9 @@ public final class FluentdBackendFactory extends BackendFactory {
   }
 
   /** BackendFactory for Fluentd. */
-  private FluentdBackendFactory() {}
+  private FluentdBackendFactory() {
+    Runtime.getRuntime().addShutdownHook(new Thread(this::close, "flogger-fluentd-shutdown"));
+  }
 
   /**
    * This method is expected to be called via reflection (and might otherwise be unused).
@@ -79,16 +98,161 @@ public final class FluentdBackendFactory extends BackendFactory {
     return INSTANCE;
   }
 
+  /**
+   * Acquires the backend of a logging class, backends are cached so a cache hit takes no lock.
+   *
+   * <p>The settings, disablers and senders a backend is created with are resolved before the cache
+   * is updated, since resolving them may log and so re-enter this method on the same thread. Only
+   * the backend itself is created within the cache, so should several threads race to create the
+   * backend of a logging class it is created once and all of them use it.
+   *
+   * @param loggingClassName the name of the logging class.
+   * @return the backend of the logging class.
+   */
   @Override
-  public synchronized LoggerBackend create(String loggingClassName) {
-    if (loggerBackends.containsKey(loggingClassName)) return loggerBackends.get(loggingClassName);
-    FluentdRemoteSettings remoteSettings = resolveAttribute(REMOTE_SETTINGS, FluentdRemoteSettings.class);
-    FluentLogger logger = remoteSettings != null
-                        ? FluentLogger.getLogger(loggingClassName.replace('$', '.'), remoteSettings.getHost(), remoteSettings.getPort())
-                        : FluentLogger.getLogger(loggingClassName.replace('$', '.'));
-    LoggerBackend result = new FluentdLoggerBackend(logger, resolveAttribute(LEVEL_DISABLER, FluentdLevelDisabler.class));
-    loggerBackends.put(loggingClassName, result);
-    return result;
+  public LoggerBackend create(String loggingClassName) {
+    LoggerBackend result = loggerBackends.get(loggingClassName);
+    if (result != null) return result;
+    initialize();
+    String tagPrefix = loggingClassName.replace('$', '.');
+    FluentdLevelDisabler disabler = resolveAttribute(LEVEL_DISABLER, FluentdLevelDisabler.class);
+    FluentdAsyncSettings asyncSettings = resolveAttribute(ASYNC_SETTINGS, FluentdAsyncSettings.class);
+    FluentLogger logger = getLogger(resolveAttribute(REMOTE_SETTINGS, FluentdRemoteSettings.class));
+    FluentdAsyncDispatcher dispatcher = asyncSettings != null ? getDispatcher(asyncSettings) : null;
+    FluentdEventAggregator aggregator = getAggregator();
+    return loggerBackends.computeIfAbsent(loggingClassName, name -> {
+      FluentdLevelDisabler loggerDisabler = disabler != null ? disabler.forLoggerName(tagPrefix) : null;
+      return new FluentdLoggerBackend(logger, tagPrefix, loggerDisabler, limits.forLoggerName(tagPrefix), dispatcher, aggregator);
+    });
+  }
+
+  /**
+   * Initializes this factory once the first backend is created, registering the metrics. Not done
+   * in the constructor since registering the metrics may log and so re-enter the factory while its
+   * class is being initialized, a backend created while initializing does not initialize again.
+   */
+  private void initialize() {
+    if (initialized) return;
+    synchronized (this) {
+      if (initialized) return;
+      initialized = true;
+    }
+    FluentdMetrics.getInstance().register();
+  }
+
+  /**
+   * Acquires the Fluentd logger shared by all backends sending to the same destination, creating it
+   * on first use. Shared loggers have an empty tag prefix, backends provide the full tag of each log
+   * statement.
+   *
+   * <p>The sender is created outside the cache, since creating it may connect, open spill files or
+   * log, and should several threads race the senders of all but the published logger are closed.
+   *
+   * @param remoteSettings the remote settings, or null for the default local Fluentd.
+   * @return the shared Fluentd logger of the destination.
+   */
+  private FluentLogger getLogger(@Nullable FluentdRemoteSettings remoteSettings) {
+    String host = remoteSettings != null ? remoteSettings.getHost() : DEFAULT_HOST;
+    int port = remoteSettings != null ? remoteSettings.getPort() : DEFAULT_PORT;
+    String socketPath = remoteSettings != null ? remoteSettings.getSocketPath() : null;
+    boolean packedForward = remoteSettings != null
+                            && (remoteSettings.isPackedForward()
+                                || remoteSettings.isCompressed()
+                                || remoteSettings.isAcked()
+                                || remoteSettings.getSpillDirectory() != null
+                                || socketPath != null);
+    String senderClass = packedForward
+                       ? FluentdForwardSender.class.getName()
+                       : System.getProperty(Config.FLUENT_SENDER_CLASS, FluentdNioSender.class.getName());
+    String destination = senderClass + "://" + (socketPath != null ? "unix:" + socketPath : host + ":" + port);
+    FluentLogger result = loggers.get(destination);
+    if (result != null) return result;
+    Sender sender = packedForward ? new FluentdForwardSender(remoteSettings) : createSender(senderClass, host, port);
+    result = new FluentLogger("", sender) {};
+    FluentLogger existing = loggers.putIfAbsent(destination, result);
+    if (existing == null) return result;
+    sender.close();
+    return existing;
+  }
+
+  /**
+   * Creates a sender the way {@link FluentLogger#getLogger(String, String, int)} does, honoring the
+   * {@code fluentd.logger.sender.class} system property, except that it defaults to the {@link
+   * FluentdNioSender} instead of the {@link RawSocketSender}.
+   *
+   * @param senderClass the name of the sender class.
+   * @param host the Fluentd host.
+   * @param port the Fluentd port.
+   * @return the sender.
+   */
+  private static Sender createSender(String senderClass, String host, int port) {
+    if (senderClass.equals(FluentdNioSender.class.getName())) return new FluentdNioSender(host, port, DEFAULT_TIMEOUT, DEFAULT_BUFFER_CAPACITY);
+    if (senderClass.equals(RawSocketSender.class.getName())) return new RawSocketSender(host, port, DEFAULT_TIMEOUT, DEFAULT_BUFFER_CAPACITY);
+    try {
+      return (Sender) FluentLogger.class.getClassLoader()
+                                        .loadClass(senderClass)
+                                        .getDeclaredConstructor(String.class, int.class, int.class, int.class)
+                                        .newInstance(host, port, DEFAULT_TIMEOUT, DEFAULT_BUFFER_CAPACITY);
+    } catch (ReflectiveOperationException exception) {
+      throw new RuntimeException(exception);
+    }
+  }
+
+  /**
+   * Sends everything buffered, first sending the records coalesced by the aggregator, then draining
+   * the asynchronous dispatcher and then flushing the shared Fluentd loggers.
+   */
+  void flush() {
+    FluentdEventAggregator aggregator = this.aggregator;
+    if (aggregator != null) aggregator.flush();
+    FluentdAsyncDispatcher dispatcher = this.dispatcher;
+    if (dispatcher != null) dispatcher.flush();
+    for (FluentLogger logger : loggers.values()) logger.flush();
+  }
+
+  /**
+   * Shuts down in order, first closing the aggregator so the records it coalesced are sent, then
+   * closing the asynchronous dispatcher so everything it buffered is handed to the shared Fluentd
+   * loggers and then closing the shared Fluentd loggers. Used as the single shutdown hook of this
+   * backend.
+   */
+  void close() {
+    FluentdEventAggregator aggregator = this.aggregator;
+    if (aggregator != null) aggregator.close();
+    FluentdAsyncDispatcher dispatcher = this.dispatcher;
+    if (dispatcher != null) dispatcher.close();
+    for (FluentLogger logger : loggers.values()) logger.close();
+  }
+
+  /**
+   * Acquires the asynchronous dispatcher shared by all backends, creating it on first use.
+   *
+   * @param asyncSettings the asynchronous dispatch settings used to create the dispatcher.
+   * @return the shared asynchronous dispatcher.
+   */
+  private FluentdAsyncDispatcher getDispatcher(FluentdAsyncSettings asyncSettings) {
+    FluentdAsyncDispatcher result = dispatcher;
+    if (result != null) return result;
+    synchronized (this) {
+      if (dispatcher == null) dispatcher = new FluentdAsyncDispatcher(asyncSettings);
+      return dispatcher;
+    }
+  }
+
+  /**
+   * Acquires the aggregator shared by all backends, creating it on first use if aggregation is
+   * enabled via system property.
+   *
+   * @return the shared aggregator, or null if aggregation is not enabled.
+   */
+  @Nullable
+  private FluentdEventAggregator getAggregator() {
+    FluentdEventAggregator result = aggregator;
+    if (result != null) return result;
+    synchronized (this) {
+      if (aggregator == null) aggregator = FluentdEventAggregator.create();
+      return aggregator;
+    }
   }
 
   @Override
@@ -100,10 +264,12 @@ public final class FluentdBackendFactory extends BackendFactory {
    * Helper to call a static no-arg getter to obtain an instance of a specified type. This is used
    * for platform aspects which are optional, but are expected to have a singleton available.
    *
+   * <p>The instance is cached along with the value of the system property it was resolved from,
+   * so the static method is only called again once the system property changes.
+   *
    * @param <T> the type of the instance.
    * @param attributeName the system property specifying an instance of a class.
    * @param type the type of the instance.
-   *
    * @return the return value of the specified static no-argument method, or null if the method
    *     cannot be called or the returned value is of the wrong type.
    *
@@ -112,13 +278,45 @@ public final class FluentdBackendFactory extends BackendFactory {
   @Nullable
   @SuppressWarnings("unchecked")
   private static <T> T resolveAttribute(String attributeName, Class<T> type) {
+    String property = System.getProperty(ResolvedAttribute.PREFIX + attributeName);
+    ResolvedAttribute resolved = RESOLVED_ATTRIBUTES.get(attributeName);
+    if (resolved != null && Objects.equals(resolved.property, property) && resolved.type == type) return (T) resolved.instance;
+    if (RESOLVE_ATTRIBUTE == null) return null;
     try {
-      Method resolveAttribute = DefaultPlatform.class.getDeclaredMethod("resolveAttribute", String.class, Class.class);
-      resolveAttribute.setAccessible(true);
-      return (T) resolveAttribute.invoke(null, attributeName, type);
+      T result = (T) RESOLVE_ATTRIBUTE.invoke(null, attributeName, type);
+      RESOLVED_ATTRIBUTES.put(attributeName, new ResolvedAttribute(property, type, result));
+      return result;
     } catch (ReflectiveOperationException exception) {
       exception.printStackTrace();
       return null;
     }
   }
+
+  @Nullable
+  private static Method resolveAttributeMethod() {
+    try {
+      Method result = DefaultPlatform.class.getDeclaredMethod("resolveAttribute", String.class, Class.class);
+      result.setAccessible(true);
+      return result;
+    } catch (ReflectiveOperationException exception) {
+      exception.printStackTrace();
+      return null;
+    }
+  }
+
+  /** An attribute instance along with the system property value it was resolved from. */
+  private static final class ResolvedAttribute {
+
+    private static final String PREFIX = "flogger.";
+
+    private final String property;
+    private final Class<?> type;
+    private final Object instance;
+
+    private ResolvedAttribute(String property, Class<?> type, Object instance) {
+      this.property = property;
+      this.type = type;
+      this.instance = instance;
+    }
+  }
 }
@@ -17,7 +17,6 @@ package com.agsimeonov.flogger.backend.fluentd;
 
 import com.google.common.flogger.LogSite;
 import com.google.common.flogger.backend.Platform.LogCallerFinder;
-import com.google.common.flogger.util.CallerFinder;
 import com.google.common.flogger.util.StackBasedLogSite;
 
 /** The base for Fluentd caller finders which makes sure to set the log site based on the stack. */
@@ -25,7 +24,7 @@ public abstract class FluentdCallerFinder extends LogCallerFinder {
 
   @Override
   public LogSite findLogSite(Class<?> loggerApi, int stackFramesToSkip) {
-    StackTraceElement caller = CallerFinder.findCallerOf(loggerApi, new Throwable(), stackFramesToSkip + 1);
+    StackTraceElement caller = FluentdStackFrames.findCallerOf(loggerApi, stackFramesToSkip + 1);
     return caller != null ? new StackBasedLogSite(caller) : LogSite.INVALID;
   }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A connection to Fluentd, either over TCP or over a Unix domain socket, exposed as a pair of
+ * streams.
+ *
+ * <p>The streams of a Unix domain socket channel read and write the channel directly, so a thread
+ * blocked reading acks never holds up a thread writing frames.
+ */
+final class FluentdConnection implements Closeable {
+
+  private final Socket socket;
+  private final SocketChannel channel;
+  private final InputStream in;
+  private final OutputStream out;
+
+  private FluentdConnection(Socket socket) throws IOException {
+    this.socket = socket;
+    this.channel = null;
+    this.in = socket.getInputStream();
+    this.out = socket.getOutputStream();
+  }
+
+  private FluentdConnection(SocketChannel channel) {
+    this.socket = null;
+    this.channel = channel;
+    this.in = new ChannelInputStream(channel);
+    this.out = new ChannelOutputStream(channel);
+  }
+
+  /**
+   * Connects to Fluentd over TCP.
+   *
+   * @param host the Fluentd host.
+   * @param port the Fluentd port.
+   * @param timeout the connect timeout in milliseconds.
+   * @return the connection.
+   * @throws IOException if the connection failed.
+   */
+  static FluentdConnection connect(String host, int port, int timeout) throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(host, port), timeout);
+      socket.setTcpNoDelay(true);
+      return new FluentdConnection(socket);
+    } catch (IOException exception) {
+      socket.close();
+      throw exception;
+    }
+  }
+
+  /**
+   * Connects to Fluentd over a Unix domain socket.
+   *
+   * @param path the path of the socket file.
+   * @return the connection.
+   * @throws IOException if the connection failed or Unix domain sockets are not supported.
+   */
+  static FluentdConnection connect(String path) throws IOException {
+    return new FluentdConnection(FluentdUnixSockets.connect(path));
+  }
+
+  InputStream getInputStream() {
+    return in;
+  }
+
+  OutputStream getOutputStream() {
+    return out;
+  }
+
+  /**
+   * Determines whether the connection is established and not closed.
+   *
+   * @return true if the connection is open.
+   */
+  boolean isOpen() {
+    return socket != null ? socket.isConnected() && !socket.isClosed() : channel.isOpen() && channel.isConnected();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (socket != null) {
+      socket.close();
+    } else {
+      channel.close();
+    }
+  }
+
+  /** Reads a blocking channel directly. */
+  private static final class ChannelInputStream extends InputStream {
+
+    private final SocketChannel channel;
+
+    private ChannelInputStream(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] bytes = new byte[1];
+      return read(bytes, 0, 1) < 0 ? -1 : bytes[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      return length == 0 ? 0 : channel.read(ByteBuffer.wrap(bytes, offset, length));
+    }
+  }
+
+  /** Writes a blocking channel directly. */
+  private static final class ChannelOutputStream extends OutputStream {
+
+    private final SocketChannel channel;
+
+    private ChannelOutputStream(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+      write(new byte[] {(byte) value}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+      while (buffer.hasRemaining()) channel.write(buffer);
+    }
+  }
+}
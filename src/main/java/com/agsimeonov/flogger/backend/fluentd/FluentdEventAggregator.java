@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+import com.google.common.flogger.LogSite;
+
+/**
+ * Coalesces log statements with the same tag, log site and formatted message within a window.
+ *
+ * <p>The first log statement of a window is sent right away and its record retained. Identical
+ * log statements that follow within the window are only counted, and once the window elapses a
+ * single copy of the retained record is sent on their behalf, carrying their {@code count} and the
+ * {@code firstTimestampNanos} and {@code lastTimestampNanos} of the first and last of them, while
+ * its {@code timestampNanos} remains that of the retained record. A run of identical log statements
+ * thus costs two records per window however long it is.
+ *
+ * <p>To enable set the following system property, the window in milliseconds:
+ *
+ * <ul>
+ *   <li>{@code flogger.aggregate=<window>}.
+ * </ul>
+ */
+final class FluentdEventAggregator {
+
+  static final String AGGREGATE = "flogger.aggregate";
+
+  private static final int MAX_ENTRIES = 1024;
+
+  private final long window;
+  private final LongSupplier nanoTime;
+  private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+  private final Thread sweeper;
+
+  private volatile boolean running = true;
+
+  /**
+   * Coalesces log statements within a window.
+   *
+   * @param window the window in nanoseconds.
+   * @param nanoTime the source of the current time in nanoseconds.
+   */
+  FluentdEventAggregator(long window, LongSupplier nanoTime) {
+    this.window = window;
+    this.nanoTime = nanoTime;
+    this.sweeper = new Thread(this::sweepUntilClosed, "flogger-fluentd-aggregator");
+    sweeper.setDaemon(true);
+    sweeper.start();
+  }
+
+  /**
+   * Creates an aggregator with the window configured via system property.
+   *
+   * @return an aggregator, or null if aggregation is not enabled.
+   */
+  static FluentdEventAggregator create() {
+    try {
+      long window = Long.valueOf(System.getProperty(AGGREGATE));
+      return window > 0 ? new FluentdEventAggregator(TimeUnit.MILLISECONDS.toNanos(window), System::nanoTime) : null;
+    } catch (Exception exception) {
+      return null;
+    }
+  }
+
+  /**
+   * Determines whether a log statement collected into a map should be sent, otherwise it is counted
+   * towards the record retained for its window.
+   *
+   * @param backend the backend which sends the coalesced record.
+   * @param level the level of the log statement.
+   * @param tag the tag of the log statement.
+   * @param logSite the log site of the log statement, or null.
+   * @param message the formatted message of the log statement.
+   * @param timestampNanos the timestamp of the log statement in nanoseconds.
+   * @param data the log statement, copied if retained.
+   * @return true if the log statement should be sent.
+   */
+  boolean admit(FluentdLoggerBackend backend, Level level, String tag, LogSite logSite, CharSequence message, long timestampNanos, Map<String, Object> data) {
+    return admit(backend, level, tag, logSite, message, timestampNanos, data, null);
+  }
+
+  /**
+   * Determines whether a log statement encoded as a MessagePack map should be sent, otherwise it is
+   * counted towards the record retained for its window.
+   *
+   * @param backend the backend which sends the coalesced record.
+   * @param level the level of the log statement.
+   * @param tag the tag of the log statement.
+   * @param logSite the log site of the log statement, or null.
+   * @param message the formatted message of the log statement.
+   * @param timestampNanos the timestamp of the log statement in nanoseconds.
+   * @param record the packer holding the encoded log statement, copied if retained.
+   * @return true if the log statement should be sent.
+   */
+  boolean admit(FluentdLoggerBackend backend, Level level, String tag, LogSite logSite, CharSequence message, long timestampNanos, FluentdMessagePacker record) {
+    return admit(backend, level, tag, logSite, message, timestampNanos, null, record);
+  }
+
+  private boolean admit(FluentdLoggerBackend backend, Level level, String tag, LogSite logSite, CharSequence message, long timestampNanos, Map<String, Object> data, FluentdMessagePacker record) {
+    long now = nanoTime.getAsLong();
+    Key key = new Key(tag, logSite, message.toString());
+    while (true) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        if (entry.add(now, window, timestampNanos)) return false;
+        expire(key, entry);
+      }
+      if (entries.size() >= MAX_ENTRIES) return true;
+      Entry created = data != null
+                    ? new Entry(backend, level, tag, now, new HashMap<>(data), null)
+                    : new Entry(backend, level, tag, now, null, new FluentdMessagePacker(record.size()).write(record));
+      if (entries.putIfAbsent(key, created) == null) return true;
+    }
+  }
+
+  /** Sends the coalesced records of every window which has elapsed. */
+  void sweep() {
+    long now = nanoTime.getAsLong();
+    entries.forEach((key, entry) -> {
+      if (now - entry.start >= window) expire(key, entry);
+    });
+  }
+
+  /** Sends the coalesced records of every window right away, whether elapsed or not. */
+  void flush() {
+    entries.forEach(this::expire);
+  }
+
+  /** Stops the sweeper thread and sends the coalesced records of every window. */
+  void close() {
+    running = false;
+    LockSupport.unpark(sweeper);
+    flush();
+  }
+
+  /** Sweeps the windows which have elapsed until the aggregator is closed. */
+  private void sweepUntilClosed() {
+    while (running) {
+      LockSupport.parkNanos(this, window);
+      if (!running) return;
+      try {
+        sweep();
+      } catch (RuntimeException exception) {
+        exception.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Closes the window of an entry, sending its coalesced record if identical log statements were
+   * counted. Only the first caller to close the window sends the record.
+   */
+  private void expire(Key key, Entry entry) {
+    if (!entry.close()) return;
+    entries.remove(key, entry);
+    if (entry.count == 0) return;
+    long timestamp = TimeUnit.SECONDS.convert(entry.last, TimeUnit.NANOSECONDS);
+    if (entry.data != null) {
+      Map<String, Object> out = entry.data;
+      out.put("count", entry.count);
+      out.put("firstTimestampNanos", entry.first);
+      out.put("lastTimestampNanos", entry.last);
+      entry.backend.send(entry.level, out, timestamp);
+    } else {
+      FluentdMessagePacker out = entry.record;
+      out.patchMap32Header(0, out.readMap32Header(0) + 3);
+      out.packString("count").packLong(entry.count);
+      out.packString("firstTimestampNanos").packLong(entry.first);
+      out.packString("lastTimestampNanos").packLong(entry.last);
+      entry.backend.emit(entry.level, entry.tag, out, timestamp);
+    }
+  }
+
+  /** The tag, log site and formatted message identifying identical log statements. */
+  private static final class Key {
+
+    private final String tag;
+    private final LogSite logSite;
+    private final String message;
+    private final int hash;
+
+    private Key(String tag, LogSite logSite, String message) {
+      this.tag = tag;
+      this.logSite = logSite;
+      this.message = message;
+      this.hash = (tag.hashCode() * 31 + Objects.hashCode(logSite)) * 31 + message.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof Key)) return false;
+      Key other = (Key) object;
+      return hash == other.hash && tag.equals(other.tag) && Objects.equals(logSite, other.logSite) && message.equals(other.message);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** The record retained for a window along with the identical log statements counted since. */
+  private static final class Entry {
+
+    private final FluentdLoggerBackend backend;
+    private final Level level;
+    private final String tag;
+    private final long start;
+    private final Map<String, Object> data;
+    private final FluentdMessagePacker record;
+    private long count;
+    private long first;
+    private long last;
+    private boolean closed;
+
+    private Entry(FluentdLoggerBackend backend, Level level, String tag, long start, Map<String, Object> data, FluentdMessagePacker record) {
+      this.backend = backend;
+      this.level = level;
+      this.tag = tag;
+      this.start = start;
+      this.data = data;
+      this.record = record;
+    }
+
+    /**
+     * Counts an identical log statement if the window is still open.
+     *
+     * @return true if the log statement was counted.
+     */
+    private synchronized boolean add(long now, long window, long timestampNanos) {
+      if (closed || now - start >= window) return false;
+      if (count++ == 0) first = timestampNanos;
+      last = timestampNanos;
+      return true;
+    }
+
+    /**
+     * Closes the window.
+     *
+     * @return true if the window was open.
+     */
+    private synchronized boolean close() {
+      if (closed) return false;
+      closed = true;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,558 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.fluentd.logger.errorhandler.ErrorHandler;
+import org.fluentd.logger.sender.ExponentialDelayReconnector;
+import org.fluentd.logger.sender.Reconnector;
+
+/**
+ * A sender which batches log statements per tag into Fluentd Forward protocol PackedForward frames.
+ *
+ * <p>Each batch is sent as a single {@code [tag, entries, {"size": count}]} frame, where entries
+ * is the concatenation of the MessagePack encoded {@code [time, record]} log statements, once it
+ * reaches the configured size in bytes, the configured number of log statements or the configured
+ * linger time, whichever comes first.
+ *
+ * <p>When compression is enabled batches reaching the compression threshold are sent as
+ * CompressedPackedForward frames, {@code [tag, gzip(entries), {"size": count, "compressed": "gzip"}]}.
+ *
+ * <p>Logging threads never touch the connection. A full batch is queued as a frame, in memory up to
+ * a fixed capacity, and the linger thread connects, writes and reconnects with exponential backoff.
+ * The sender lock guarding the batches and the queue is never held during network I/O, so log
+ * statements keep being batched while Fluentd is slow or unreachable.
+ *
+ * <p>When a spill directory is configured the queued frames are moved to a {@link
+ * FluentdSpillStore} once the connection fails or the queue is full. Once anything is spilled later
+ * frames are spilled as well to keep them in order, and the linger thread replays the spilled
+ * frames as soon as the connection recovers.
+ *
+ * <p>When acks are enabled every frame carries a unique {@code chunk} option, written last so it can
+ * be recovered from the end of a spilled frame, and is kept until Fluentd responds with {@code
+ * {"ack": chunk}}. Up to the configured window of frames await their ack at once on the connection,
+ * read by a dedicated thread, so acknowledging costs no round trip per frame. Frames which are not
+ * acknowledged within the timeout are retransmitted on a new connection along with all others in
+ * flight, Fluentd discards the chunks it already received.
+ */
+final class FluentdForwardSender implements FluentdRecordSender {
+
+  private static final int TIMEOUT = 3 * 1000;
+  private static final int BUFFER_CAPACITY = 8 * 1024 * 1024;
+  private static final long WRITE_BYTES = 1024 * 1024;
+  private static final int CHUNK_LENGTH = 24;
+  private static final ErrorHandler DEFAULT_ERROR_HANDLER = new ErrorHandler() {};
+  private static final FluentdMetrics METRICS = FluentdMetrics.active();
+  private static final ScheduledExecutorService LINGER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "flogger-fluentd-linger");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final String host;
+  private final int port;
+  private final String socketPath;
+  private final int batchSize;
+  private final int batchEntries;
+  private final long batchLinger;
+  private final int compressionThreshold;
+  private final FluentdGzipCompressor compressor;
+  private final FluentdMessagePacker compressed;
+  private final Map<String, Batch> batches = new HashMap<>();
+  private final FluentdMessagePacker frame = new FluentdMessagePacker();
+  private final Deque<byte[]> pending = new ArrayDeque<>();
+  private final Object io = new Object();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private final Reconnector reconnector = new ExponentialDelayReconnector();
+  private final ScheduledFuture<?> linger;
+  private final FluentdSpillStore spill;
+  private final Map<String, InFlight> unacked;
+  private final int ackWindow;
+  private final long ackTimeout;
+  private final byte[] chunkId = new byte[16];
+
+  // Guarded by this, along with the batches, the pending frames and the spill store.
+  private int pendingBytes;
+  private long chunkSequence;
+  private boolean spilling;
+  private boolean closed;
+
+  // Guarded by io, along with the reconnector and the frames awaiting their ack.
+  private byte[] replayed = new byte[8192];
+  private boolean terminated;
+  private volatile FluentdConnection connection;
+  private OutputStream out;
+  private volatile ErrorHandler errorHandler = DEFAULT_ERROR_HANDLER;
+
+  /**
+   * A sender which batches log statements per tag into Fluentd Forward protocol PackedForward
+   * frames.
+   *
+   * @param remoteSettings the remote settings providing the destination and the batch limits.
+   */
+  FluentdForwardSender(FluentdRemoteSettings remoteSettings) {
+    this.host = remoteSettings.getHost();
+    this.port = remoteSettings.getPort();
+    this.socketPath = remoteSettings.getSocketPath();
+    this.batchSize = remoteSettings.getBatchSize();
+    this.batchEntries = remoteSettings.getBatchEntries();
+    this.batchLinger = Math.max(1, remoteSettings.getBatchLinger());
+    this.compressionThreshold = remoteSettings.getCompressionThreshold();
+    this.compressor = remoteSettings.isCompressed() ? new FluentdGzipCompressor(remoteSettings.getCompressionLevel()) : null;
+    this.compressed = compressor != null ? new FluentdMessagePacker(4096) : null;
+    this.spill = createSpill(remoteSettings);
+    this.unacked = remoteSettings.isAcked() ? new LinkedHashMap<>() : null;
+    this.ackWindow = Math.max(1, remoteSettings.getAckWindow());
+    this.ackTimeout = TimeUnit.MILLISECONDS.toNanos(remoteSettings.getAckTimeout());
+    long prefix = UUID.randomUUID().getMostSignificantBits();
+    for (int i = 0; i < 8; i++) chunkId[i] = (byte) (prefix >>> (56 - 8 * i));
+    this.linger = LINGER.scheduleWithFixedDelay(this::flushLingering, batchLinger, batchLinger, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public boolean emit(String tag, Map<String, Object> data) {
+    return emit(tag, TimeUnit.SECONDS.convert(System.currentTimeMillis(), TimeUnit.MILLISECONDS), data);
+  }
+
+  @Override
+  public synchronized boolean emit(String tag, long timestamp, Map<String, Object> data) {
+    if (closed) return false;
+    Batch batch = batch(tag);
+    int size = batch.entries.size();
+    try {
+      batch.entries.packArrayHeader(2).packLong(timestamp).packValue(data);
+    } catch (RuntimeException exception) {
+      batch.entries.truncate(size);
+      exception.printStackTrace();
+      return false;
+    }
+    return added(batch);
+  }
+
+  @Override
+  public synchronized boolean emit(String tag, long timestamp, FluentdMessagePacker record) {
+    if (closed) return false;
+    if (timestamp == 0) timestamp = TimeUnit.SECONDS.convert(System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    Batch batch = batch(tag);
+    batch.entries.packArrayHeader(2).packLong(timestamp).write(record);
+    return added(batch);
+  }
+
+  /** Queues every batch and writes everything queued or spilled on the calling thread. */
+  @Override
+  public void flush() {
+    synchronized (this) {
+      for (Batch batch : batches.values()) if (batch.count > 0) queue(batch);
+    }
+    transmit(Long.MAX_VALUE);
+  }
+
+  /**
+   * Sends everything buffered, waits up to the ack timeout for the frames in flight to be
+   * acknowledged and disconnects. Frames still unsent or unacknowledged are spilled if a spill
+   * directory is configured, to be sent by the next process. Log statements emitted afterwards are
+   * refused.
+   */
+  @Override
+  public void close() {
+    synchronized (io) {
+      synchronized (this) {
+        if (closed) return;
+        closed = true;
+      }
+      linger.cancel(false);
+      flush();
+      awaitAcks();
+      disconnect();
+      terminated = true;
+      synchronized (this) {
+        if (spill != null) {
+          for (byte[] bytes : pending) spill.append(bytes, 0, bytes.length);
+          if (unacked != null) for (InFlight inFlight : unacked.values()) spill.append(inFlight.frame, 0, inFlight.frame.length);
+          spill.close();
+        }
+        if (compressor != null) compressor.close();
+      }
+    }
+  }
+
+  @Override
+  public String getName() {
+    return socketPath != null ? socketPath : String.format("%s_%d", host, port);
+  }
+
+  @Override
+  public boolean isConnected() {
+    FluentdConnection connection = this.connection;
+    return connection != null && connection.isOpen();
+  }
+
+  @Override
+  public void setErrorHandler(ErrorHandler errorHandler) {
+    if (errorHandler == null) throw new IllegalArgumentException("errorHandler is null");
+    this.errorHandler = errorHandler;
+  }
+
+  @Override
+  public void removeErrorHandler() {
+    this.errorHandler = DEFAULT_ERROR_HANDLER;
+  }
+
+  @Override
+  public String toString() {
+    if (socketPath != null) return String.format("%s{path=%s}", getClass().getName(), socketPath);
+    return String.format("%s{host=%s,port=%d}", getClass().getName(), host, port);
+  }
+
+  private Batch batch(String tag) {
+    Batch batch = batches.get(tag);
+    if (batch == null) {
+      batch = new Batch(tag);
+      batches.put(tag, batch);
+    }
+    return batch;
+  }
+
+  /**
+   * Accounts for a log statement added to a batch and queues the batch if it is full.
+   *
+   * @param batch the batch.
+   * @return true if the log statement was batched, otherwise false.
+   */
+  private boolean added(Batch batch) {
+    if (batch.count++ == 0) batch.created = System.nanoTime();
+    if (batch.entries.size() < batchSize && batch.count < batchEntries) return true;
+    boolean queued = queue(batch);
+    schedule();
+    return queued;
+  }
+
+  /** Schedules the queued frames to be written on the linger thread unless that is scheduled already. */
+  private void schedule() {
+    if (!scheduled.getAndSet(true)) LINGER.execute(this::flushScheduled);
+  }
+
+  private void flushScheduled() {
+    scheduled.set(false);
+    if (transmit(WRITE_BYTES)) schedule();
+  }
+
+  /**
+   * Queues the batches which have lingered for longer than the configured linger time, retransmits
+   * the frames whose ack timed out and writes the queued frames, the spilled ones last.
+   */
+  private void flushLingering() {
+    synchronized (this) {
+      long now = System.nanoTime();
+      for (Batch batch : batches.values()) {
+        if (batch.count > 0 && now - batch.created >= TimeUnit.MILLISECONDS.toNanos(batchLinger)) queue(batch);
+      }
+    }
+    if (unacked != null) {
+      synchronized (io) {
+        if (connection != null && !unacked.isEmpty() && System.nanoTime() - unacked.values().iterator().next().sent >= ackTimeout) disconnect();
+      }
+    }
+    if (transmit(WRITE_BYTES)) schedule();
+  }
+
+  /**
+   * Packs a batch into a PackedForward or CompressedPackedForward frame and queues it, the batch is
+   * emptied either way.
+   *
+   * @param batch the batch.
+   * @return true if the frame was queued or spilled, otherwise false if it was dropped.
+   */
+  private boolean queue(Batch batch) {
+    frame.reset();
+    frame.packArrayHeader(3).packString(batch.tag);
+    if (compressor != null && batch.entries.size() >= compressionThreshold) {
+      compressed.reset();
+      compressor.compress(batch.entries, compressed);
+      frame.packRawHeader(compressed.size()).write(compressed);
+      frame.packMapHeader(unacked != null ? 3 : 2).packString("size").packLong(batch.count).packString("compressed").packString("gzip");
+    } else {
+      frame.packRawHeader(batch.entries.size()).write(batch.entries);
+      frame.packMapHeader(unacked != null ? 2 : 1).packString("size").packLong(batch.count);
+    }
+    if (unacked != null) frame.packString("chunk").packString(nextChunk());
+    batch.entries.reset();
+    batch.count = 0;
+    boolean queued;
+    if (spilling) {
+      queued = spill.append(frame);
+    } else if (pendingBytes + frame.size() <= BUFFER_CAPACITY) {
+      byte[] bytes = frame.toByteArray();
+      pending.add(bytes);
+      pendingBytes += bytes.length;
+      queued = true;
+    } else if (spill != null) {
+      spilling = true;
+      queued = spill.append(frame);
+    } else {
+      queued = false;
+    }
+    frame.reset();
+    return queued;
+  }
+
+  /**
+   * Writes the queued frames followed by the spilled frames in order, reconnecting if needed. The
+   * sender lock is only held to take the next frame, never while writing it.
+   *
+   * @param limit the number of bytes after which no further frames are written.
+   * @return true if frames are left after the limit was reached, otherwise false if everything was
+   *     written, the connection failed or the ack window is full.
+   */
+  private boolean transmit(long limit) {
+    synchronized (io) {
+      if (terminated) return false;
+      if (connection == null && !reconnector.enableReconnection(System.currentTimeMillis())) return false;
+      long written = 0;
+      try {
+        if (connection == null) connect();
+        for (byte[] bytes; written < limit && (bytes = peekPending()) != null; removePending(bytes)) {
+          if (!admit(bytes, bytes.length)) return flushed(written, false);
+          out.write(bytes);
+          written += bytes.length;
+        }
+        while (written < limit) {
+          long position;
+          int length;
+          synchronized (this) {
+            ByteBuffer buffer = spill != null ? spill.peek() : null;
+            if (buffer == null) {
+              spilling = false;
+              break;
+            }
+            position = spill.getConsumed();
+            length = buffer.remaining();
+            if (unacked != null) {
+              replayed = new byte[length];
+            } else if (replayed.length < length) {
+              replayed = new byte[Math.max(length, replayed.length * 2)];
+            }
+            buffer.get(replayed, 0, length);
+          }
+          if (!admit(replayed, length)) return flushed(written, false);
+          out.write(replayed, 0, length);
+          written += length;
+          synchronized (this) {
+            if (spill.getConsumed() == position) spill.remove();
+          }
+        }
+        return flushed(written, written >= limit);
+      } catch (IOException exception) {
+        disconnect();
+        reconnector.addErrorHistory(System.currentTimeMillis());
+        if (METRICS != null) METRICS.connectionFailed();
+        errorHandler.handleNetworkError(exception);
+        spillPending();
+        return false;
+      }
+    }
+  }
+
+  private boolean flushed(long written, boolean remaining) throws IOException {
+    out.flush();
+    reconnector.clearErrorHistory();
+    if (METRICS != null) METRICS.sent(written);
+    return remaining;
+  }
+
+  private synchronized byte[] peekPending() {
+    return pending.peek();
+  }
+
+  private synchronized void removePending(byte[] bytes) {
+    pending.poll();
+    pendingBytes -= bytes.length;
+  }
+
+  /**
+   * Moves the queued frames to the spill store once the connection failed, unless frames were
+   * spilled before them, and spills every later frame until the spill store is drained.
+   */
+  private synchronized void spillPending() {
+    if (spill == null) return;
+    if (spill.isEmpty()) {
+      for (byte[] bytes; (bytes = pending.poll()) != null;) spill.append(bytes, 0, bytes.length);
+      pendingBytes = 0;
+    }
+    spilling = true;
+  }
+
+  /**
+   * Generates the next chunk id, a random per sender prefix followed by a sequence number.
+   *
+   * @return the base64 encoded chunk id of {@value #CHUNK_LENGTH} characters.
+   */
+  private String nextChunk() {
+    long sequence = ++chunkSequence;
+    for (int i = 0; i < 8; i++) chunkId[8 + i] = (byte) (sequence >>> (56 - 8 * i));
+    return Base64.getEncoder().encodeToString(chunkId);
+  }
+
+  /**
+   * Registers a frame about to be written as in flight if acks are enabled.
+   *
+   * @param bytes the frame, ending with its chunk id, owned by the caller unless acks are disabled.
+   * @param length the length of the frame.
+   * @return true if the frame may be written, otherwise false if the ack window is full.
+   */
+  private boolean admit(byte[] bytes, int length) {
+    if (unacked == null) return true;
+    if (unacked.size() >= ackWindow) return false;
+    unacked.put(new String(bytes, length - CHUNK_LENGTH, CHUNK_LENGTH, StandardCharsets.US_ASCII), new InFlight(bytes, System.nanoTime()));
+    return true;
+  }
+
+  /** Waits up to the ack timeout until everything queued was written and acknowledged. */
+  private void awaitAcks() {
+    if (unacked == null) return;
+    long deadline = System.nanoTime() + ackTimeout;
+    while (connection != null && (!unacked.isEmpty() || isQueued())) {
+      transmit(Long.MAX_VALUE);
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0 || unacked.isEmpty()) return;
+      try {
+        TimeUnit.NANOSECONDS.timedWait(io, remaining);
+      } catch (InterruptedException exception) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private synchronized boolean isQueued() {
+    return !pending.isEmpty() || (spill != null && !spill.isEmpty());
+  }
+
+  /**
+   * Reads the ack responses of a connection until it is closed.
+   *
+   * @param connection the connection.
+   */
+  private void readAcks(FluentdConnection connection) {
+    try {
+      FluentdAckReader reader = new FluentdAckReader(new BufferedInputStream(connection.getInputStream()));
+      while (true) {
+        String chunk = reader.read();
+        if (chunk != null) acknowledge(chunk);
+      }
+    } catch (IOException exception) {
+      return;
+    }
+  }
+
+  private void acknowledge(String chunk) {
+    synchronized (io) {
+      unacked.remove(chunk);
+      io.notifyAll();
+    }
+  }
+
+  /**
+   * Creates the spill store of the configured spill directory.
+   *
+   * @param remoteSettings the remote settings providing the spill directory and limits.
+   * @return the spill store, or null if no spill directory is configured or it cannot be used.
+   */
+  private static FluentdSpillStore createSpill(FluentdRemoteSettings remoteSettings) {
+    String directory = remoteSettings.getSpillDirectory();
+    if (directory == null) return null;
+    try {
+      return new FluentdSpillStore(Paths.get(directory),
+                                   remoteSettings.getSpillCapacity(),
+                                   remoteSettings.getSpillSegmentSize(),
+                                   remoteSettings.getSpillOverflowPolicy() == FluentdOverflowPolicy.DROP_OLDEST);
+    } catch (IOException | RuntimeException exception) {
+      exception.printStackTrace();
+      return null;
+    }
+  }
+
+  private void connect() throws IOException {
+    FluentdConnection connection = socketPath != null ? FluentdConnection.connect(socketPath) : FluentdConnection.connect(host, port, TIMEOUT);
+    this.out = connection.getOutputStream();
+    this.connection = connection;
+    if (METRICS != null) METRICS.connected();
+    if (unacked == null) return;
+    Thread reader = new Thread(() -> readAcks(connection), "flogger-fluentd-ack");
+    reader.setDaemon(true);
+    reader.start();
+    long now = System.nanoTime();
+    for (InFlight inFlight : unacked.values()) {
+      out.write(inFlight.frame);
+      inFlight.sent = now;
+    }
+  }
+
+  private void disconnect() {
+    if (connection == null) return;
+    try {
+      connection.close();
+    } catch (IOException exception) {
+      exception.printStackTrace();
+    } finally {
+      connection = null;
+      out = null;
+    }
+  }
+
+  /** A frame awaiting its ack. */
+  private static final class InFlight {
+
+    private final byte[] frame;
+    private long sent;
+
+    private InFlight(byte[] frame, long sent) {
+      this.frame = frame;
+      this.sent = sent;
+    }
+  }
+
+  /** The log statements buffered for a single tag. */
+  private static final class Batch {
+
+    private final String tag;
+    private final FluentdMessagePacker entries = new FluentdMessagePacker(4096);
+    private int count;
+    private long created;
+
+    private Batch(String tag) {
+      this.tag = tag;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.Closeable;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses MessagePack buffers into gzip members, reusing its deflater and buffers across calls.
+ *
+ * <p>Not thread safe, callers are expected to hold their own lock. The native memory of the deflater
+ * is released by {@link #close()}, after which the compressor can no longer be used.
+ */
+final class FluentdGzipCompressor implements Closeable {
+
+  private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  private final Deflater deflater;
+  private final CRC32 crc = new CRC32();
+  private final byte[] chunk = new byte[8192];
+
+  /**
+   * Compresses MessagePack buffers into gzip members.
+   *
+   * @param level the compression level, from 0 to 9 or -1 for the default level.
+   */
+  FluentdGzipCompressor(int level) {
+    this.deflater = new Deflater(level, true);
+  }
+
+  /**
+   * Compresses everything written to a source packer into a gzip member written to a target packer.
+   *
+   * @param source the packer holding the bytes to compress.
+   * @param target the packer the gzip member is written to.
+   */
+  void compress(FluentdMessagePacker source, FluentdMessagePacker target) {
+    crc.reset();
+    crc.update(source.array(), 0, source.size());
+    deflater.reset();
+    deflater.setInput(source.array(), 0, source.size());
+    deflater.finish();
+    target.write(HEADER, 0, HEADER.length);
+    while (!deflater.finished()) target.write(chunk, 0, deflater.deflate(chunk));
+    int value = (int) crc.getValue();
+    int size = source.size();
+    chunk[0] = (byte) value;
+    chunk[1] = (byte) (value >> 8);
+    chunk[2] = (byte) (value >> 16);
+    chunk[3] = (byte) (value >> 24);
+    chunk[4] = (byte) size;
+    chunk[5] = (byte) (size >> 8);
+    chunk[6] = (byte) (size >> 16);
+    chunk[7] = (byte) (size >> 24);
+    target.write(chunk, 0, 8);
+  }
+
+  /** Releases the native memory of the deflater. */
+  @Override
+  public void close() {
+    deflater.end();
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache of record keys, such as metadata labels and tag keys, encoded as MessagePack
+ * strings, so that keys are encoded once and afterwards copied into records as they are.
+ *
+ * <p>Keys are cached by their string rather than by their {@code MetadataKey}, since a metadata key
+ * references the class of its values and would pin its class loader. Once the cache is full further
+ * keys are encoded each time they are written.
+ */
+final class FluentdKeyCache {
+
+  private final Map<String, byte[]> keys = new ConcurrentHashMap<>();
+  private final int capacity;
+
+  /**
+   * A bounded cache of encoded record keys.
+   *
+   * @param capacity the maximum number of keys cached.
+   */
+  FluentdKeyCache(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Writes a key as a MessagePack string.
+   *
+   * @param key the key.
+   * @param packer the packer the key is written to.
+   * @return the packer.
+   */
+  FluentdMessagePacker write(String key, FluentdMessagePacker packer) {
+    byte[] bytes = keys.get(key);
+    if (bytes == null) {
+      if (keys.size() >= capacity) return packer.packString(key);
+      bytes = new FluentdMessagePacker(key.length() + 5).packString(key).toByteArray();
+      keys.putIfAbsent(key, bytes);
+    }
+    return packer.write(bytes, 0, bytes.length);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram recording nanoseconds into log-linear buckets, in the manner of an HDR
+ * histogram with 8 sub-buckets per power of two, so any value is reported within 12.5% of what was
+ * recorded.
+ *
+ * <p>Every bucket is a {@link LongAdder}, so recording from many threads at once costs no more than
+ * an uncontended increment.
+ */
+final class FluentdLatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int LINEAR = 2 * SUB_BUCKETS;
+  private static final int BUCKETS = LINEAR + (63 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS;
+
+  private final LongAdder[] counts = new LongAdder[BUCKETS];
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  FluentdLatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+  }
+
+  /**
+   * Records a latency, negative latencies are recorded as 0.
+   *
+   * @param nanos the latency in nanoseconds.
+   */
+  void record(long nanos) {
+    if (nanos < 0) nanos = 0;
+    counts[bucket(nanos)].increment();
+    sum.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  /**
+   * Takes a snapshot of the recorded latencies.
+   *
+   * @return the snapshot.
+   */
+  FluentdMetrics.Latency snapshot() {
+    long[] snapshot = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) count += snapshot[i] = counts[i].sum();
+    long max = this.max.get();
+    return new FluentdMetrics.Latency(count,
+                                      count > 0 ? sum.sum() / count : 0,
+                                      Math.min(max, percentile(snapshot, count, 0.5)),
+                                      Math.min(max, percentile(snapshot, count, 0.9)),
+                                      Math.min(max, percentile(snapshot, count, 0.99)),
+                                      Math.min(max, percentile(snapshot, count, 0.999)),
+                                      max);
+  }
+
+  /** Clears the recorded latencies. */
+  void reset() {
+    for (LongAdder count : counts) count.reset();
+    sum.reset();
+    max.reset();
+  }
+
+  /**
+   * Determines the bucket of a latency, latencies below 16 have a bucket of their own and above that
+   * each power of two is split into 8 equally wide buckets.
+   */
+  static int bucket(long nanos) {
+    if (nanos < LINEAR) return (int) nanos;
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR + (exponent - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS + subBucket;
+  }
+
+  /** Determines the highest latency falling into a bucket. */
+  static long highest(int bucket) {
+    if (bucket < LINEAR) return bucket;
+    int exponent = (bucket - LINEAR) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+    long subBucket = (bucket - LINEAR) % SUB_BUCKETS;
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return (1L << exponent) + (subBucket + 1) * width - 1;
+  }
+
+  private static long percentile(long[] counts, long count, double percentile) {
+    if (count == 0) return 0;
+    long rank = Math.max(1, (long) Math.ceil(percentile * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) return highest(i);
+    }
+    return highest(counts.length - 1);
+  }
+}
@@ -27,4 +27,19 @@ public interface FluentdLevelDisabler {
    * @return true if the given level is loggable, otherwise false.
    */
   public boolean isLoggable(Level level);
+
+  /**
+   * Acquires the level disabler to be used by the backend of a specific logger, allowing levels to
+   * be configured per logger. Returns this level disabler by default.
+   *
+   * @param loggerName the name of the logger, the logging class name with nested classes separated
+   *     by dots.
+   * @return the level disabler of the logger.
+   */
+  public default FluentdLevelDisabler forLoggerName(String loggerName) {
+    return this;
+  }
+
+  /** Reloads the configuration the level disabler is based on, if any. Does nothing by default. */
+  public default void refresh() {}
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import com.google.common.flogger.LogSite;
+
+/**
+ * A bounded cache of log site fields encoded as MessagePack map entries, so that the fields of a
+ * log site are encoded once and afterwards copied into records as they are.
+ *
+ * <p>The cache is direct mapped, each log site has a single slot determined by its hash code and
+ * replaces whichever log site held the slot before. Log sites are matched by equality since stack
+ * based log sites are created anew for each log statement. Only log sites whose class is visible
+ * to the class loader of the cache are cached, so that the cache never pins the class loader of a
+ * log site implementation which could otherwise be unloaded. The log sites implemented by Flogger
+ * hold nothing but strings and numbers, so entries of logging classes which have been unloaded do
+ * not pin them either, they are replaced as their slots are reused.
+ */
+final class FluentdLogSiteCache {
+
+  /** Whether a log site class is loaded by the class loader of the cache or one of its ancestors. */
+  private static final ClassValue<Boolean> CACHEABLE = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      ClassLoader loader = type.getClassLoader();
+      for (ClassLoader current = FluentdLogSiteCache.class.getClassLoader(); current != loader; current = current.getParent()) {
+        if (current == null) return false;
+      }
+      return true;
+    }
+  };
+
+  private final Entry[] entries;
+  private final int mask;
+
+  /**
+   * A bounded cache of encoded log site fields.
+   *
+   * @param size the number of slots, rounded up to a power of two.
+   */
+  FluentdLogSiteCache(int size) {
+    int slots = Integer.highestOneBit(Math.max(size, 1) * 2 - 1);
+    this.entries = new Entry[slots];
+    this.mask = slots - 1;
+  }
+
+  /**
+   * Writes the fields of a log site as MessagePack map entries.
+   *
+   * @param logSite the log site.
+   * @param packer the packer the map entries are written to.
+   * @return the number of map entries written.
+   */
+  int write(LogSite logSite, FluentdMessagePacker packer) {
+    if (!CACHEABLE.get(logSite.getClass())) return encode(logSite, packer);
+    int hash = logSite.hashCode();
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    Entry entry = entries[slot];
+    if (entry == null || (entry.logSite != logSite && !entry.logSite.equals(logSite))) {
+      FluentdMessagePacker fragment = new FluentdMessagePacker(128);
+      int count = encode(logSite, fragment);
+      entry = new Entry(logSite, fragment.toByteArray(), count);
+      entries[slot] = entry;
+    }
+    packer.write(entry.fragment, 0, entry.fragment.length);
+    return entry.count;
+  }
+
+  /**
+   * Encodes the fields of a log site as MessagePack map entries.
+   *
+   * @param logSite the log site.
+   * @param packer the packer the map entries are written to.
+   * @return the number of map entries written.
+   */
+  static int encode(LogSite logSite, FluentdMessagePacker packer) {
+    String className = logSite.getClassName();
+    String fileName = logSite.getFileName();
+    String methodName = logSite.getMethodName();
+    if (className != null) packer.packString("className").packString(className);
+    if (fileName != null) packer.packString("fileName").packString(fileName);
+    packer.packString("lineNumber").packLong(logSite.getLineNumber());
+    if (methodName != null) packer.packString("methodName").packString(methodName);
+    return 1 + (className != null ? 1 : 0) + (fileName != null ? 1 : 0) + (methodName != null ? 1 : 0);
+  }
+
+  /** The encoded fields of a log site, immutable so that entries are safely published via races. */
+  private static final class Entry {
+
+    final LogSite logSite;
+    final byte[] fragment;
+    final int count;
+
+    Entry(LogSite logSite, byte[] fragment, int count) {
+      this.logSite = logSite;
+      this.fragment = fragment;
+      this.count = count;
+    }
+  }
+}
@@ -19,15 +19,16 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
+import com.google.common.flogger.LogContext;
 import com.google.common.flogger.LogSite;
 import com.google.common.flogger.MetadataKey;
 import com.google.common.flogger.backend.LogData;
 import com.google.common.flogger.backend.LoggerBackend;
 import com.google.common.flogger.backend.Metadata;
-import com.google.common.flogger.backend.SimpleMessageFormatter;
 import com.google.common.flogger.backend.Tags;
 import com.google.common.flogger.backend.system.SimpleLogRecord;
 
@@ -36,24 +37,54 @@ import org.fluentd.logger.FluentLogger;
 /** A logging backend that uses Fluentd to output log statements. */
 final class FluentdLoggerBackend extends LoggerBackend {
 
+  private static final FluentdMetrics METRICS = FluentdMetrics.active();
+
   private final FluentLogger logger;
   private final FluentdLevelDisabler disabler;
+  private final FluentdAsyncDispatcher dispatcher;
+  private final String tagPrefix;
+  private final FluentdRecordSender recordSender;
+  private final FluentdThrowableDeduplicator deduplicator = FluentdThrowableDeduplicator.create();
+  private final FluentdRateLimiter limiter;
+  private final FluentdEventAggregator aggregator;
+  private final Map<String, String> tags = new ConcurrentHashMap<>();
+  private final Map<String, FluentdMetrics.Counter> counters = new ConcurrentHashMap<>();
 
   /**
    * A logging backend that uses Fluentd to output log statements.
    *
+   * <p>When a tag prefix is provided the Fluentd logger is expected to have an empty tag prefix, so
+   * it can be shared by all backends sending to the same destination, and the backend provides the
+   * full tag of each log statement. When the logger additionally sends via a {@link
+   * FluentdRecordSender} log statements are encoded straight into MessagePack by a {@link
+   * FluentdRecordEncoder} instead of being collected into a map first.
+   *
    * @param logger the Fluentd logger.
-   * @param disabler a logging disabler used by {@link #isLoggable(Level)}
+   * @param tagPrefix the tag prefix of the log statements, or null to use the tag prefix of the
+   *     Fluentd logger.
+   * @param disabler a logging disabler used by {@link #isLoggable(Level)}, or null to log every
+   *     level.
+   * @param limiter a rate limiter admitting log statements, or null to admit every log statement.
+   * @param dispatcher an asynchronous dispatcher used to send log statements, or null to send them
+   *     on the logging thread.
+   * @param aggregator an aggregator coalescing identical log statements, or null to send every log
+   *     statement.
    */
-  FluentdLoggerBackend(FluentLogger logger, FluentdLevelDisabler disabler) {
-    Runtime.getRuntime().addShutdownHook(new Thread(logger::close));
+  FluentdLoggerBackend(FluentLogger logger, String tagPrefix, FluentdLevelDisabler disabler, FluentdRateLimiter limiter, FluentdAsyncDispatcher dispatcher, FluentdEventAggregator aggregator) {
     this.logger = logger;
     this.disabler = disabler;
+    this.limiter = limiter;
+    this.dispatcher = dispatcher;
+    this.tagPrefix = tagPrefix;
+    this.recordSender = tagPrefix != null && logger.getSender() instanceof FluentdRecordSender
+                      ? (FluentdRecordSender) logger.getSender()
+                      : null;
+    this.aggregator = aggregator;
   }
 
   @Override
   public String getLoggerName() {
-    return logger.getName();
+    return tagPrefix != null ? tagPrefix : logger.getName();
   }
 
   @Override
@@ -63,8 +94,32 @@ final class FluentdLoggerBackend extends LoggerBackend {
 
   @Override
   public void log(LogData data) {
+    Level level = data.getLevel();
+    FluentdMetrics.Counter counter = METRICS != null ? counter(level) : null;
+    if (counter != null) counter.logged.increment();
+    long suppressed = limiter != null ? limiter.admit(data.getLogSite(), level) : 0;
+    if (suppressed < 0) {
+      if (counter != null) counter.filtered.increment();
+      return;
+    }
+    long timestamp = TimeUnit.SECONDS.convert(data.getTimestampNanos(), TimeUnit.NANOSECONDS);
+    if (recordSender != null) {
+      FluentdRecordEncoder encoder = FluentdRecordEncoder.get();
+      FluentdMessagePacker record = encoder.encode(data, deduplicator, suppressed);
+      if (aggregator == null || aggregator.admit(this, level, tag(level), data.getLogSite(), encoder.getMessage(), data.getTimestampNanos(), record)) {
+        emit(level, tag(level), record, timestamp);
+      } else if (counter != null) {
+        counter.filtered.increment();
+      }
+      return;
+    }
     Map<String, Object> out = new HashMap<String, Object>();
-    SimpleMessageFormatter.format(data, new FluentdSimpleLogHandler(out));
+    Metadata metadata = data.getMetadata();
+    Throwable thrown = metadata != null ? metadata.findValue(LogContext.Key.LOG_CAUSE) : null;
+    long start = METRICS != null ? System.nanoTime() : 0;
+    String message = FluentdMessageFormatter.format(data);
+    long formatted = METRICS != null ? System.nanoTime() : 0;
+    new FluentdSimpleLogHandler(out, deduplicator).handleFormattedLogMessage(level, message, thrown);
     out.put("timestampNanos", data.getTimestampNanos());
     if (data.getLogSite() != null) {
       LogSite logSite = data.getLogSite();
@@ -73,14 +128,13 @@ final class FluentdLoggerBackend extends LoggerBackend {
       out.put("lineNumber", logSite.getLineNumber());
       if (logSite.getMethodName() != null) out.put("methodName", logSite.getMethodName());
     }
-    if (data.getMetadata() != null) {
-      Metadata metadata = data.getMetadata();
+    if (metadata != null) {
       Map<String, List<Object>> repeated = new HashMap<>();
       for (int i = 0; i < metadata.size(); i++) {
         MetadataKey<?> key = metadata.getKey(i);
         String label = key.getLabel();
         Object value = metadata.getValue(i);
-        if (value == null) continue;
+        if (value == null || key == LogContext.Key.LOG_CAUSE) continue;
         if (value instanceof Tags) {
           Tags tags = (Tags) value;
           tags.emitAll(new FluentdTagsKeyValueHandler(label, out));
@@ -94,7 +148,16 @@ final class FluentdLoggerBackend extends LoggerBackend {
       }
       repeated.entrySet().forEach(entry -> out.put(entry.getKey(), entry.getValue()));
     }
-    logger.log(data.getLevel().getName(), out, TimeUnit.SECONDS.convert(data.getTimestampNanos(), TimeUnit.NANOSECONDS));
+    if (suppressed > 0) out.put("suppressed", suppressed);
+    if (METRICS != null) {
+      METRICS.recordFormatting(formatted - start);
+      METRICS.recordEncoding(System.nanoTime() - formatted);
+    }
+    if (aggregator == null || aggregator.admit(this, level, tag(level), data.getLogSite(), message, data.getTimestampNanos(), out)) {
+      send(level, out, timestamp);
+    } else if (counter != null) {
+      counter.filtered.increment();
+    }
   }
 
   @Override
@@ -102,6 +165,87 @@ final class FluentdLoggerBackend extends LoggerBackend {
     Map<String, Object> out = new HashMap<String, Object>();
     out.put("level", Level.SEVERE.getName());
     out.put("message", SimpleLogRecord.error(error, badData));
-    logger.log(Level.SEVERE.getName(), out);
+    send(Level.SEVERE, out, 0);
+  }
+
+  /**
+   * Acquires the tag of a level, computed once per level name.
+   *
+   * @param level the level.
+   * @return the tag prefix followed by the level name, or just the level name if the tag prefix is
+   *     left to the Fluentd logger.
+   */
+  private String tag(Level level) {
+    String name = level.getName();
+    if (tagPrefix == null) return name;
+    String tag = tags.get(name);
+    if (tag == null) {
+      tag = tagPrefix.isEmpty() ? name : tagPrefix + "." + name;
+      tags.putIfAbsent(name, tag);
+    }
+    return tag;
+  }
+
+  /**
+   * Acquires the metrics counter of the tag of a level, looked up once per level name.
+   *
+   * @param level the level.
+   * @return the counter.
+   */
+  private FluentdMetrics.Counter counter(Level level) {
+    FluentdMetrics.Counter counter = counters.get(level.getName());
+    if (counter == null) {
+      counter = METRICS.counter(tag(level), level);
+      counters.putIfAbsent(level.getName(), counter);
+    }
+    return counter;
+  }
+
+  /**
+   * Records the outcome of handing a log statement to the Fluentd logger, sender or asynchronous
+   * dispatcher, a refusal of the dispatcher meaning the log statement was dropped and a refusal of
+   * the others meaning it failed.
+   *
+   * @param level the level of the log statement.
+   * @param accepted whether the log statement was accepted.
+   * @param start the time handing the log statement over started at in nanoseconds.
+   */
+  private void sent(Level level, boolean accepted, long start) {
+    METRICS.recordSending(System.nanoTime() - start);
+    if (accepted) return;
+    FluentdMetrics.Counter counter = counter(level);
+    (dispatcher != null ? counter.dropped : counter.failed).increment();
+  }
+
+  /**
+   * Sends a log statement encoded as a MessagePack map via the record sender, either directly or
+   * via the asynchronous dispatcher.
+   *
+   * @param level the level of the log statement.
+   * @param tag the full tag of the log statement.
+   * @param record the packer holding the encoded log statement.
+   * @param timestamp the timestamp of the log statement in seconds.
+   */
+  void emit(Level level, String tag, FluentdMessagePacker record, long timestamp) {
+    long start = METRICS != null ? System.nanoTime() : 0;
+    boolean accepted = dispatcher != null
+                       ? dispatcher.dispatch(recordSender, level, tag, record, timestamp)
+                       : recordSender.emit(tag, timestamp, record);
+    if (METRICS != null) sent(level, accepted, start);
+  }
+
+  /**
+   * Sends a log statement to Fluentd, either directly or via the asynchronous dispatcher.
+   *
+   * @param level the level of the log statement, used to determine the tag.
+   * @param out the log statement.
+   * @param timestamp the timestamp of the log statement in seconds, or 0 for the current time.
+   */
+  void send(Level level, Map<String, Object> out, long timestamp) {
+    long start = METRICS != null ? System.nanoTime() : 0;
+    boolean accepted = dispatcher != null
+                       ? dispatcher.dispatch(logger, level, tag(level), out, timestamp)
+                       : logger.log(tag(level), out, timestamp);
+    if (METRICS != null) sent(level, accepted, start);
   }
 }
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Formattable;
+import java.util.List;
+import java.util.logging.Level;
+
+import com.google.common.flogger.LogSite;
+import com.google.common.flogger.backend.FormatChar;
+import com.google.common.flogger.backend.FormatOptions;
+import com.google.common.flogger.backend.LogData;
+import com.google.common.flogger.backend.Metadata;
+import com.google.common.flogger.backend.SimpleMessageFormatter;
+import com.google.common.flogger.backend.TemplateContext;
+import com.google.common.flogger.parameter.DateTimeFormat;
+import com.google.common.flogger.parameter.Parameter;
+import com.google.common.flogger.parameter.ParameterVisitor;
+import com.google.common.flogger.parser.MessageBuilder;
+import com.google.common.flogger.parser.MessageParser;
+
+/**
+ * Formats the message template and arguments of log statements into a reusable builder, formatting
+ * arguments like {@link SimpleMessageFormatter} does.
+ *
+ * <p>Unlike {@link SimpleMessageFormatter} metadata is never appended to the message as a {@code
+ * [CONTEXT ...]} suffix, since the backend outputs metadata as separate elements.
+ *
+ * <p>Templates are parsed once into their literal ranges and parameters and kept in a bounded
+ * direct mapped cache, and arguments are visited by a formatter of the current thread, so that
+ * formatting a log statement with a cached template allocates nothing beyond what its arguments
+ * allocate themselves.
+ *
+ * <p>Only the common formats without options are formatted here, messages with any other parameter
+ * or with a mismatched argument count are formatted by {@link SimpleMessageFormatter} as a whole.
+ */
+final class FluentdMessageFormatter implements ParameterVisitor {
+
+  private static final int MAX_RETAINED = 64 * 1024;
+  private static final int TEMPLATES = 1024;
+  private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+  private static final ThreadLocal<FluentdMessageFormatter> FORMATTER = ThreadLocal.withInitial(FluentdMessageFormatter::new);
+  private static final Template[] CACHE = new Template[TEMPLATES];
+
+  private StringBuilder out;
+  private boolean formatting;
+  private boolean delegated;
+
+  /**
+   * Formats the message of a log statement into a builder, replacing the contents of the builder.
+   *
+   * @param data the log statement.
+   * @param out the builder, a builder which grew beyond 64K characters is trimmed beforehand.
+   * @return the builder holding the formatted message.
+   */
+  static StringBuilder format(LogData data, StringBuilder out) {
+    out.setLength(0);
+    if (out.capacity() > MAX_RETAINED) out.trimToSize();
+    if (data.getTemplateContext() == null) return out.append(SimpleMessageFormatter.safeToString(data.getLiteralArgument()));
+    Template template = Template.of(data.getTemplateContext());
+    if (data.getArguments().length > template.expected || !format(template, data.getArguments(), out)) {
+      out.setLength(0);
+      SimpleMessageFormatter.format(new WithoutMetadata(data), (level, message, thrown) -> out.append(message));
+    }
+    return out;
+  }
+
+  /**
+   * Formats the message of a log statement using a builder of the current thread, or a new builder
+   * when the current thread is already formatting a message, as is the case when formatting an
+   * argument logs itself.
+   *
+   * @param data the log statement.
+   * @return the formatted message.
+   */
+  static String format(LogData data) {
+    Buffer buffer = BUFFER.get();
+    if (buffer.formatting) return format(data, new StringBuilder()).toString();
+    buffer.formatting = true;
+    try {
+      return format(data, buffer.builder).toString();
+    } finally {
+      buffer.formatting = false;
+    }
+  }
+
+  /**
+   * Formats a parsed template using the formatter of the current thread, or a new formatter when
+   * the current thread is already formatting a message.
+   *
+   * @param template the parsed template.
+   * @param arguments the arguments.
+   * @param out the builder the message is appended to.
+   * @return true if the message was formatted, otherwise false if it has to be formatted by {@link
+   *     SimpleMessageFormatter}.
+   */
+  private static boolean format(Template template, Object[] arguments, StringBuilder out) {
+    FluentdMessageFormatter formatter = FORMATTER.get();
+    if (formatter.formatting) formatter = new FluentdMessageFormatter();
+    formatter.formatting = true;
+    formatter.out = out;
+    formatter.delegated = false;
+    try {
+      int literalStart = 0;
+      for (int i = 0; i < template.parameters.length; i++) {
+        template.parser.unescape(out, template.message, literalStart, template.terms[2 * i]);
+        template.parameters[i].accept(formatter, arguments);
+        if (formatter.delegated) return false;
+        literalStart = template.terms[2 * i + 1];
+      }
+      template.parser.unescape(out, template.message, literalStart, template.message.length());
+      return true;
+    } finally {
+      formatter.formatting = false;
+      formatter.out = null;
+    }
+  }
+
+  @Override
+  public void visit(Object value, FormatChar format, FormatOptions options) {
+    if (!options.isDefault() || !format.getType().canFormat(value)) {
+      delegated = true;
+      return;
+    }
+    switch (format) {
+      case STRING:
+        if (value instanceof Formattable) {
+          delegated = true;
+        } else {
+          out.append(SimpleMessageFormatter.safeToString(value));
+        }
+        break;
+      case DECIMAL:
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+          out.append(((Number) value).longValue());
+        } else {
+          out.append(value);
+        }
+        break;
+      case BOOLEAN:
+        out.append(((Boolean) value).booleanValue());
+        break;
+      case CHAR:
+        if (value instanceof Character) {
+          out.append(((Character) value).charValue());
+        } else {
+          out.appendCodePoint(((Number) value).intValue());
+        }
+        break;
+      default:
+        delegated = true;
+        break;
+    }
+  }
+
+  @Override
+  public void visitDateTime(Object value, DateTimeFormat format, FormatOptions options) {
+    delegated = true;
+  }
+
+  @Override
+  public void visitPreformatted(Object value, String formatted) {
+    out.append(formatted);
+  }
+
+  @Override
+  public void visitMissing() {
+    delegated = true;
+  }
+
+  @Override
+  public void visitNull() {
+    out.append("null");
+  }
+
+  /** A log statement without metadata, so that none is appended to its message. */
+  private static final class WithoutMetadata implements LogData {
+
+    private final LogData data;
+
+    WithoutMetadata(LogData data) {
+      this.data = data;
+    }
+
+    @Override
+    public Level getLevel() {
+      return data.getLevel();
+    }
+
+    @Override
+    @Deprecated
+    public long getTimestampMicros() {
+      return data.getTimestampMicros();
+    }
+
+    @Override
+    public long getTimestampNanos() {
+      return data.getTimestampNanos();
+    }
+
+    @Override
+    public String getLoggerName() {
+      return data.getLoggerName();
+    }
+
+    @Override
+    public LogSite getLogSite() {
+      return data.getLogSite();
+    }
+
+    @Override
+    public Metadata getMetadata() {
+      return Metadata.empty();
+    }
+
+    @Override
+    public boolean wasForced() {
+      return data.wasForced();
+    }
+
+    @Override
+    public TemplateContext getTemplateContext() {
+      return data.getTemplateContext();
+    }
+
+    @Override
+    public Object[] getArguments() {
+      return data.getArguments();
+    }
+
+    @Override
+    public Object getLiteralArgument() {
+      return data.getLiteralArgument();
+    }
+  }
+
+  /**
+   * A message template parsed into the ranges of its terms and their parameters, immutable so that
+   * templates are safely published via races.
+   */
+  private static final class Template {
+
+    final MessageParser parser;
+    final String message;
+    final int[] terms;
+    final Parameter[] parameters;
+    final int expected;
+
+    Template(MessageParser parser, String message, int[] terms, Parameter[] parameters, int expected) {
+      this.parser = parser;
+      this.message = message;
+      this.terms = terms;
+      this.parameters = parameters;
+      this.expected = expected;
+    }
+
+    /**
+     * Acquires the parsed template of a template context, parsing it unless it is cached.
+     *
+     * @param context the template context.
+     * @return the parsed template.
+     */
+    static Template of(TemplateContext context) {
+      String message = context.getMessage();
+      int hash = message.hashCode();
+      int slot = (hash ^ (hash >>> 16)) & (TEMPLATES - 1);
+      Template template = CACHE[slot];
+      if (template == null || template.parser != context.getParser() || (template.message != message && !template.message.equals(message))) {
+        template = new Parser(context).build();
+        CACHE[slot] = template;
+      }
+      return template;
+    }
+  }
+
+  /** Parses a message template, collecting the ranges of its terms and their parameters. */
+  private static final class Parser extends MessageBuilder<Template> {
+
+    private final List<Parameter> parameters = new ArrayList<>();
+    private int[] terms = new int[8];
+
+    Parser(TemplateContext context) {
+      super(context);
+    }
+
+    @Override
+    protected void addParameterImpl(int termStart, int termEnd, Parameter param) {
+      int index = 2 * parameters.size();
+      if (index + 2 > terms.length) terms = Arrays.copyOf(terms, terms.length * 2);
+      terms[index] = termStart;
+      terms[index + 1] = termEnd;
+      parameters.add(param);
+    }
+
+    @Override
+    protected Template buildImpl() {
+      Parameter[] parameters = this.parameters.toArray(new Parameter[0]);
+      return new Template(getParser(), getMessage(), Arrays.copyOf(terms, 2 * parameters.length), parameters, getExpectedArgumentCount());
+    }
+  }
+
+  /** A builder of a thread, flagged while in use. */
+  private static final class Buffer {
+
+    final StringBuilder builder = new StringBuilder(256);
+    boolean formatting;
+  }
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A growable buffer which values are written into in the MessagePack format.
+ *
+ * <p>Strings and raw bytes are written using the raw types shared by the original MessagePack
+ * specification and the current one (fixraw/raw16/raw32, also known as fixstr/str16/str32), which
+ * is what Fluentd and the Fluentd Logger for Java expect.
+ */
+final class FluentdMessagePacker {
+
+  private byte[] buffer;
+  private int size;
+
+  /** A growable buffer which values are written into in the MessagePack format. */
+  FluentdMessagePacker() {
+    this(256);
+  }
+
+  /**
+   * A growable buffer which values are written into in the MessagePack format.
+   *
+   * @param capacity the initial capacity of the buffer.
+   */
+  FluentdMessagePacker(int capacity) {
+    this.buffer = new byte[Math.max(16, capacity)];
+  }
+
+  /**
+   * Acquires the number of bytes written.
+   *
+   * @return the number of bytes written.
+   */
+  int size() {
+    return size;
+  }
+
+  /** Discards everything written while keeping the allocated buffer. */
+  void reset() {
+    size = 0;
+  }
+
+  /**
+   * Discards everything written after the given number of bytes, used to roll back partial writes.
+   *
+   * @param size the number of bytes to keep.
+   */
+  void truncate(int size) {
+    this.size = Math.min(this.size, size);
+  }
+
+  /**
+   * Acquires the backing array, of which the first {@link #size()} bytes are the bytes written,
+   * valid until the next write or reset.
+   *
+   * @return the backing array.
+   */
+  byte[] array() {
+    return buffer;
+  }
+
+  /**
+   * Acquires a view of the bytes written, valid until the next write or reset.
+   *
+   * @return a buffer positioned at zero and limited by the number of bytes written.
+   */
+  ByteBuffer toByteBuffer() {
+    return ByteBuffer.wrap(buffer, 0, size);
+  }
+
+  /**
+   * Copies the bytes written.
+   *
+   * @return a copy of the bytes written.
+   */
+  byte[] toByteArray() {
+    return Arrays.copyOf(buffer, size);
+  }
+
+  /**
+   * Writes the bytes written to an output stream.
+   *
+   * @param out the output stream.
+   * @throws IOException if the output stream fails.
+   */
+  void writeTo(OutputStream out) throws IOException {
+    out.write(buffer, 0, size);
+  }
+
+  /**
+   * Writes a value, maps and collections are written recursively, other unknown types are written
+   * as their string representation.
+   *
+   * @param value the value.
+   * @return this packer.
+   */
+  FluentdMessagePacker packValue(Object value) {
+    if (value == null) return packNil();
+    if (value instanceof CharSequence) return packString((CharSequence) value);
+    if (value instanceof Boolean) return packBoolean((Boolean) value);
+    if (value instanceof Double || value instanceof Float) return packDouble(((Number) value).doubleValue());
+    if (value instanceof Number) return packLong(((Number) value).longValue());
+    if (value instanceof Character) return packString(value.toString());
+    if (value instanceof byte[]) return packRaw((byte[]) value, 0, ((byte[]) value).length);
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      packMapHeader(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        packValue(entry.getKey());
+        packValue(entry.getValue());
+      }
+      return this;
+    }
+    if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      packArrayHeader(collection.size());
+      for (Object element : collection) packValue(element);
+      return this;
+    }
+    if (value instanceof Object[]) {
+      Object[] array = (Object[]) value;
+      packArrayHeader(array.length);
+      for (Object element : array) packValue(element);
+      return this;
+    }
+    return packString(String.valueOf(value));
+  }
+
+  /**
+   * Writes nil.
+   *
+   * @return this packer.
+   */
+  FluentdMessagePacker packNil() {
+    ensure(1);
+    buffer[size++] = (byte) 0xc0;
+    return this;
+  }
+
+  /**
+   * Writes a boolean.
+   *
+   * @param value the boolean.
+   * @return this packer.
+   */
+  FluentdMessagePacker packBoolean(boolean value) {
+    ensure(1);
+    buffer[size++] = (byte) (value ? 0xc3 : 0xc2);
+    return this;
+  }
+
+  /**
+   * Writes an integer using the smallest representation.
+   *
+   * @param value the integer.
+   * @return this packer.
+   */
+  FluentdMessagePacker packLong(long value) {
+    ensure(9);
+    if (value >= 0) {
+      if (value < 128) {
+        buffer[size++] = (byte) value;
+      } else if (value < 0x100) {
+        buffer[size++] = (byte) 0xcc;
+        buffer[size++] = (byte) value;
+      } else if (value < 0x10000) {
+        buffer[size++] = (byte) 0xcd;
+        putShort((int) value);
+      } else if (value < 0x100000000L) {
+        buffer[size++] = (byte) 0xce;
+        putInt((int) value);
+      } else {
+        buffer[size++] = (byte) 0xcf;
+        putLong(value);
+      }
+    } else {
+      if (value >= -32) {
+        buffer[size++] = (byte) value;
+      } else if (value >= Byte.MIN_VALUE) {
+        buffer[size++] = (byte) 0xd0;
+        buffer[size++] = (byte) value;
+      } else if (value >= Short.MIN_VALUE) {
+        buffer[size++] = (byte) 0xd1;
+        putShort((int) value);
+      } else if (value >= Integer.MIN_VALUE) {
+        buffer[size++] = (byte) 0xd2;
+        putInt((int) value);
+      } else {
+        buffer[size++] = (byte) 0xd3;
+        putLong(value);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Writes a double.
+   *
+   * @param value the double.
+   * @return this packer.
+   */
+  FluentdMessagePacker packDouble(double value) {
+    ensure(9);
+    buffer[size++] = (byte) 0xcb;
+    putLong(Double.doubleToLongBits(value));
+    return this;
+  }
+
+  /**
+   * Writes an array header, to be followed by the given number of values.
+   *
+   * @param length the number of values in the array.
+   * @return this packer.
+   */
+  FluentdMessagePacker packArrayHeader(int length) {
+    ensure(5);
+    if (length < 16) {
+      buffer[size++] = (byte) (0x90 | length);
+    } else if (length < 0x10000) {
+      buffer[size++] = (byte) 0xdc;
+      putShort(length);
+    } else {
+      buffer[size++] = (byte) 0xdd;
+      putInt(length);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a map header, to be followed by the given number of key and value pairs.
+   *
+   * @param length the number of key and value pairs in the map.
+   * @return this packer.
+   */
+  FluentdMessagePacker packMapHeader(int length) {
+    ensure(5);
+    if (length < 16) {
+      buffer[size++] = (byte) (0x80 | length);
+    } else if (length < 0x10000) {
+      buffer[size++] = (byte) 0xde;
+      putShort(length);
+    } else {
+      buffer[size++] = (byte) 0xdf;
+      putInt(length);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a map header using the fixed size map32 representation, so the number of key and value
+   * pairs can be patched once known using {@link #patchMap32Header(int, int)}.
+   *
+   * @param length the number of key and value pairs in the map.
+   * @return this packer.
+   */
+  FluentdMessagePacker packMap32Header(int length) {
+    ensure(5);
+    buffer[size++] = (byte) 0xdf;
+    putInt(length);
+    return this;
+  }
+
+  /**
+   * Overwrites the number of key and value pairs of a map32 header written earlier.
+   *
+   * @param position the position the header was written at.
+   * @param length the number of key and value pairs in the map.
+   */
+  void patchMap32Header(int position, int length) {
+    buffer[position + 1] = (byte) (length >> 24);
+    buffer[position + 2] = (byte) (length >> 16);
+    buffer[position + 3] = (byte) (length >> 8);
+    buffer[position + 4] = (byte) length;
+  }
+
+  /**
+   * Reads the number of key and value pairs of a map32 header written earlier.
+   *
+   * @param position the position the header was written at.
+   * @return the number of key and value pairs in the map.
+   */
+  int readMap32Header(int position) {
+    return (buffer[position + 1] & 0xff) << 24 | (buffer[position + 2] & 0xff) << 16 | (buffer[position + 3] & 0xff) << 8 | buffer[position + 4] & 0xff;
+  }
+
+  /**
+   * Writes a raw header, to be followed by the given number of bytes.
+   *
+   * @param length the number of bytes.
+   * @return this packer.
+   */
+  FluentdMessagePacker packRawHeader(int length) {
+    ensure(5);
+    if (length < 32) {
+      buffer[size++] = (byte) (0xa0 | length);
+    } else if (length < 0x10000) {
+      buffer[size++] = (byte) 0xda;
+      putShort(length);
+    } else {
+      buffer[size++] = (byte) 0xdb;
+      putInt(length);
+    }
+    return this;
+  }
+
+  /**
+   * Writes raw bytes including their header.
+   *
+   * @param bytes the bytes.
+   * @param offset the offset of the first byte.
+   * @param length the number of bytes.
+   * @return this packer.
+   */
+  FluentdMessagePacker packRaw(byte[] bytes, int offset, int length) {
+    packRawHeader(length);
+    return write(bytes, offset, length);
+  }
+
+  /**
+   * Writes a string encoded as UTF-8 without allocating an intermediate byte array.
+   *
+   * @param value the string.
+   * @return this packer.
+   */
+  FluentdMessagePacker packString(CharSequence value) {
+    return packString(value, 0, value.length());
+  }
+
+  /**
+   * Writes a part of a string encoded as UTF-8 without allocating an intermediate byte array.
+   *
+   * @param value the string.
+   * @param start the index of the first character.
+   * @param end the index after the last character.
+   * @return this packer.
+   */
+  FluentdMessagePacker packString(CharSequence value, int start, int end) {
+    int length = end;
+    packRawHeader(utf8Length(value, start, length));
+    ensure((length - start) * 3);
+    for (int i = start; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer[size++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[size++] = (byte) (0xc0 | (c >> 6));
+        buffer[size++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer[size++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[size++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        buffer[size++] = (byte) '?';
+      } else {
+        buffer[size++] = (byte) (0xe0 | (c >> 12));
+        buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[size++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Writes bytes as they are, without a header.
+   *
+   * @param bytes the bytes.
+   * @param offset the offset of the first byte.
+   * @param length the number of bytes.
+   * @return this packer.
+   */
+  FluentdMessagePacker write(byte[] bytes, int offset, int length) {
+    ensure(length);
+    System.arraycopy(bytes, offset, buffer, size, length);
+    size += length;
+    return this;
+  }
+
+  /**
+   * Writes everything written to another packer as it is, without a header.
+   *
+   * @param other the other packer.
+   * @return this packer.
+   */
+  FluentdMessagePacker write(FluentdMessagePacker other) {
+    return write(other.buffer, 0, other.size);
+  }
+
+  /**
+   * Computes the number of bytes a string takes when encoded as UTF-8.
+   *
+   * @param value the string.
+   * @param start the index of the first character.
+   * @param length the index after the last character.
+   * @return the number of bytes.
+   */
+  private static int utf8Length(CharSequence value, int start, int length) {
+    int result = 0;
+    for (int i = start; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        result += 1;
+      } else if (c < 0x800) {
+        result += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        result += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        result += 1;
+      } else {
+        result += 3;
+      }
+    }
+    return result;
+  }
+
+  private void putShort(int value) {
+    buffer[size++] = (byte) (value >> 8);
+    buffer[size++] = (byte) value;
+  }
+
+  private void putInt(int value) {
+    buffer[size++] = (byte) (value >> 24);
+    buffer[size++] = (byte) (value >> 16);
+    buffer[size++] = (byte) (value >> 8);
+    buffer[size++] = (byte) value;
+  }
+
+  private void putLong(long value) {
+    putInt((int) (value >> 32));
+    putInt((int) value);
+  }
+
+  private void ensure(int length) {
+    if (size + length > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + length));
+  }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the log statements passing through the backend per tag and level and measures the
+ * latency of formatting, encoding and sending them, available via {@link #getInstance()} and as an
+ * MXBean registered with the platform MBean server as {@value #OBJECT_NAME} once the first backend
+ * is created.
+ *
+ * <p>Every counter is a {@link LongAdder} and each backend holds on to the counters of its tags, so
+ * recording costs an uncontended increment and never takes a lock on the logging thread.
+ *
+ * <p>Metrics are disabled by default, to enable set the following system property:
+ *
+ * <ul>
+ *   <li>{@code flogger.metrics=true}.
+ * </ul>
+ */
+public final class FluentdMetrics implements FluentdMetricsMXBean {
+
+  /** The object name the metrics are registered with the platform MBean server as. */
+  public static final String OBJECT_NAME = "com.agsimeonov.flogger.backend.fluentd:type=Metrics";
+
+  static final String METRICS = "flogger.metrics";
+
+  private static final FluentdMetrics INSTANCE = new FluentdMetrics("true".equalsIgnoreCase(System.getProperty(METRICS)));
+
+  private final boolean enabled;
+  private final AtomicBoolean registered = new AtomicBoolean();
+  private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder connections = new LongAdder();
+  private final LongAdder connectionFailures = new LongAdder();
+  private final Queue<LongSupplier> queuedEvents = new ConcurrentLinkedQueue<>();
+  private final Queue<LongSupplier> queuedBytes = new ConcurrentLinkedQueue<>();
+  private final FluentdLatencyHistogram formatting = new FluentdLatencyHistogram();
+  private final FluentdLatencyHistogram encoding = new FluentdLatencyHistogram();
+  private final FluentdLatencyHistogram sending = new FluentdLatencyHistogram();
+
+  FluentdMetrics(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Acquires the metrics of this backend.
+   *
+   * @return the metrics, which stay empty if metrics are disabled.
+   */
+  public static FluentdMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Acquires the metrics to record to.
+   *
+   * @return the metrics, or null if metrics are disabled.
+   */
+  static FluentdMetrics active() {
+    return INSTANCE.enabled ? INSTANCE : null;
+  }
+
+  /**
+   * Determines whether metrics are recorded.
+   *
+   * @return true if metrics are enabled, otherwise false.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public long getLogged() {
+    long result = 0;
+    for (Counter counter : counters.values()) result += counter.logged.sum();
+    return result;
+  }
+
+  @Override
+  public long getFiltered() {
+    long result = 0;
+    for (Counter counter : counters.values()) result += counter.filtered.sum();
+    return result;
+  }
+
+  @Override
+  public long getDropped() {
+    long result = 0;
+    for (Counter counter : counters.values()) result += counter.dropped.sum();
+    return result;
+  }
+
+  @Override
+  public long getFailed() {
+    long result = 0;
+    for (Counter counter : counters.values()) result += counter.failed.sum();
+    return result;
+  }
+
+  @Override
+  public Map<String, Counts> getLevels() {
+    Map<String, Counts> result = new TreeMap<>();
+    for (Counter counter : counters.values()) result.merge(counter.level, counter.snapshot(), Counts::add);
+    return result;
+  }
+
+  @Override
+  public Map<String, Counts> getTags() {
+    Map<String, Counts> result = new TreeMap<>();
+    counters.forEach((tag, counter) -> result.put(tag, counter.snapshot()));
+    return result;
+  }
+
+  @Override
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+
+  @Override
+  public long getQueuedEvents() {
+    long result = 0;
+    for (LongSupplier gauge : queuedEvents) result += gauge.getAsLong();
+    return result;
+  }
+
+  @Override
+  public long getQueuedBytes() {
+    long result = 0;
+    for (LongSupplier gauge : queuedBytes) result += gauge.getAsLong();
+    return result;
+  }
+
+  @Override
+  public long getConnections() {
+    return connections.sum();
+  }
+
+  @Override
+  public long getConnectionFailures() {
+    return connectionFailures.sum();
+  }
+
+  @Override
+  public Latency getFormattingLatency() {
+    return formatting.snapshot();
+  }
+
+  @Override
+  public Latency getEncodingLatency() {
+    return encoding.snapshot();
+  }
+
+  @Override
+  public Latency getSendingLatency() {
+    return sending.snapshot();
+  }
+
+  @Override
+  public void reset() {
+    for (Counter counter : counters.values()) counter.reset();
+    bytesSent.reset();
+    connections.reset();
+    connectionFailures.reset();
+    formatting.reset();
+    encoding.reset();
+    sending.reset();
+  }
+
+  /**
+   * Acquires the counter of a tag, callers are expected to hold on to it.
+   *
+   * @param tag the full tag.
+   * @param level the level the tag belongs to.
+   * @return the counter.
+   */
+  Counter counter(String tag, Level level) {
+    Counter result = counters.get(tag);
+    return result != null ? result : counters.computeIfAbsent(tag, key -> new Counter(level.getName()));
+  }
+
+  void recordFormatting(long nanos) {
+    formatting.record(nanos);
+  }
+
+  void recordEncoding(long nanos) {
+    encoding.record(nanos);
+  }
+
+  void recordSending(long nanos) {
+    sending.record(nanos);
+  }
+
+  void sent(long bytes) {
+    bytesSent.add(bytes);
+  }
+
+  void connected() {
+    connections.increment();
+  }
+
+  void connectionFailed() {
+    connectionFailures.increment();
+  }
+
+  /**
+   * Adds a gauge of the number of log statements held by a queue, until it is removed.
+   *
+   * @param gauge the gauge.
+   */
+  void addQueuedEvents(LongSupplier gauge) {
+    queuedEvents.add(gauge);
+  }
+
+  void removeQueuedEvents(LongSupplier gauge) {
+    queuedEvents.remove(gauge);
+  }
+
+  /**
+   * Adds a gauge of the number of bytes held by a queue, until it is removed.
+   *
+   * @param gauge the gauge.
+   */
+  void addQueuedBytes(LongSupplier gauge) {
+    queuedBytes.add(gauge);
+  }
+
+  void removeQueuedBytes(LongSupplier gauge) {
+    queuedBytes.remove(gauge);
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server, unless they are disabled or metrics are
+   * registered already, possibly by another class loader. Called once the backend factory creates
+   * its first backend rather than from a static initializer, since starting the platform MBean
+   * server may log and so re-enter the backend while its classes are being initialized.
+   */
+  void register() {
+    if (!enabled || !registered.compareAndSet(false, true)) return;
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    } catch (InstanceAlreadyExistsException exception) {
+      return;
+    } catch (JMException | RuntimeException exception) {
+      exception.printStackTrace();
+    }
+  }
+
+  /** The counters of a tag. */
+  static final class Counter {
+
+    final LongAdder logged = new LongAdder();
+    final LongAdder filtered = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    private final String level;
+
+    private Counter(String level) {
+      this.level = level;
+    }
+
+    private Counts snapshot() {
+      return new Counts(logged.sum(), filtered.sum(), dropped.sum(), failed.sum());
+    }
+
+    private void reset() {
+      logged.reset();
+      filtered.reset();
+      dropped.reset();
+      failed.reset();
+    }
+  }
+
+  /** A snapshot of the counts of a tag or level. */
+  public static final class Counts {
+
+    private final long logged;
+    private final long filtered;
+    private final long dropped;
+    private final long failed;
+
+    Counts(long logged, long filtered, long dropped, long failed) {
+      this.logged = logged;
+      this.filtered = filtered;
+      this.dropped = dropped;
+      this.failed = failed;
+    }
+
+    /**
+     * Acquires the number of logged log statements.
+     *
+     * @return the number of logged log statements.
+     */
+    public long getLogged() {
+      return logged;
+    }
+
+    /**
+     * Acquires the number of filtered log statements.
+     *
+     * @return the number of filtered log statements.
+     */
+    public long getFiltered() {
+      return filtered;
+    }
+
+    /**
+     * Acquires the number of dropped log statements.
+     *
+     * @return the number of dropped log statements.
+     */
+    public long getDropped() {
+      return dropped;
+    }
+
+    /**
+     * Acquires the number of failed log statements.
+     *
+     * @return the number of failed log statements.
+     */
+    public long getFailed() {
+      return failed;
+    }
+
+    private Counts add(Counts other) {
+      return new Counts(logged + other.logged, filtered + other.filtered, dropped + other.dropped, failed + other.failed);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("{logged=%d,filtered=%d,dropped=%d,failed=%d}", logged, filtered, dropped, failed);
+    }
+  }
+
+  /** A snapshot of a latency histogram, in nanoseconds. */
+  public static final class Latency {
+
+    private final long count;
+    private final long mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    Latency(long count, long mean, long p50, long p90, long p99, long p999, long max) {
+      this.count = count;
+      this.mean = mean;
+      this.p50 = p50;
+      this.p90 = p90;
+      this.p99 = p99;
+      this.p999 = p999;
+      this.max = max;
+    }
+
+    /**
+     * Acquires the number of recorded latencies.
+     *
+     * @return the number of recorded latencies.
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * Acquires the mean latency.
+     *
+     * @return the mean latency.
+     */
+    public long getMean() {
+      return mean;
+    }
+
+    /**
+     * Acquires the median latency.
+     *
+     * @return the median latency.
+     */
+    public long getP50() {
+      return p50;
+    }
+
+    /**
+     * Acquires the 90th percentile latency.
+     *
+     * @return the 90th percentile latency.
+     */
+    public long getP90() {
+      return p90;
+    }
+
+    /**
+     * Acquires the 99th percentile latency.
+     *
+     * @return the 99th percentile latency.
+     */
+    public long getP99() {
+      return p99;
+    }
+
+    /**
+     * Acquires the 99.9th percentile latency.
+     *
+     * @return the 99.9th percentile latency.
+     */
+    public long getP999() {
+      return p999;
+    }
+
+    /**
+     * Acquires the highest latency.
+     *
+     * @return the highest latency.
+     */
+    public long getMax() {
+      return max;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("{count=%d,mean=%d,p50=%d,p90=%d,p99=%d,p999=%d,max=%d}", count, mean, p50, p90, p99, p999, max);
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.Map;
+
+/**
+ * The management interface of the {@link FluentdMetrics}, registered with the platform MBean
+ * server as {@value FluentdMetrics#OBJECT_NAME}.
+ */
+public interface FluentdMetricsMXBean {
+
+  /**
+   * Acquires the number of log statements handed to the backend.
+   *
+   * @return the number of logged log statements.
+   */
+  public long getLogged();
+
+  /**
+   * Acquires the number of log statements suppressed by rate limiting or sampling, or coalesced by
+   * aggregation.
+   *
+   * @return the number of filtered log statements.
+   */
+  public long getFiltered();
+
+  /**
+   * Acquires the number of log statements dropped by the asynchronous dispatcher because its buffer
+   * was full.
+   *
+   * @return the number of dropped log statements.
+   */
+  public long getDropped();
+
+  /**
+   * Acquires the number of log statements the Fluentd logger or sender refused, typically because
+   * Fluentd is unreachable and its buffer is full.
+   *
+   * @return the number of failed log statements.
+   */
+  public long getFailed();
+
+  /**
+   * Acquires the counts of each level.
+   *
+   * @return the counts by level name.
+   */
+  public Map<String, FluentdMetrics.Counts> getLevels();
+
+  /**
+   * Acquires the counts of each tag.
+   *
+   * @return the counts by tag.
+   */
+  public Map<String, FluentdMetrics.Counts> getTags();
+
+  /**
+   * Acquires the number of bytes written to Fluentd by the senders of this backend.
+   *
+   * @return the number of bytes sent.
+   */
+  public long getBytesSent();
+
+  /**
+   * Acquires the number of log statements buffered by asynchronous dispatchers.
+   *
+   * @return the number of queued log statements.
+   */
+  public long getQueuedEvents();
+
+  /**
+   * Acquires the number of bytes of frames queued by non-blocking senders.
+   *
+   * @return the number of queued bytes.
+   */
+  public long getQueuedBytes();
+
+  /**
+   * Acquires the number of connections to Fluentd established by the senders of this backend, any
+   * beyond one per destination are reconnects.
+   *
+   * @return the number of connections.
+   */
+  public long getConnections();
+
+  /**
+   * Acquires the number of times the senders of this backend failed to connect to or lost their
+   * connection to Fluentd.
+   *
+   * @return the number of connection failures.
+   */
+  public long getConnectionFailures();
+
+  /**
+   * Acquires the latency of formatting the messages of log statements.
+   *
+   * @return the formatting latency.
+   */
+  public FluentdMetrics.Latency getFormattingLatency();
+
+  /**
+   * Acquires the latency of encoding log statements into records, excluding formatting.
+   *
+   * @return the encoding latency.
+   */
+  public FluentdMetrics.Latency getEncodingLatency();
+
+  /**
+   * Acquires the latency of handing records to the Fluentd logger, sender or asynchronous
+   * dispatcher on the logging thread.
+   *
+   * @return the sending latency.
+   */
+  public FluentdMetrics.Latency getSendingLatency();
+
+  /** Resets every counter and latency histogram. */
+  public void reset();
+}
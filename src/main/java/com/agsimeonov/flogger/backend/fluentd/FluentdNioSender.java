@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.fluentd.logger.errorhandler.ErrorHandler;
+import org.fluentd.logger.sender.ExponentialDelayReconnector;
+import org.fluentd.logger.sender.Reconnector;
+
+/**
+ * A sender which never blocks logging threads on the socket, sending Fluentd Forward protocol
+ * Message frames, {@code [tag, time, record]}, from the single I/O thread of the {@link
+ * FluentdSelectorLoop} shared by every destination in the process.
+ *
+ * <p>Logging threads encode each log statement into a frame of their own thread and copy it into
+ * the open chunk, a pooled buffer of whole frames, waking the I/O thread only when the sender goes
+ * from idle to busy, so queueing a log statement allocates nothing once the pool is warm. The I/O
+ * thread takes every full chunk along with the open one and writes up to {@value #GATHER} chunks at
+ * once with a gathering write, and when the socket buffer is full keeps the remainder and waits for
+ * the channel to become writable instead of spinning. Written chunks return to the pool. Frames are
+ * queued up to a fixed number of bytes, beyond which log statements are refused until the queue
+ * drains.
+ *
+ * <p>Connecting is non-blocking as well, the host is resolved off the I/O thread and its address is
+ * kept until a connection fails, after which it is resolved again. When the connection fails the
+ * frame written in part is sent again from its start on the next connection, and reconnection
+ * attempts back off exponentially.
+ */
+final class FluentdNioSender implements FluentdRecordSender {
+
+  private static final int GATHER = 64;
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final long RETRY = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final ErrorHandler DEFAULT_ERROR_HANDLER = new ErrorHandler() {};
+  private static final FluentdMetrics METRICS = FluentdMetrics.active();
+  private static final ThreadLocal<FluentdMessagePacker> FRAME = ThreadLocal.withInitial(() -> new FluentdMessagePacker(1024));
+
+  private final String host;
+  private final int port;
+  private final long timeout;
+  private final long bufferCapacity;
+  private final FluentdSelectorLoop loop;
+  private final int chunkSize;
+  private final int pooledChunks;
+  private final AtomicLong queued = new AtomicLong();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private final LongSupplier depth = queued::get;
+  private final Runnable writer = this::write;
+
+  // Guarded by pool, along with the full chunks and the open chunk.
+  private final Deque<Chunk> pool = new ArrayDeque<>();
+  private final Deque<Chunk> full = new ArrayDeque<>();
+  private Chunk open;
+
+  private volatile boolean connected;
+  private volatile boolean closed;
+  private volatile long attempts;
+  private volatile int flushers;
+  private volatile ErrorHandler errorHandler = DEFAULT_ERROR_HANDLER;
+
+  // Owned by the I/O thread.
+  private final Chunk[] chunks = new Chunk[GATHER];
+  private final ByteBuffer[] writing = new ByteBuffer[GATHER];
+  private final ByteBuffer read = ByteBuffer.allocate(256);
+  private final Reconnector reconnector = new ExponentialDelayReconnector();
+  private int writingCount;
+  private InetSocketAddress address;
+  private boolean resolving;
+  private SocketChannel channel;
+  private SelectionKey key;
+  private boolean terminated;
+
+  /**
+   * A sender which never blocks logging threads on the socket, taking the same arguments as {@link
+   * org.fluentd.logger.sender.RawSocketSender}.
+   *
+   * @param host the Fluentd host.
+   * @param port the Fluentd port.
+   * @param timeout the connect and flush timeout in milliseconds.
+   * @param bufferCapacity the number of bytes of frames queued at most.
+   */
+  FluentdNioSender(String host, int port, int timeout, int bufferCapacity) {
+    this.host = host;
+    this.port = port;
+    this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+    this.bufferCapacity = bufferCapacity;
+    this.chunkSize = Math.max(1024, Math.min(CHUNK_SIZE, bufferCapacity));
+    this.pooledChunks = Math.max(2, bufferCapacity / chunkSize);
+    this.loop = FluentdSelectorLoop.get();
+    if (METRICS != null) METRICS.addQueuedBytes(depth);
+  }
+
+  @Override
+  public boolean emit(String tag, Map<String, Object> data) {
+    return emit(tag, TimeUnit.SECONDS.convert(System.currentTimeMillis(), TimeUnit.MILLISECONDS), data);
+  }
+
+  @Override
+  public boolean emit(String tag, long timestamp, Map<String, Object> data) {
+    FluentdMessagePacker frame = FRAME.get();
+    // Serializing a value may log in turn, in which case the frame of this thread is in use.
+    boolean nested = frame.size() > 0;
+    if (nested) frame = new FluentdMessagePacker(256);
+    try {
+      frame.packArrayHeader(3).packString(tag).packLong(timestamp).packValue(data);
+      return enqueue(frame);
+    } catch (RuntimeException exception) {
+      exception.printStackTrace();
+      return false;
+    } finally {
+      if (!nested) frame.reset();
+    }
+  }
+
+  @Override
+  public boolean emit(String tag, long timestamp, FluentdMessagePacker record) {
+    if (timestamp == 0) timestamp = TimeUnit.SECONDS.convert(System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    FluentdMessagePacker frame = FRAME.get();
+    // Encoded records are emitted while the frame of this thread is in use when serializing a value
+    // of a map logs in turn.
+    boolean nested = frame.size() > 0;
+    if (nested) frame = new FluentdMessagePacker(record.size() + tag.length() + 16);
+    try {
+      frame.packArrayHeader(3).packString(tag).packLong(timestamp).write(record);
+      return enqueue(frame);
+    } finally {
+      if (!nested) frame.reset();
+    }
+  }
+
+  /**
+   * Waits up to the timeout until every queued frame was written, or until the next connection
+   * attempt fails so flushing does not wait on an unreachable Fluentd.
+   */
+  @Override
+  public synchronized void flush() {
+    if (loop.inLoop()) return;
+    long attempts = this.attempts;
+    long deadline = System.nanoTime() + timeout;
+    flushers++;
+    try {
+      for (long remaining = timeout; queued.get() > 0 && this.attempts == attempts && remaining > 0; remaining = deadline - System.nanoTime()) {
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    } finally {
+      flushers--;
+    }
+  }
+
+  /** Refuses further log statements, flushes and disconnects, discarding whatever is left. */
+  @Override
+  public void close() {
+    closed = true;
+    flush();
+    loop.execute(this::terminate);
+  }
+
+  @Override
+  public String getName() {
+    return String.format("%s_%d", host, port);
+  }
+
+  @Override
+  public boolean isConnected() {
+    return connected;
+  }
+
+  @Override
+  public void setErrorHandler(ErrorHandler errorHandler) {
+    if (errorHandler == null) throw new IllegalArgumentException("errorHandler is null");
+    this.errorHandler = errorHandler;
+  }
+
+  @Override
+  public void removeErrorHandler() {
+    this.errorHandler = DEFAULT_ERROR_HANDLER;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s{host=%s,port=%d}", getClass().getName(), host, port);
+  }
+
+  /**
+   * Copies a frame into the open chunk, waking the I/O thread unless it already has work pending
+   * for this sender.
+   *
+   * @param frame the packer holding the frame.
+   * @return true if the frame was queued, otherwise false if the sender is closed or full.
+   */
+  private boolean enqueue(FluentdMessagePacker frame) {
+    if (closed) return false;
+    int length = frame.size();
+    synchronized (pool) {
+      if (queued.get() + length > bufferCapacity) return false;
+      if (open == null || open.buffer.remaining() < length) {
+        if (open != null) full.add(open);
+        open = length <= chunkSize && !pool.isEmpty() ? pool.poll() : new Chunk(Math.max(length, chunkSize));
+      }
+      open.append(frame.array(), length);
+      queued.addAndGet(length);
+    }
+    if (scheduled.compareAndSet(false, true)) loop.execute(writer);
+    return true;
+  }
+
+  /**
+   * Takes the full chunks followed by the open chunk to be written, as many as fit.
+   *
+   * @return true if any chunk was taken.
+   */
+  private boolean take() {
+    int taken = writingCount;
+    synchronized (pool) {
+      for (Chunk chunk; writingCount < GATHER && (chunk = full.poll()) != null;) writing(chunk);
+      if (writingCount < GATHER && full.isEmpty() && open != null && open.frames > 0) {
+        writing(open);
+        open = null;
+      }
+    }
+    return writingCount > taken;
+  }
+
+  private void writing(Chunk chunk) {
+    chunk.buffer.flip();
+    chunks[writingCount] = chunk;
+    writing[writingCount++] = chunk.buffer;
+  }
+
+  /**
+   * Returns a written chunk to the pool, unless it was allocated for a larger frame or the pool is
+   * full.
+   *
+   * @param chunk the chunk.
+   */
+  private void recycle(Chunk chunk) {
+    chunk.clear();
+    synchronized (pool) {
+      if (chunk.buffer.capacity() == chunkSize && pool.size() < pooledChunks) pool.add(chunk);
+    }
+  }
+
+  /**
+   * Marks the sender idle when nothing is left to write, unless a frame was queued concurrently and
+   * the logging thread that queued it already relied on this sender being scheduled.
+   *
+   * @return true if the sender is idle, otherwise false if there is more to write.
+   */
+  private boolean idle() {
+    if (queued.get() > 0) return false;
+    scheduled.set(false);
+    if (queued.get() > 0 && scheduled.compareAndSet(false, true)) return false;
+    signal();
+    return true;
+  }
+
+  /** Writes queued frames until none are left or the socket buffer is full, connecting first. */
+  private void write() {
+    if (terminated) return;
+    if (channel == null) {
+      connect();
+      return;
+    }
+    if (!connected) return;
+    try {
+      while (true) {
+        if (writingCount == 0 && !take()) {
+          if (idle()) {
+            key.interestOps(SelectionKey.OP_READ);
+            return;
+          }
+          continue;
+        }
+        channel.write(writing, 0, writingCount);
+        int done = 0;
+        long written = 0;
+        while (done < writingCount && !writing[done].hasRemaining()) {
+          written += writing[done].limit();
+          recycle(chunks[done++]);
+        }
+        if (done > 0) {
+          queued.addAndGet(-written);
+          if (METRICS != null) METRICS.sent(written);
+          System.arraycopy(chunks, done, chunks, 0, writingCount - done);
+          System.arraycopy(writing, done, writing, 0, writingCount - done);
+          Arrays.fill(chunks, writingCount - done, writingCount, null);
+          Arrays.fill(writing, writingCount - done, writingCount, null);
+          writingCount -= done;
+          take();
+        }
+        if (writingCount > 0 && done == 0) {
+          key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          return;
+        }
+      }
+    } catch (IOException exception) {
+      fail(exception);
+    }
+  }
+
+  private void connect() {
+    if (!reconnector.enableReconnection(System.currentTimeMillis())) {
+      attempts++;
+      signal();
+      retry();
+      return;
+    }
+    if (address == null) {
+      resolve();
+      return;
+    }
+    try {
+      SocketChannel channel = SocketChannel.open();
+      this.channel = channel;
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      if (channel.connect(address)) {
+        connected();
+      } else {
+        key = loop.register(channel, SelectionKey.OP_CONNECT, this::handle);
+        loop.schedule(() -> {
+          if (this.channel == channel && !connected) fail(new SocketTimeoutException("connect timed out"));
+        }, timeout);
+      }
+    } catch (IOException exception) {
+      fail(exception);
+    }
+  }
+
+  /** Resolves the host on the resolver thread of the loop, connecting once it is resolved. */
+  private void resolve() {
+    if (resolving) return;
+    resolving = true;
+    loop.resolve(host, port, this::resolved);
+  }
+
+  private void resolved(InetSocketAddress address) {
+    resolving = false;
+    if (terminated) return;
+    if (address.isUnresolved()) {
+      fail(new UnknownHostException(host));
+      return;
+    }
+    this.address = address;
+    write();
+  }
+
+  private void connected() throws IOException {
+    if (key == null) key = loop.register(channel, SelectionKey.OP_READ, this::handle);
+    connected = true;
+    reconnector.clearErrorHistory();
+    if (METRICS != null) METRICS.connected();
+    write();
+  }
+
+  private void handle(SelectionKey key) {
+    try {
+      if (key.isConnectable()) {
+        if (channel.finishConnect()) {
+          key.interestOps(SelectionKey.OP_READ);
+          connected();
+        }
+        return;
+      }
+      // Fluentd sends nothing in Message mode, reading only detects the connection being closed.
+      if (key.isReadable()) {
+        read.clear();
+        if (channel.read(read) < 0) throw new IOException("Connection closed by " + getName());
+      }
+      if (key.isValid() && key.isWritable()) write();
+    } catch (IOException exception) {
+      fail(exception);
+    }
+  }
+
+  private void fail(IOException exception) {
+    disconnect();
+    address = null;
+    for (int i = 0; i < writingCount; i++) chunks[i].rewind();
+    reconnector.addErrorHistory(System.currentTimeMillis());
+    if (METRICS != null) METRICS.connectionFailed();
+    errorHandler.handleNetworkError(exception);
+    attempts++;
+    signal();
+    retry();
+  }
+
+  /** Attempts to connect again shortly, unless there is nothing to send. */
+  private void retry() {
+    if (!terminated && !idle()) loop.schedule(this::write, RETRY);
+  }
+
+  private void disconnect() {
+    connected = false;
+    if (key != null) key.cancel();
+    key = null;
+    if (channel == null) return;
+    try {
+      channel.close();
+    } catch (IOException exception) {
+      exception.printStackTrace();
+    } finally {
+      channel = null;
+    }
+  }
+
+  private void terminate() {
+    terminated = true;
+    disconnect();
+    Arrays.fill(chunks, null);
+    Arrays.fill(writing, null);
+    writingCount = 0;
+    synchronized (pool) {
+      pool.clear();
+      full.clear();
+      open = null;
+      queued.set(0);
+    }
+    if (METRICS != null) METRICS.removeQueuedBytes(depth);
+    signal();
+  }
+
+  /** Wakes the threads waiting in {@link #flush()}. */
+  private void signal() {
+    if (flushers == 0) return;
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+
+  /** A pooled buffer of whole frames along with where each frame ends. */
+  private static final class Chunk {
+
+    private final ByteBuffer buffer;
+    private int[] ends = new int[64];
+    private int frames;
+
+    private Chunk(int capacity) {
+      this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    private void append(byte[] bytes, int length) {
+      buffer.put(bytes, 0, length);
+      if (frames == ends.length) ends = Arrays.copyOf(ends, frames * 2);
+      ends[frames++] = buffer.position();
+    }
+
+    /** Moves back to the start of the frame written in part, so it is sent again in whole. */
+    private void rewind() {
+      int start = 0;
+      for (int i = 0; i < frames && ends[i] <= buffer.position(); i++) start = ends[i];
+      buffer.position(start);
+    }
+
+    private void clear() {
+      buffer.clear();
+      frames = 0;
+    }
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+/** Determines what happens to a log statement when the asynchronous dispatch buffer is full. */
+public enum FluentdOverflowPolicy {
+
+  /** The logging thread waits until the buffer has room for the log statement. */
+  BLOCK,
+
+  /** The log statement being dispatched is dropped. */
+  DROP_NEWEST,
+
+  /** The oldest buffered log statement is dropped to make room for the one being dispatched. */
+  DROP_OLDEST,
+
+  /**
+   * Log statements below the overflow level are dropped, all others wait until the buffer has room.
+   *
+   * @see FluentdAsyncSettings#getOverflowLevel()
+   */
+  DROP_BELOW_LEVEL
+}
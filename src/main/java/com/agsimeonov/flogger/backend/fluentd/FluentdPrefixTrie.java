@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps dot separated name prefixes, such as package names, to values and finds the value of the
+ * longest prefix of a name, matching whole segments only, so {@code com.acme} matches {@code
+ * com.acme.db.Dao} but not {@code com.acmex.Dao}.
+ *
+ * <p>Not thread safe for writes, intended to be populated once and then only read.
+ *
+ * @param <T> the type of the values.
+ */
+final class FluentdPrefixTrie<T> {
+
+  private final Node<T> root = new Node<>();
+
+  /**
+   * Maps a prefix to a value, an empty prefix matches every name.
+   *
+   * @param prefix the dot separated prefix.
+   * @param value the value.
+   */
+  void put(String prefix, T value) {
+    Node<T> node = root;
+    int start = 0;
+    while (start < prefix.length()) {
+      int end = prefix.indexOf('.', start);
+      if (end < 0) end = prefix.length();
+      if (end > start) node = node.children.computeIfAbsent(prefix.substring(start, end), segment -> new Node<>());
+      start = end + 1;
+    }
+    node.value = value;
+  }
+
+  /**
+   * Finds the value of the longest prefix of a name.
+   *
+   * @param name the dot separated name.
+   * @return the value of the longest matching prefix, or null if no prefix matches.
+   */
+  T find(String name) {
+    Node<T> node = root;
+    T result = root.value;
+    int start = 0;
+    while (start < name.length()) {
+      int end = name.indexOf('.', start);
+      if (end < 0) end = name.length();
+      if (end > start) {
+        node = node.children.get(name.substring(start, end));
+        if (node == null) break;
+        if (node.value != null) result = node.value;
+      }
+      start = end + 1;
+    }
+    return result;
+  }
+
+  /**
+   * Determines whether no prefix is mapped.
+   *
+   * @return true if no prefix is mapped, otherwise false.
+   */
+  boolean isEmpty() {
+    return root.value == null && root.children.isEmpty();
+  }
+
+  private static final class Node<T> {
+
+    private final Map<String, Node<T>> children = new HashMap<>();
+    private T value;
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+import com.google.common.flogger.LogSite;
+
+/**
+ * Limits the rate of log statements per log site with a token bucket and samples log statements
+ * per level, counting the log statements it suppresses per log site so that the count can be
+ * attached to the next log statement of the log site which is admitted.
+ *
+ * <p>To configure set the following system properties, either for all loggers or for the loggers
+ * whose name starts with a package or class name prefix, in which case the longest matching prefix
+ * wins:
+ *
+ * <ul>
+ *   <li>{@code flogger.rate[.<prefix>]=<log statements per second>[:<burst>]}.
+ *   <li>{@code flogger.sample[.<prefix>]=<level>:<probability>[,<level>:<probability>...]}.
+ * </ul>
+ *
+ * <p>The burst defaults to the rate, rounded up to at least one log statement. Levels without a
+ * probability are not sampled.
+ *
+ * <p>The system properties are read once, when the backend factory is created.
+ *
+ * <p>At most 4096 log sites are tracked per logger. Beyond that log sites unused since the previous
+ * eviction are evicted, losing their suppressed counts, and start over with a full bucket.
+ */
+final class FluentdRateLimiter {
+
+  static final String RATE = "flogger.rate";
+  static final String SAMPLE = "flogger.sample";
+
+  private static final int MAX_SITES = 4096;
+
+  private final int capacity;
+  private final double rate;
+  private final double burst;
+  private final Level[] levels;
+  private final double[] probabilities;
+  private final LongSupplier nanoTime;
+  private final DoubleSupplier random;
+  private final Map<LogSite, Site> sites = new ConcurrentHashMap<>();
+
+  /**
+   * Limits the rate of log statements and samples log statements.
+   *
+   * @param capacity the maximum number of log sites tracked.
+   * @param rate the log statements admitted per second and log site, or 0 for no limit.
+   * @param burst the log statements admitted at once per log site.
+   * @param probabilities the probabilities of admitting log statements per level.
+   * @param nanoTime the source of the current time in nanoseconds.
+   * @param random the source of random numbers between 0 inclusive and 1 exclusive.
+   */
+  FluentdRateLimiter(int capacity, double rate, double burst, Map<Level, Double> probabilities, LongSupplier nanoTime, DoubleSupplier random) {
+    this.capacity = capacity;
+    this.rate = rate;
+    this.burst = burst;
+    this.levels = probabilities.keySet().toArray(new Level[0]);
+    this.probabilities = new double[levels.length];
+    for (int i = 0; i < levels.length; i++) this.probabilities[i] = probabilities.get(levels[i]);
+    this.nanoTime = nanoTime;
+    this.random = random;
+  }
+
+  /**
+   * Compiles the rate limiting and sampling system properties into a snapshot, so that creating the
+   * rate limiter of a logger only looks up its name.
+   *
+   * @return the snapshot of the system properties.
+   */
+  static Snapshot snapshot() {
+    FluentdPrefixTrie<double[]> rates = new FluentdPrefixTrie<>();
+    FluentdPrefixTrie<Map<Level, Double>> samples = new FluentdPrefixTrie<>();
+    for (String key : System.getProperties().stringPropertyNames()) {
+      try {
+        if (key.equals(RATE) || key.startsWith(RATE + ".")) {
+          rates.put(key.substring(Math.min(key.length(), RATE.length() + 1)), parseRate(System.getProperty(key)));
+        } else if (key.equals(SAMPLE) || key.startsWith(SAMPLE + ".")) {
+          samples.put(key.substring(Math.min(key.length(), SAMPLE.length() + 1)), parseSample(System.getProperty(key)));
+        }
+      } catch (RuntimeException exception) {
+        continue;
+      }
+    }
+    return new Snapshot(rates, samples);
+  }
+
+  /**
+   * Determines whether a log statement is admitted, to be called before any work is done for it.
+   *
+   * @param logSite the log site of the log statement, or null if it has none.
+   * @param level the level of the log statement.
+   * @return the number of log statements of the log site suppressed since the last admitted one,
+   *     or -1 if this log statement is suppressed.
+   */
+  long admit(LogSite logSite, Level level) {
+    boolean sampled = true;
+    for (int i = 0; i < levels.length; i++) {
+      if (levels[i].equals(level)) {
+        sampled = random.getAsDouble() < probabilities[i];
+        break;
+      }
+    }
+    Site site = site(logSite != null ? logSite : LogSite.INVALID);
+    synchronized (site) {
+      site.used = true;
+      if (sampled && (rate <= 0 || site.take(rate, burst, nanoTime.getAsLong()))) {
+        long suppressed = site.suppressed;
+        site.suppressed = 0;
+        return suppressed;
+      }
+      site.suppressed++;
+      return -1;
+    }
+  }
+
+  private Site site(LogSite logSite) {
+    Site site = sites.get(logSite);
+    if (site != null) return site;
+    if (sites.size() >= capacity) evict();
+    return sites.computeIfAbsent(logSite, key -> new Site());
+  }
+
+  /**
+   * Evicts the log sites unused since the previous eviction and flags the others as unused, giving
+   * them a second chance, or evicts an arbitrary log site if all of them were used.
+   */
+  private void evict() {
+    synchronized (sites) {
+      if (sites.size() < capacity) return;
+      boolean evicted = false;
+      for (Iterator<Site> iterator = sites.values().iterator(); iterator.hasNext();) {
+        Site site = iterator.next();
+        if (site.used) {
+          site.used = false;
+        } else {
+          iterator.remove();
+          evicted = true;
+        }
+      }
+      if (!evicted) {
+        Iterator<Site> iterator = sites.values().iterator();
+        iterator.next();
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Parses a rate and burst.
+   *
+   * @param value the rate optionally followed by a colon and the burst.
+   * @return the rate and burst.
+   */
+  private static double[] parseRate(String value) {
+    String[] parts = value.trim().split(":");
+    double rate = Double.parseDouble(parts[0].trim());
+    double burst = parts.length > 1 ? Double.parseDouble(parts[1].trim()) : Math.max(1, Math.ceil(rate));
+    if (!(rate > 0) || !(burst >= 1)) throw new IllegalArgumentException("Invalid rate: " + value);
+    return new double[] {rate, burst};
+  }
+
+  /**
+   * Parses the sampling probabilities of levels.
+   *
+   * @param value comma separated levels each followed by a colon and a probability.
+   * @return the probabilities per level.
+   */
+  private static Map<Level, Double> parseSample(String value) {
+    Map<Level, Double> result = new HashMap<>();
+    for (String entry : value.split(",")) {
+      int colon = entry.lastIndexOf(':');
+      double probability = Double.parseDouble(entry.substring(colon + 1).trim());
+      if (!(probability >= 0 && probability <= 1)) throw new IllegalArgumentException("Invalid probability: " + entry);
+      result.put(Level.parse(entry.substring(0, colon).trim()), probability);
+    }
+    return result;
+  }
+
+  /** The rates and sampling probabilities configured per logger name prefix. */
+  static final class Snapshot {
+
+    private final FluentdPrefixTrie<double[]> rates;
+    private final FluentdPrefixTrie<Map<Level, Double>> samples;
+
+    private Snapshot(FluentdPrefixTrie<double[]> rates, FluentdPrefixTrie<Map<Level, Double>> samples) {
+      this.rates = rates;
+      this.samples = samples;
+    }
+
+    /**
+     * Creates a rate limiter for a logger from the longest prefixes matching its name.
+     *
+     * @param loggerName the name of the logger.
+     * @return the rate limiter, or null if neither rate limiting nor sampling apply to the logger.
+     */
+    FluentdRateLimiter forLoggerName(String loggerName) {
+      String name = loggerName != null ? loggerName : "";
+      double[] rate = rates.find(name);
+      Map<Level, Double> sample = samples.find(name);
+      if (rate == null && sample == null) return null;
+      return new FluentdRateLimiter(MAX_SITES,
+                                    rate != null ? rate[0] : 0,
+                                    rate != null ? rate[1] : 0,
+                                    sample != null ? sample : Collections.emptyMap(),
+                                    System::nanoTime,
+                                    () -> ThreadLocalRandom.current().nextDouble());
+    }
+  }
+
+  /**
+   * The token bucket and suppressed count of a log site, guarded by itself, and whether it was used
+   * since the previous eviction.
+   */
+  private static final class Site {
+
+    private volatile boolean used;
+    private double tokens;
+    private long refilled;
+    private boolean started;
+    private long suppressed;
+
+    private boolean take(double rate, double burst, long now) {
+      if (started) {
+        tokens = Math.min(burst, tokens + (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+      } else {
+        started = true;
+        tokens = burst;
+      }
+      refilled = now;
+      if (tokens < 1) return false;
+      tokens--;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import com.google.common.flogger.LogContext;
+import com.google.common.flogger.MetadataKey;
+import com.google.common.flogger.backend.KeyValueHandler;
+import com.google.common.flogger.backend.LogData;
+import com.google.common.flogger.backend.Metadata;
+import com.google.common.flogger.backend.Tags;
+
+/**
+ * Encodes log statements straight into a reusable MessagePack buffer, producing the same record
+ * {@link FluentdLoggerBackend} builds as a map, without the intermediate map, handlers and lists.
+ *
+ * <p>Entries are streamed in the order the map would have been populated in, so should a label be
+ * written more than once the record holds duplicate keys of which the last one wins once decoded,
+ * just as it would have in the map.
+ */
+final class FluentdRecordEncoder implements KeyValueHandler {
+
+  private static final ThreadLocal<FluentdRecordEncoder> ENCODER = ThreadLocal.withInitial(FluentdRecordEncoder::new);
+  private static final FluentdLogSiteCache LOG_SITES = new FluentdLogSiteCache(1024);
+  private static final FluentdKeyCache KEYS = new FluentdKeyCache(4096);
+  private static final EncodedTags[] TAGS = new EncodedTags[256];
+  private static final FluentdMetrics METRICS = FluentdMetrics.active();
+
+  private final FluentdMessagePacker packer = new FluentdMessagePacker(1024);
+  private final StringBuilder message = new StringBuilder(256);
+  private boolean encoding;
+  private int entries;
+  private boolean tagNames;
+  private int simpleTags;
+  private FluentdThrowableDeduplicator deduplicator;
+
+  /**
+   * Acquires the encoder of the current thread, or a new encoder when the current thread is already
+   * encoding a log statement, as is the case when formatting an argument logs itself.
+   *
+   * @return an encoder which is not in use.
+   */
+  static FluentdRecordEncoder get() {
+    FluentdRecordEncoder encoder = ENCODER.get();
+    return encoder.encoding ? new FluentdRecordEncoder() : encoder;
+  }
+
+  /**
+   * Encodes a log statement into a MessagePack map.
+   *
+   * @param data the log statement.
+   * @return a packer holding the encoded record, valid until the next call to this method.
+   */
+  FluentdMessagePacker encode(LogData data) {
+    return encode(data, null);
+  }
+
+  /**
+   * Encodes a log statement into a MessagePack map.
+   *
+   * @param data the log statement.
+   * @param deduplicator the deduplicator of repeated throwables, or null to always encode the full
+   *     cause chain.
+   * @return a packer holding the encoded record, valid until the next call to this method.
+   */
+  FluentdMessagePacker encode(LogData data, FluentdThrowableDeduplicator deduplicator) {
+    return encode(data, deduplicator, 0);
+  }
+
+  /**
+   * Encodes a log statement into a MessagePack map.
+   *
+   * @param data the log statement.
+   * @param deduplicator the deduplicator of repeated throwables, or null to always encode the full
+   *     cause chain.
+   * @param suppressed the number of log statements of the log site suppressed before this one,
+   *     encoded when positive.
+   * @return a packer holding the encoded record, valid until the next call to this method.
+   */
+  FluentdMessagePacker encode(LogData data, FluentdThrowableDeduplicator deduplicator, long suppressed) {
+    encoding = true;
+    this.deduplicator = deduplicator;
+    try {
+      packer.reset();
+      packer.packMap32Header(0);
+      entries = 0;
+      Metadata metadata = data.getMetadata();
+      Throwable thrown = metadata != null ? metadata.findValue(LogContext.Key.LOG_CAUSE) : null;
+      long start = METRICS != null ? System.nanoTime() : 0;
+      FluentdMessageFormatter.format(data, message);
+      long formatted = METRICS != null ? System.nanoTime() : 0;
+      encode(data.getLevel(), message, thrown);
+      key("timestampNanos").packLong(data.getTimestampNanos());
+      if (data.getLogSite() != null) entries += LOG_SITES.write(data.getLogSite(), packer);
+      if (metadata != null) encode(metadata);
+      if (suppressed > 0) key("suppressed").packLong(suppressed);
+      packer.patchMap32Header(0, entries);
+      if (METRICS != null) {
+        METRICS.recordFormatting(formatted - start);
+        METRICS.recordEncoding(System.nanoTime() - formatted);
+      }
+      return packer;
+    } finally {
+      encoding = false;
+      this.deduplicator = null;
+    }
+  }
+
+  /**
+   * Acquires the formatted message of the log statement encoded last.
+   *
+   * @return the formatted message, valid until the next call to {@link #encode(LogData)}.
+   */
+  CharSequence getMessage() {
+    return message;
+  }
+
+  /**
+   * Encodes the level, the formatted message and the cause of a log statement.
+   *
+   * @param level the level.
+   * @param message the formatted message, omitted when empty.
+   * @param thrown the cause or null.
+   */
+  private void encode(Level level, CharSequence message, Throwable thrown) {
+    if (level != null) key("level").packString(level.getName());
+    if (message.length() > 0) key("message").packString(message);
+    if (thrown != null) {
+      if (deduplicator != null) {
+        long fingerprint = FluentdThrowableEncoder.fingerprint(thrown);
+        long occurrences = deduplicator.occurrences(level, fingerprint);
+        key("fingerprint").packString(FluentdThrowableDeduplicator.toString(fingerprint));
+        if (occurrences > 1) {
+          key("occurrences").packLong(occurrences);
+          return;
+        }
+      }
+      FluentdThrowableEncoder encoder = FluentdThrowableEncoder.get();
+      encoder.encode(thrown, key("thrown"));
+      key("stackTrace").packString(encoder.render(thrown));
+    }
+  }
+
+  @Override
+  public KeyValueHandler handle(String key, Object value) {
+    if (tagNames) {
+      if (value == null) packer.packString(key);
+    } else if (value == null) {
+      simpleTags++;
+    } else {
+      key(key).packValue(value);
+    }
+    return this;
+  }
+
+  /**
+   * Encodes metadata, single values and tags in order followed by repeated values grouped by label.
+   * The cause is skipped, it is encoded as the thrown entries.
+   *
+   * @param metadata the metadata.
+   */
+  private void encode(Metadata metadata) {
+    boolean repeated = false;
+    for (int i = 0; i < metadata.size(); i++) {
+      MetadataKey<?> key = metadata.getKey(i);
+      Object value = metadata.getValue(i);
+      if (value == null || key == LogContext.Key.LOG_CAUSE) continue;
+      if (value instanceof Tags) {
+        encode(key.getLabel(), (Tags) value);
+      } else if (key.canRepeat()) {
+        repeated = true;
+      } else {
+        key(key.getLabel()).packValue(value);
+      }
+    }
+    if (!repeated) return;
+    for (int i = 0; i < metadata.size(); i++) {
+      if (!isRepeated(metadata, i) || isEmitted(metadata, i)) continue;
+      String label = metadata.getKey(i).getLabel();
+      int count = 0;
+      for (int j = i; j < metadata.size(); j++) if (isRepeated(metadata, j) && label.equals(metadata.getKey(j).getLabel())) count++;
+      key(label).packArrayHeader(count);
+      for (int j = i; j < metadata.size(); j++) if (isRepeated(metadata, j) && label.equals(metadata.getKey(j).getLabel())) packer.packValue(metadata.getValue(j));
+    }
+  }
+
+  /**
+   * Encodes tags, copying the entries encoded the last time the same tags were encoded under the
+   * same label. Tags are matched by identity since iterating them allocates, and tags attached by a
+   * logging context are the same instance for every log statement within it. Tags hold nothing but
+   * strings, numbers and booleans, so cached tags pin no class loader.
+   *
+   * @param label the metadata label.
+   * @param tags the tags.
+   */
+  private void encode(String label, Tags tags) {
+    int hash = System.identityHashCode(tags);
+    int slot = (hash ^ (hash >>> 16)) & (TAGS.length - 1);
+    EncodedTags encoded = TAGS[slot];
+    if (encoded != null && encoded.tags == tags && encoded.label.equals(label)) {
+      packer.write(encoded.fragment, 0, encoded.fragment.length);
+      entries += encoded.count;
+      return;
+    }
+    int start = packer.size();
+    int count = entries;
+    encodeTags(label, tags);
+    TAGS[slot] = new EncodedTags(tags, label, Arrays.copyOfRange(packer.array(), start, packer.size()), entries - count);
+  }
+
+  /**
+   * Encodes tags, tags with values as their own entries and tags without values as an array under
+   * the metadata label.
+   *
+   * @param label the metadata label.
+   * @param tags the tags.
+   */
+  private void encodeTags(String label, Tags tags) {
+    simpleTags = 0;
+    tagNames = false;
+    tags.emitAll(this);
+    if (simpleTags == 0) return;
+    key(label).packArrayHeader(simpleTags);
+    tagNames = true;
+    try {
+      tags.emitAll(this);
+    } finally {
+      tagNames = false;
+    }
+  }
+
+  private static boolean isRepeated(Metadata metadata, int index) {
+    Object value = metadata.getValue(index);
+    return value != null && !(value instanceof Tags) && metadata.getKey(index).canRepeat();
+  }
+
+  /** Determines whether the repeated values of a label were encoded with an earlier index. */
+  private static boolean isEmitted(Metadata metadata, int index) {
+    String label = metadata.getKey(index).getLabel();
+    for (int i = 0; i < index; i++) if (isRepeated(metadata, i) && label.equals(metadata.getKey(i).getLabel())) return true;
+    return false;
+  }
+
+  private FluentdMessagePacker key(String key) {
+    entries++;
+    return KEYS.write(key, packer);
+  }
+
+  /** The encoded entries of tags, immutable so that entries are safely published via races. */
+  private static final class EncodedTags {
+
+    final Tags tags;
+    final String label;
+    final byte[] fragment;
+    final int count;
+
+    EncodedTags(Tags tags, String label, byte[] fragment, int count) {
+      this.tags = tags;
+      this.label = label;
+      this.fragment = fragment;
+      this.count = count;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import org.fluentd.logger.sender.Sender;
+
+/**
+ * A sender which also accepts records already encoded as MessagePack maps by a {@link
+ * FluentdRecordEncoder}, letting backends skip the map based serialization altogether.
+ */
+interface FluentdRecordSender extends Sender {
+
+  /**
+   * Emits a record already encoded as a MessagePack map.
+   *
+   * @param tag the full tag of the log statement.
+   * @param timestamp the timestamp of the log statement in seconds, or 0 for the current time.
+   * @param record the packer holding the encoded record, which may be reused once this returns.
+   * @return true if the log statement was accepted, otherwise false.
+   */
+  boolean emit(String tag, long timestamp, FluentdMessagePacker record);
+}
@@ -15,6 +15,8 @@
  */
 package com.agsimeonov.flogger.backend.fluentd;
 
+import java.util.zip.Deflater;
+
 /** Used to configure remote Fluentd loggers. */
 public interface FluentdRemoteSettings {
 
@@ -31,4 +33,152 @@ public interface FluentdRemoteSettings {
    * @return the Fluentd port.
    */
   public int getPort();
+
+  /**
+   * Acquires the path of the Unix domain socket of a node-local Fluentd or Fluent Bit agent, used
+   * instead of the host and port. Unix domain sockets require Java 16 or later and enable batching
+   * as well.
+   *
+   * @return the socket path, or null to connect over TCP.
+   */
+  public default String getSocketPath() {
+    return null;
+  }
+
+  /**
+   * Determines whether log statements are batched per tag into Forward protocol PackedForward
+   * frames instead of being sent one message at a time.
+   *
+   * @return true if log statements are batched, otherwise false.
+   */
+  public default boolean isPackedForward() {
+    return false;
+  }
+
+  /**
+   * Acquires the number of bytes after which a PackedForward batch is sent.
+   *
+   * @return the batch size in bytes.
+   */
+  public default int getBatchSize() {
+    return 256 * 1024;
+  }
+
+  /**
+   * Acquires the number of log statements after which a PackedForward batch is sent.
+   *
+   * @return the number of log statements in a batch.
+   */
+  public default int getBatchEntries() {
+    return 1024;
+  }
+
+  /**
+   * Acquires the number of milliseconds after which a PackedForward batch is sent regardless of
+   * its size.
+   *
+   * @return the batch linger time in milliseconds.
+   */
+  public default long getBatchLinger() {
+    return 100;
+  }
+
+  /**
+   * Determines whether PackedForward batches are gzip compressed and sent as CompressedPackedForward
+   * frames, enabling compression enables batching as well.
+   *
+   * @return true if batches are compressed, otherwise false.
+   */
+  public default boolean isCompressed() {
+    return false;
+  }
+
+  /**
+   * Acquires the gzip compression level, from 0 to 9 or -1 for the default level.
+   *
+   * @return the compression level.
+   */
+  public default int getCompressionLevel() {
+    return Deflater.DEFAULT_COMPRESSION;
+  }
+
+  /**
+   * Acquires the number of bytes a PackedForward batch must reach to be compressed, smaller batches
+   * are sent uncompressed.
+   *
+   * @return the minimum batch size in bytes to compress.
+   */
+  public default int getCompressionThreshold() {
+    return 1024;
+  }
+
+  /**
+   * Acquires the directory frames which cannot be sent are spilled to, to be replayed in order once
+   * the connection recovers. Spilling enables batching as well.
+   *
+   * @return the spill directory, or null to keep frames which cannot be sent in memory.
+   */
+  public default String getSpillDirectory() {
+    return null;
+  }
+
+  /**
+   * Acquires the maximum number of bytes spilled to disk.
+   *
+   * @return the spill capacity in bytes.
+   */
+  public default long getSpillCapacity() {
+    return 256L * 1024 * 1024;
+  }
+
+  /**
+   * Acquires the size in bytes of each spill segment file, frames larger than a segment are not
+   * spilled.
+   *
+   * @return the spill segment size in bytes.
+   */
+  public default int getSpillSegmentSize() {
+    return 16 * 1024 * 1024;
+  }
+
+  /**
+   * Determines what happens to a frame when the spill capacity is reached, either {@link
+   * FluentdOverflowPolicy#DROP_OLDEST} to evict the oldest segment or any other policy to drop the
+   * frame.
+   *
+   * @return the spill overflow policy.
+   */
+  public default FluentdOverflowPolicy getSpillOverflowPolicy() {
+    return FluentdOverflowPolicy.DROP_OLDEST;
+  }
+
+  /**
+   * Determines whether every PackedForward frame carries a chunk id and is kept until Fluentd
+   * acknowledges it, retransmitting it on timeout or reconnect. Enabling acks enables batching as
+   * well.
+   *
+   * @return true if frames are acknowledged, otherwise false.
+   */
+  public default boolean isAcked() {
+    return false;
+  }
+
+  /**
+   * Acquires the number of frames which may await their ack at once on the connection.
+   *
+   * @return the number of unacknowledged frames in flight.
+   */
+  public default int getAckWindow() {
+    return 16;
+  }
+
+  /**
+   * Acquires the number of milliseconds after which a frame which was not acknowledged is
+   * retransmitted on a new connection.
+   *
+   * @return the ack timeout in milliseconds.
+   */
+  public default long getAckTimeout() {
+    return 30 * 1000;
+  }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A single I/O thread multiplexing the connections of every {@link FluentdNioSender} in the
+ * process through one {@link Selector}.
+ *
+ * <p>Other threads hand work to the loop via {@link #execute(Runnable)}, which wakes the selector.
+ * Tasks are kept in an array backed queue under its lock rather than a linked queue, so that handing
+ * over a task allocates nothing. Everything else, registering channels and scheduling timers, must
+ * happen on the loop thread. Host names are resolved on a separate thread, since a lookup blocks
+ * and would stall the connections of every destination.
+ */
+final class FluentdSelectorLoop implements Runnable {
+
+  private static volatile FluentdSelectorLoop instance;
+
+  private final Selector selector;
+  private final Queue<Runnable> tasks = new ArrayDeque<>();
+  private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+  private final Thread thread;
+  private final ExecutorService resolver = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "flogger-fluentd-resolver");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private long sequence;
+
+  private FluentdSelectorLoop() throws IOException {
+    this.selector = Selector.open();
+    this.thread = new Thread(this, "flogger-fluentd-io");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Acquires the loop shared by the whole process, starting it on first use.
+   *
+   * @return the shared loop.
+   */
+  static FluentdSelectorLoop get() {
+    FluentdSelectorLoop result = instance;
+    if (result != null) return result;
+    synchronized (FluentdSelectorLoop.class) {
+      if (instance == null) {
+        try {
+          instance = new FluentdSelectorLoop();
+        } catch (IOException exception) {
+          throw new UncheckedIOException(exception);
+        }
+      }
+      return instance;
+    }
+  }
+
+  /**
+   * Runs a task on the loop thread as soon as possible.
+   *
+   * @param task the task.
+   */
+  void execute(Runnable task) {
+    synchronized (tasks) {
+      tasks.add(task);
+    }
+    if (Thread.currentThread() != thread) selector.wakeup();
+  }
+
+  /**
+   * Runs a task on the loop thread once a delay elapses, must be called on the loop thread.
+   *
+   * @param task the task.
+   * @param delayNanos the delay in nanoseconds.
+   */
+  void schedule(Runnable task, long delayNanos) {
+    timers.add(new Timer(task, System.nanoTime() + delayNanos, sequence++));
+  }
+
+  /**
+   * Resolves the address of a host on the resolver thread and hands it to a callback on the loop
+   * thread. The address handed over is unresolved if the lookup failed.
+   *
+   * @param host the host.
+   * @param port the port.
+   * @param callback the callback, invoked on the loop thread.
+   */
+  void resolve(String host, int port, Consumer<InetSocketAddress> callback) {
+    resolver.execute(() -> {
+      InetSocketAddress address = new InetSocketAddress(host, port);
+      execute(() -> callback.accept(address));
+    });
+  }
+
+  /**
+   * Registers a channel with the selector, must be called on the loop thread.
+   *
+   * @param channel the channel, in non-blocking mode.
+   * @param ops the interest set.
+   * @param handler the handler invoked with the key whenever the channel is selected.
+   * @return the selection key.
+   * @throws ClosedChannelException if the channel is closed.
+   */
+  SelectionKey register(SelectableChannel channel, int ops, Consumer<SelectionKey> handler) throws ClosedChannelException {
+    return channel.register(selector, ops, handler);
+  }
+
+  /** Determines whether the current thread is the loop thread. */
+  boolean inLoop() {
+    return Thread.currentThread() == thread;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void run() {
+    while (true) {
+      try {
+        Timer next = timers.peek();
+        if (hasTasks()) {
+          selector.selectNow();
+        } else if (next == null) {
+          selector.select();
+        } else {
+          long delay = next.deadline - System.nanoTime();
+          if (delay > 0) selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(delay + 999_999)));
+          else selector.selectNow();
+        }
+        for (Iterator<SelectionKey> keys = selector.selectedKeys().iterator(); keys.hasNext();) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (key.isValid()) run(() -> ((Consumer<SelectionKey>) key.attachment()).accept(key));
+        }
+        for (Runnable task; (task = poll()) != null;) run(task);
+        long now = System.nanoTime();
+        while (!timers.isEmpty() && timers.peek().deadline - now <= 0) run(timers.poll().task);
+      } catch (IOException | RuntimeException exception) {
+        exception.printStackTrace();
+      }
+    }
+  }
+
+  private boolean hasTasks() {
+    synchronized (tasks) {
+      return !tasks.isEmpty();
+    }
+  }
+
+  private Runnable poll() {
+    synchronized (tasks) {
+      return tasks.poll();
+    }
+  }
+
+  private static void run(Runnable task) {
+    try {
+      task.run();
+    } catch (RuntimeException exception) {
+      exception.printStackTrace();
+    }
+  }
+
+  /** A task due at a deadline, ordered by deadline and then by the order of scheduling. */
+  private static final class Timer implements Comparable<Timer> {
+
+    private final Runnable task;
+    private final long deadline;
+    private final long sequence;
+
+    private Timer(Runnable task, long deadline, long sequence) {
+      this.task = task;
+      this.deadline = deadline;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Timer other) {
+      int result = Long.compare(deadline - other.deadline, 0);
+      return result != 0 ? result : Long.compare(sequence, other.sequence);
+    }
+  }
+}
@@ -15,9 +15,6 @@
  */
 package com.agsimeonov.flogger.backend.fluentd;
 
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.Map;
 import java.util.logging.Level;
 
@@ -27,6 +24,7 @@ import com.google.common.flogger.backend.SimpleMessageFormatter;
 final class FluentdSimpleLogHandler implements SimpleMessageFormatter.SimpleLogHandler {
 
   private final Map<String, Object> out;
+  private final FluentdThrowableDeduplicator deduplicator;
 
   /**
    * Creates a simple log handler responsible for populating a Fluentd output map with a
@@ -35,28 +33,39 @@ final class FluentdSimpleLogHandler implements SimpleMessageFormatter.SimpleLogH
    * @param out the Fluentd output map to populate with a formatted log message.
    */
   FluentdSimpleLogHandler(Map<String, Object> out) {
+    this(out, null);
+  }
+
+  /**
+   * Creates a simple log handler responsible for populating a Fluentd output map with a
+   * formatted log message.
+   *
+   * @param out the Fluentd output map to populate with a formatted log message.
+   * @param deduplicator the deduplicator of repeated throwables, or null to always output the full
+   *     cause chain.
+   */
+  FluentdSimpleLogHandler(Map<String, Object> out, FluentdThrowableDeduplicator deduplicator) {
     this.out = out;
+    this.deduplicator = deduplicator;
   }
 
   @Override
   public void handleFormattedLogMessage(Level level, String message, Throwable thrown) {
     if (level != null) out.put("level", level.getName());
-    if (message != null) {
-      if (!message.startsWith("[CONTEXT")) {
-        if (message.endsWith("]")) message = message.split(" \\[CONTEXT")[0];
-        if (!message.isEmpty()) out.put("message", message);
-      }
-    }
+    if (message != null && !message.isEmpty()) out.put("message", message);
     if (thrown != null) {
-      out.put("thrown", thrown);
-      try (StringWriter stringWriter = new StringWriter()) {
-        try (PrintWriter printWriter = new PrintWriter(stringWriter)) {
-          thrown.printStackTrace(printWriter);
-          out.put("stackTrace", stringWriter.toString());
+      if (deduplicator != null) {
+        long fingerprint = FluentdThrowableEncoder.fingerprint(thrown);
+        long occurrences = deduplicator.occurrences(level, fingerprint);
+        out.put("fingerprint", FluentdThrowableDeduplicator.toString(fingerprint));
+        if (occurrences > 1) {
+          out.put("occurrences", occurrences);
+          return;
         }
-      } catch (IOException exception) {
-        exception.printStackTrace();
       }
+      FluentdThrowableEncoder encoder = FluentdThrowableEncoder.get();
+      out.put("thrown", encoder.encode(thrown));
+      out.put("stackTrace", encoder.render(thrown).toString());
     }
   }
 }
@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A first in first out store of frames spilled to segment files, used to hold on to frames which
+ * cannot be sent while Fluentd is unreachable.
+ *
+ * <p>Each segment file starts with the position up to which its frames were consumed, followed by
+ * frames each prefixed with its length. The length is written after the frame, so a frame torn by a
+ * crash is never recovered. Segments are rotated once full and deleted once consumed, and frames
+ * left in the directory by an earlier process are recovered and replayed first.
+ *
+ * <p>Segment files are written and read with positional channel operations rather than mapped, so
+ * that no mapping outlives a deleted segment. The directory is locked for as long as the store is
+ * open, so that two stores never replay the same frames.
+ *
+ * <p>Not thread safe, callers are expected to hold their own lock.
+ */
+final class FluentdSpillStore {
+
+  private static final int HEADER = 4;
+  private static final String SUFFIX = ".spill";
+  private static final String LOCK = "spill.lock";
+
+  private final Path directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final boolean dropOldest;
+  private final FileChannel lock;
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  private final ByteBuffer integer = ByteBuffer.allocate(4);
+
+  private ByteBuffer frame = ByteBuffer.allocate(256);
+  private long nextId;
+  private long frames;
+  private long bytes;
+  private long dropped;
+  private long consumed;
+
+  /**
+   * A store of frames spilled to segment files.
+   *
+   * @param directory the directory of the segment files, created if missing.
+   * @param capacity the maximum number of bytes taken by segment files, at least two segments.
+   * @param segmentSize the size of each segment file in bytes.
+   * @param dropOldest whether the oldest segment is evicted once the capacity is reached, otherwise
+   *     frames are dropped until there is room for them.
+   * @throws IOException if the directory or the segment files left in it cannot be accessed, or the
+   *     directory is used by another store.
+   */
+  FluentdSpillStore(Path directory, long capacity, int segmentSize, boolean dropOldest) throws IOException {
+    if (segmentSize <= HEADER + 4) throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+    this.directory = Files.createDirectories(directory);
+    this.segmentSize = segmentSize;
+    this.maxSegments = (int) Math.max(2, Math.min(Integer.MAX_VALUE, capacity / segmentSize));
+    this.dropOldest = dropOldest;
+    this.lock = lock(directory.resolve(LOCK));
+    try {
+      recover();
+    } catch (IOException | RuntimeException exception) {
+      while (!segments.isEmpty()) close(segments.poll());
+      lock.close();
+      throw exception;
+    }
+  }
+
+  /**
+   * Appends a frame.
+   *
+   * @param frame the packer holding the frame.
+   * @return true if the frame was stored, otherwise false if it was dropped.
+   */
+  boolean append(FluentdMessagePacker frame) {
+    return append(frame.array(), 0, frame.size());
+  }
+
+  /**
+   * Appends a frame.
+   *
+   * @param frame the bytes holding the frame.
+   * @param offset the offset of the frame.
+   * @param length the length of the frame.
+   * @return true if the frame was stored, otherwise false if it was dropped.
+   */
+  boolean append(byte[] frame, int offset, int length) {
+    if (length == 0) return true;
+    Segment tail = segments.peekLast();
+    if (tail == null || tail.write + 4 + length > tail.capacity) {
+      tail = roll(length);
+      if (tail == null) {
+        dropped++;
+        return false;
+      }
+    }
+    try {
+      write(tail.channel, ByteBuffer.wrap(frame, offset, length), tail.write + 4);
+      writeInt(tail.channel, tail.write, length);
+    } catch (IOException exception) {
+      exception.printStackTrace();
+      dropped++;
+      return false;
+    }
+    tail.write += 4 + length;
+    tail.frames++;
+    frames++;
+    bytes += length;
+    return true;
+  }
+
+  /**
+   * Acquires the oldest frame without consuming it, discarding the segment holding it if it cannot
+   * be read.
+   *
+   * @return a buffer holding the oldest frame, valid until the next call to {@link #peek()} or
+   *     {@link #remove()}, or null if the store is empty.
+   */
+  ByteBuffer peek() {
+    for (Segment head; (head = head()) != null;) {
+      try {
+        int length = readInt(head.channel, head.read);
+        if (frame.capacity() < length) frame = ByteBuffer.allocate(Math.max(length, frame.capacity() * 2));
+        frame.clear().limit(length);
+        read(head.channel, frame, head.read + 4);
+        frame.flip();
+        return frame;
+      } catch (IOException exception) {
+        exception.printStackTrace();
+        discard(segments.poll());
+      }
+    }
+    return null;
+  }
+
+  /** Consumes the oldest frame. */
+  void remove() {
+    Segment head = head();
+    if (head == null) return;
+    int length;
+    try {
+      length = readInt(head.channel, head.read);
+    } catch (IOException exception) {
+      exception.printStackTrace();
+      discard(segments.poll());
+      return;
+    }
+    head.read += 4 + length;
+    head.frames--;
+    frames--;
+    consumed++;
+    bytes -= length;
+    try {
+      writeInt(head.channel, 0, head.read);
+    } catch (IOException exception) {
+      exception.printStackTrace();
+    }
+    if (head.frames == 0 && head != segments.peekLast()) delete(segments.poll());
+  }
+
+  /**
+   * Determines whether there are frames left.
+   *
+   * @return true if the store is empty.
+   */
+  boolean isEmpty() {
+    return frames == 0;
+  }
+
+  /**
+   * Acquires the number of bytes of the frames left.
+   *
+   * @return the number of bytes.
+   */
+  long size() {
+    return bytes;
+  }
+
+  /**
+   * Acquires the number of frames consumed or discarded so far, which only changes once the oldest
+   * frame is gone, so that a frame peeked and sent without holding a lock can be told apart from its
+   * successor before removing it.
+   *
+   * @return the number of consumed frames.
+   */
+  long getConsumed() {
+    return consumed;
+  }
+
+  /**
+   * Acquires the number of frames dropped or evicted because the capacity was reached.
+   *
+   * @return the number of dropped frames.
+   */
+  long getDropped() {
+    return dropped;
+  }
+
+  /**
+   * Forces the segments to disk and closes them, deleting them if every frame was consumed, and
+   * unlocks the directory.
+   */
+  void close() {
+    boolean empty = isEmpty();
+    while (!segments.isEmpty()) {
+      Segment segment = segments.poll();
+      if (empty) {
+        delete(segment);
+        continue;
+      }
+      try {
+        segment.channel.force(false);
+      } catch (IOException exception) {
+        exception.printStackTrace();
+      }
+      close(segment);
+    }
+    try {
+      lock.close();
+    } catch (IOException exception) {
+      exception.printStackTrace();
+    }
+  }
+
+  /** Acquires the segment holding the oldest frame, deleting consumed segments on the way. */
+  private Segment head() {
+    while (!segments.isEmpty()) {
+      Segment head = segments.peek();
+      if (head.frames > 0) return head;
+      if (head == segments.peekLast()) return null;
+      delete(segments.poll());
+    }
+    return null;
+  }
+
+  /**
+   * Starts a new segment, evicting the oldest segment if the capacity is reached and the policy
+   * allows it.
+   *
+   * @param length the length of the frame the segment is started for.
+   * @return the new segment, or null if the frame has to be dropped.
+   */
+  private Segment roll(int length) {
+    if (HEADER + 4 + length > segmentSize) return null;
+    Segment tail = segments.peekLast();
+    if (tail != null && tail.frames == 0) delete(segments.pollLast());
+    if (segments.size() >= maxSegments) {
+      if (!dropOldest) return null;
+      discard(segments.poll());
+    }
+    try {
+      Segment segment = open(directory.resolve(String.format("%016x%s", nextId++, SUFFIX)), segmentSize);
+      segments.add(segment);
+      return segment;
+    } catch (IOException exception) {
+      exception.printStackTrace();
+      return null;
+    }
+  }
+
+  /** Deletes a segment along with the frames left in it, counting them as dropped. */
+  private void discard(Segment segment) {
+    dropped += segment.frames;
+    consumed += segment.frames;
+    frames -= segment.frames;
+    bytes -= segment.write - segment.read - 4L * segment.frames;
+    delete(segment);
+  }
+
+  /** Recovers the frames of the segment files left in the directory, oldest first. */
+  private void recover() throws IOException {
+    List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path path : stream) paths.add(path);
+    }
+    Collections.sort(paths);
+    for (Path path : paths) {
+      String name = path.getFileName().toString();
+      try {
+        nextId = Math.max(nextId, Long.parseLong(name.substring(0, name.length() - SUFFIX.length()), 16) + 1);
+      } catch (NumberFormatException exception) {
+        continue;
+      }
+      long size = Files.size(path);
+      if (size <= HEADER + 4) {
+        Files.delete(path);
+        continue;
+      }
+      Segment segment = open(path, (int) Math.min(Integer.MAX_VALUE, Math.max(size, segmentSize)));
+      if (segment.frames == 0) {
+        delete(segment);
+      } else {
+        segments.add(segment);
+        frames += segment.frames;
+        bytes += segment.write - segment.read - 4L * segment.frames;
+      }
+    }
+  }
+
+  /**
+   * Opens a segment file, creating it if missing, and scans the frames it holds.
+   *
+   * @param path the segment file.
+   * @param capacity the size the segment file may grow to in bytes.
+   * @return the segment.
+   * @throws IOException if the segment file cannot be read or written.
+   */
+  private Segment open(Path path, int capacity) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      Segment segment = new Segment(path, channel, capacity);
+      long size = Math.min(capacity, channel.size());
+      int read = size >= HEADER ? readInt(channel, 0) : 0;
+      int position = HEADER;
+      int frames = 0;
+      int unconsumed = 0;
+      while (position + 4 <= size) {
+        int length = readInt(channel, position);
+        if (length <= 0 || length > size - position - 4) break;
+        position += 4 + length;
+        frames++;
+        if (position > read) unconsumed++;
+      }
+      boolean valid = read >= HEADER && read <= position;
+      segment.read = valid ? read : HEADER;
+      segment.write = position;
+      segment.frames = valid ? unconsumed : frames;
+      if (segment.read == HEADER) writeInt(channel, 0, HEADER);
+      return segment;
+    } catch (IOException | RuntimeException exception) {
+      channel.close();
+      throw exception;
+    }
+  }
+
+  private int readInt(FileChannel channel, long position) throws IOException {
+    integer.clear();
+    read(channel, integer, position);
+    return integer.getInt(0);
+  }
+
+  private void writeInt(FileChannel channel, long position, int value) throws IOException {
+    integer.clear();
+    integer.putInt(0, value);
+    write(channel, integer, position);
+  }
+
+  private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) throw new EOFException("Truncated segment");
+      position += read;
+    }
+  }
+
+  private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) position += channel.write(buffer, position);
+  }
+
+  /**
+   * Locks the directory of the segment files.
+   *
+   * @param path the lock file.
+   * @return the channel holding the lock, closing it unlocks the directory.
+   * @throws IOException if the lock file cannot be accessed or the directory is already locked.
+   */
+  private static FileChannel lock(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try {
+      if (channel.tryLock() != null) return channel;
+    } catch (OverlappingFileLockException exception) {
+      // Locked by another store of this process.
+    } catch (IOException | RuntimeException exception) {
+      channel.close();
+      throw exception;
+    }
+    channel.close();
+    throw new IOException("Spill directory in use: " + path.getParent());
+  }
+
+  private static void close(Segment segment) {
+    try {
+      segment.channel.close();
+    } catch (IOException exception) {
+      exception.printStackTrace();
+    }
+  }
+
+  private static void delete(Segment segment) {
+    close(segment);
+    try {
+      Files.deleteIfExists(segment.path);
+    } catch (IOException exception) {
+      exception.printStackTrace();
+    }
+  }
+
+  /** A segment file along with its consumed and written positions. */
+  private static final class Segment {
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int capacity;
+    private int read;
+    private int write;
+    private int frames;
+
+    private Segment(Path path, FileChannel channel, int capacity) {
+      this.path = path;
+      this.channel = channel;
+      this.capacity = capacity;
+    }
+  }
+}
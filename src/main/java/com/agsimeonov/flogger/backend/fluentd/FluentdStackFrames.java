@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import com.google.common.flogger.util.CallerFinder;
+
+/**
+ * Locates the caller of a class on the current stack.
+ *
+ * <p>This variant captures the whole stack with a {@link Throwable}, on Java 9 and above the
+ * multi-release jar provides a variant which walks frames lazily with a {@code StackWalker}.
+ */
+final class FluentdStackFrames {
+
+  private FluentdStackFrames() {}
+
+  /**
+   * Finds the first frame after the frames of a class, searching from the caller of this method.
+   *
+   * @param target the class whose caller is to be found.
+   * @param skip the number of frames to skip, starting with the caller of this method.
+   * @return the frame of the caller or null if the class was not found on the stack.
+   */
+  static StackTraceElement findCallerOf(Class<?> target, int skip) {
+    if (skip < 0) throw new IllegalArgumentException("skip count cannot be negative: " + skip);
+    return CallerFinder.findCallerOf(target, new Throwable(), skip + 1);
+  }
+
+  /**
+   * Finds the class of the first frame after the frames of a class, searching from the caller of
+   * this method.
+   *
+   * @param target the class whose caller is to be found.
+   * @param skip the number of frames to skip, starting with the caller of this method.
+   * @return the class of the caller or null if the class was not found on the stack.
+   */
+  static Class<?> findCallerClassOf(Class<?> target, int skip) {
+    StackTraceElement caller = findCallerOf(target, skip + 1);
+    if (caller == null) return null;
+    try {
+      return Class.forName(caller.getClassName());
+    } catch (ClassNotFoundException exception) {
+      return null;
+    }
+  }
+}
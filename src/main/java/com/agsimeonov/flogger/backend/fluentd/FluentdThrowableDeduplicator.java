@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * Counts occurrences of throwables per level and fingerprint within a window, so that only the
+ * first occurrence within the window carries the full cause chain and later ones just the
+ * fingerprint and their occurrence count.
+ *
+ * <p>To enable set the following system property, the window in milliseconds:
+ *
+ * <ul>
+ *   <li>{@code flogger.stack_dedupe=<window>}.
+ * </ul>
+ */
+final class FluentdThrowableDeduplicator {
+
+  static final String STACK_DEDUPE = "flogger.stack_dedupe";
+
+  private static final int MAX_ENTRIES = 1024;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final long window;
+  private final LongSupplier nanoTime;
+  private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Counts occurrences of throwables within a window.
+   *
+   * @param window the window in nanoseconds.
+   * @param nanoTime the source of the current time in nanoseconds.
+   */
+  FluentdThrowableDeduplicator(long window, LongSupplier nanoTime) {
+    this.window = window;
+    this.nanoTime = nanoTime;
+  }
+
+  /**
+   * Creates a deduplicator with the window configured via system property.
+   *
+   * @return a deduplicator, or null if deduplication is not enabled.
+   */
+  static FluentdThrowableDeduplicator create() {
+    try {
+      long window = Long.valueOf(System.getProperty(STACK_DEDUPE));
+      return window > 0 ? new FluentdThrowableDeduplicator(TimeUnit.MILLISECONDS.toNanos(window), System::nanoTime) : null;
+    } catch (Exception exception) {
+      return null;
+    }
+  }
+
+  /**
+   * Counts an occurrence of a throwable, starting a new window if the window of the throwable has
+   * elapsed.
+   *
+   * @param level the level the throwable is logged at.
+   * @param fingerprint the fingerprint of the throwable.
+   * @return the number of occurrences within the window, including this one.
+   */
+  long occurrences(Level level, long fingerprint) {
+    long now = nanoTime.getAsLong();
+    Long key = fingerprint ^ (level != null ? level.getName().hashCode() * 0x9e3779b97f4a7c15L : 0);
+    Entry entry = entries.get(key);
+    if (entry == null || now - entry.start >= window) {
+      if (entry == null && entries.size() >= MAX_ENTRIES) evict(now);
+      entry = entries.compute(key, (ignored, current) -> current == null || now - current.start >= window ? new Entry(now) : current);
+    }
+    return entry.count.incrementAndGet();
+  }
+
+  /**
+   * Renders a fingerprint as 16 hexadecimal digits.
+   *
+   * @param fingerprint the fingerprint.
+   * @return the rendered fingerprint.
+   */
+  static String toString(long fingerprint) {
+    char[] chars = new char[16];
+    for (int i = 15; i >= 0; i--, fingerprint >>>= 4) chars[i] = HEX[(int) (fingerprint & 0xf)];
+    return new String(chars);
+  }
+
+  /** Removes the entries whose window has elapsed, or all entries if none has. */
+  private void evict(long now) {
+    entries.values().removeIf(entry -> now - entry.start >= window);
+    if (entries.size() >= MAX_ENTRIES) entries.clear();
+  }
+
+  /** The occurrences of a throwable within a window. */
+  private static final class Entry {
+
+    final long start;
+    final AtomicLong count = new AtomicLong();
+
+    Entry(long start) {
+      this.start = start;
+    }
+  }
+}
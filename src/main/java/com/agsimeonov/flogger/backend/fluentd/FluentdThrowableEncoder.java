@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes throwables as a bounded cause chain rather than shipping the throwable itself.
+ *
+ * <p>Each throwable in the cause chain, starting with the thrown one, is encoded as a map holding
+ * its {@code class}, {@code message} and {@code frames}. At most a configured number of frames is
+ * kept per throwable, frames in common with the enclosing throwable are elided like {@link
+ * Throwable#printStackTrace()} does, and the number of elided frames is kept as {@code
+ * framesOmitted}. At most a configured number of throwables is kept, the number of causes beyond
+ * that is kept as {@code causesOmitted} of the last throwable, counting circular cause chains up to
+ * 1024 throwables. Suppressed throwables are not encoded.
+ *
+ * <p>To configure set the following system properties:
+ *
+ * <ul>
+ *   <li>{@code flogger.stack_frames=<frames per throwable>}, fallbacks to 32.
+ *   <li>{@code flogger.stack_causes=<throwables per cause chain>}, fallbacks to 8.
+ * </ul>
+ */
+final class FluentdThrowableEncoder {
+
+  static final String STACK_FRAMES = "flogger.stack_frames";
+  static final String STACK_CAUSES = "flogger.stack_causes";
+
+  private static final int MAX_CHAIN = 1024;
+  private static final ThreadLocal<FluentdThrowableEncoder> ENCODER = ThreadLocal.withInitial(FluentdThrowableEncoder::new);
+
+  private final int maxFrames;
+  private final int maxCauses;
+  private final StringBuilder builder = new StringBuilder(256);
+  private final StringBuilder trace = new StringBuilder(4096);
+  private boolean encoding;
+
+  /** Encodes throwables bounded by the limits configured via system properties. */
+  FluentdThrowableEncoder() {
+    this(property(STACK_FRAMES, 32), property(STACK_CAUSES, 8));
+  }
+
+  /**
+   * Encodes throwables bounded by the given limits.
+   *
+   * @param maxFrames the maximum number of frames kept per throwable.
+   * @param maxCauses the maximum number of throwables kept per cause chain.
+   */
+  FluentdThrowableEncoder(int maxFrames, int maxCauses) {
+    this.maxFrames = Math.max(maxFrames, 0);
+    this.maxCauses = Math.max(maxCauses, 1);
+  }
+
+  /**
+   * Acquires the encoder of the current thread, or a new encoder when the current thread is already
+   * encoding a throwable, as is the case when the message of a throwable logs itself.
+   *
+   * @return an encoder which is not in use.
+   */
+  static FluentdThrowableEncoder get() {
+    FluentdThrowableEncoder encoder = ENCODER.get();
+    return encoder.encoding ? new FluentdThrowableEncoder() : encoder;
+  }
+
+  /**
+   * Encodes the cause chain of a throwable into a MessagePack array of maps.
+   *
+   * @param thrown the throwable.
+   * @param packer the packer the cause chain is written to.
+   */
+  void encode(Throwable thrown, FluentdMessagePacker packer) {
+    walk(thrown, new Sink() {
+      @Override
+      public void begin(int count) {
+        packer.packArrayHeader(count);
+      }
+
+      @Override
+      public void cause(int index, Throwable cause, String message, StackTraceElement[] frames, int shown, int causesOmitted) {
+        packer.packMapHeader(2 + (message != null ? 1 : 0) + (shown < frames.length ? 1 : 0) + (causesOmitted > 0 ? 1 : 0));
+        packer.packString("class").packString(cause.getClass().getName());
+        if (message != null) packer.packString("message").packString(message);
+        packer.packString("frames").packArrayHeader(shown);
+        for (int i = 0; i < shown; i++) packer.packString(frame(frames[i]));
+        if (shown < frames.length) packer.packString("framesOmitted").packLong(frames.length - shown);
+        if (causesOmitted > 0) packer.packString("causesOmitted").packLong(causesOmitted);
+      }
+    });
+  }
+
+  /**
+   * Encodes the cause chain of a throwable into a list of maps.
+   *
+   * @param thrown the throwable.
+   * @return the cause chain.
+   */
+  List<Map<String, Object>> encode(Throwable thrown) {
+    ArrayList<Map<String, Object>> result = new ArrayList<>();
+    walk(thrown, new Sink() {
+      @Override
+      public void begin(int count) {
+        result.ensureCapacity(count);
+      }
+
+      @Override
+      public void cause(int index, Throwable cause, String message, StackTraceElement[] frames, int shown, int causesOmitted) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("class", cause.getClass().getName());
+        if (message != null) map.put("message", message);
+        List<String> strings = new ArrayList<>(shown);
+        for (int i = 0; i < shown; i++) strings.add(frame(frames[i]).toString());
+        map.put("frames", strings);
+        if (shown < frames.length) map.put("framesOmitted", frames.length - shown);
+        if (causesOmitted > 0) map.put("causesOmitted", causesOmitted);
+        result.add(map);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Renders the cause chain of a throwable in the format of {@link Throwable#printStackTrace()},
+   * bounded like {@link #encode(Throwable)}.
+   *
+   * @param thrown the throwable.
+   * @return the rendered cause chain, valid until the next call to this encoder.
+   */
+  CharSequence render(Throwable thrown) {
+    StringBuilder result = trace;
+    result.setLength(0);
+    walk(thrown, new Sink() {
+      @Override
+      public void begin(int count) {}
+
+      @Override
+      public void cause(int index, Throwable cause, String message, StackTraceElement[] frames, int shown, int causesOmitted) {
+        if (index > 0) result.append("Caused by: ");
+        result.append(cause.getClass().getName());
+        if (message != null) result.append(": ").append(message);
+        result.append('\n');
+        for (int i = 0; i < shown; i++) result.append("\tat ").append(frame(frames[i])).append('\n');
+        if (shown < frames.length) result.append("\t... ").append(frames.length - shown).append(" more\n");
+        if (causesOmitted > 0) result.append("\t... ").append(causesOmitted).append(" more causes\n");
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Walks the cause chain of a throwable, the single place the chain is bounded, circular chains are
+   * terminated and frames in common with the enclosing throwable are elided.
+   *
+   * @param thrown the throwable.
+   * @param sink the sink receiving the throwables kept.
+   */
+  private void walk(Throwable thrown, Sink sink) {
+    encoding = true;
+    try {
+      int causes = causes(thrown);
+      int kept = Math.min(causes, maxCauses);
+      sink.begin(kept);
+      StackTraceElement[] enclosing = null;
+      Throwable current = thrown;
+      for (int i = 0; i < kept; i++, current = current.getCause()) {
+        StackTraceElement[] frames = current.getStackTrace();
+        sink.cause(i, current, current.getLocalizedMessage(), frames, shown(frames, enclosing), i == kept - 1 ? causes - kept : 0);
+        enclosing = frames;
+      }
+    } finally {
+      encoding = false;
+    }
+  }
+
+  /**
+   * Computes a fingerprint of the cause chain of a throwable from the classes of its throwables and
+   * all of their frames, leaving out messages which tend to vary between occurrences.
+   *
+   * @param thrown the throwable.
+   * @return the 64-bit FNV-1a hash of the cause chain.
+   */
+  static long fingerprint(Throwable thrown) {
+    long hash = 0xcbf29ce484222325L;
+    int count = 0;
+    for (Throwable current = thrown; current != null && count < MAX_CHAIN; current = current.getCause(), count++) {
+      hash = hash(hash, current.getClass().getName());
+      for (StackTraceElement frame : current.getStackTrace()) {
+        hash = hash(hash, frame.getClassName());
+        hash = hash(hash, frame.getMethodName());
+        hash = (hash ^ frame.getLineNumber()) * 0x100000001b3L;
+      }
+    }
+    return hash;
+  }
+
+  private static long hash(long hash, String value) {
+    for (int i = 0; i < value.length(); i++) hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+    return (hash ^ 0xff) * 0x100000001b3L;
+  }
+
+  /** Counts the throwables of a cause chain, bounded so that circular cause chains terminate. */
+  private static int causes(Throwable thrown) {
+    int count = 0;
+    for (Throwable current = thrown; current != null && count < MAX_CHAIN; current = current.getCause()) count++;
+    return count;
+  }
+
+  /** Counts the frames to show, excluding frames in common with the enclosing throwable. */
+  private int shown(StackTraceElement[] frames, StackTraceElement[] enclosing) {
+    int unique = frames.length;
+    if (enclosing != null) {
+      for (int i = enclosing.length - 1; unique > 0 && i >= 0 && frames[unique - 1].equals(enclosing[i]); i--) unique--;
+    }
+    return Math.min(unique, maxFrames);
+  }
+
+  /**
+   * Renders a frame in the format of {@link StackTraceElement#toString()} without the module.
+   *
+   * @param frame the frame.
+   * @return the rendered frame, valid until the next frame is rendered.
+   */
+  private CharSequence frame(StackTraceElement frame) {
+    builder.setLength(0);
+    builder.append(frame.getClassName()).append('.').append(frame.getMethodName()).append('(');
+    if (frame.isNativeMethod()) {
+      builder.append("Native Method");
+    } else if (frame.getFileName() == null) {
+      builder.append("Unknown Source");
+    } else {
+      builder.append(frame.getFileName());
+      if (frame.getLineNumber() >= 0) builder.append(':').append(frame.getLineNumber());
+    }
+    return builder.append(')');
+  }
+
+  private static int property(String name, int fallback) {
+    try {
+      int result = Integer.valueOf(System.getProperty(name));
+      return result >= 0 ? result : fallback;
+    } catch (Exception exception) {
+      return fallback;
+    }
+  }
+
+  /** Receives the throwables of a bounded cause chain in order, starting with the thrown one. */
+  private interface Sink {
+
+    /**
+     * Receives the number of throwables kept, before any of them.
+     *
+     * @param count the number of throwables kept.
+     */
+    void begin(int count);
+
+    /**
+     * Receives a throwable of the cause chain.
+     *
+     * @param index the index of the throwable in the cause chain.
+     * @param cause the throwable.
+     * @param message the localized message of the throwable or null.
+     * @param frames the frames of the throwable.
+     * @param shown the number of leading frames to show.
+     * @param causesOmitted the number of causes omitted after this throwable, only positive for the
+     *     last throwable kept.
+     */
+    void cause(int index, Throwable cause, String message, StackTraceElement[] frames, int shown, int causesOmitted);
+  }
+}
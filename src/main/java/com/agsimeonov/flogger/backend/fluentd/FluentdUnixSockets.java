@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Opens Unix domain socket connections.
+ *
+ * <p>Unix domain socket channels are only available from Java 16 on, where this class is replaced
+ * by its multi-release counterpart. On earlier versions connecting always fails.
+ */
+final class FluentdUnixSockets {
+
+  private FluentdUnixSockets() {}
+
+  /**
+   * Determines whether Unix domain sockets are supported by the running Java version.
+   *
+   * @return true if Unix domain sockets are supported.
+   */
+  static boolean isSupported() {
+    return false;
+  }
+
+  /**
+   * Connects to a Unix domain socket.
+   *
+   * @param path the path of the socket file.
+   * @return the connected channel, in blocking mode.
+   * @throws IOException always, as Unix domain sockets require Java 16 or later.
+   */
+  static SocketChannel connect(String path) throws IOException {
+    throw new IOException("Unix domain sockets require Java 16 or later: " + path);
+  }
+}
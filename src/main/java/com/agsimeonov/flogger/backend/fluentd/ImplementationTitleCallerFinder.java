@@ -17,7 +17,6 @@ package com.agsimeonov.flogger.backend.fluentd;
 
 import com.google.common.flogger.AbstractLogger;
 import com.google.common.flogger.backend.Platform.LogCallerFinder;
-import com.google.common.flogger.util.CallerFinder;
 
 /**
  * Caller finder utilizing the implementation title as the tax prefix.
@@ -32,6 +31,18 @@ public class ImplementationTitleCallerFinder extends FluentdCallerFinder {
 
   private static final LogCallerFinder INSTANCE = new ImplementationTitleCallerFinder();
 
+  /**
+   * Implementation titles per class, including the lack of one, held alongside each class so that
+   * unloading a class loader discards its entries.
+   */
+  private static final ClassValue<String> TITLES = new ClassValue<String>() {
+    @Override
+    protected String computeValue(Class<?> type) {
+      Package typePackage = type.getPackage();
+      return typePackage != null ? typePackage.getImplementationTitle() : null;
+    }
+  };
+
   /** Caller finder utilizing the implementation title as the tag prefix. */
   private ImplementationTitleCallerFinder() {}
 
@@ -46,11 +57,23 @@ public class ImplementationTitleCallerFinder extends FluentdCallerFinder {
 
   @Override
   public String findLoggingClass(Class<? extends AbstractLogger<?>> loggerClass) {
+    String title;
     try {
-      StackTraceElement caller = CallerFinder.findCallerOf(loggerClass, new Throwable(), 1);
-      return Class.forName(caller.getClassName()).getPackage().getImplementationTitle();
+      title = implementationTitle(FluentdStackFrames.findCallerClassOf(loggerClass, 1));
     } catch (Exception exception) {
-      throw new IllegalStateException("Implementation title was not found!");
+      title = null;
     }
+    if (title == null) throw new IllegalStateException("Implementation title was not found!");
+    return title;
+  }
+
+  /**
+   * Acquires the implementation title of the package of a class, memoized per class.
+   *
+   * @param type the class.
+   * @return the implementation title or null if the class has no package or implementation title.
+   */
+  static String implementationTitle(Class<?> type) {
+    return TITLES.get(type);
   }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.util.logging.Level;
+
+/**
+ * Configures asynchronous dispatch of log statements via system properties.
+ *
+ * <p>To configure set the following system properties (also see {@link com.agsimeonov.flogger.backend.fluentd.FluentdBackendFactory}):
+ *
+ * <ul>
+ *   <li>{@code flogger.async_settings=com.agsimeonov.flogger.backend.fluentd.SystemPropertiesAsyncSettings#getInstance}.
+ *   <li>{@code flogger.async_capacity=<capacity>}.
+ *   <li>{@code flogger.async_overflow=<block/drop_newest/drop_oldest/drop_below_level>}.
+ *   <li>{@code flogger.async_overflow_level=<level>}.
+ * </ul>
+ */
+public class SystemPropertiesAsyncSettings implements FluentdAsyncSettings {
+
+  static final String ASYNC_CAPACITY = "flogger.async_capacity";
+  static final String ASYNC_OVERFLOW = "flogger.async_overflow";
+  static final String ASYNC_OVERFLOW_LEVEL = "flogger.async_overflow_level";
+
+  private static final FluentdAsyncSettings INSTANCE = new SystemPropertiesAsyncSettings();
+
+  /** Configures asynchronous dispatch of log statements via system properties. */
+  private SystemPropertiesAsyncSettings() {}
+
+  /**
+   * Acquires a singleton SystemPropertiesAsyncSettings.
+   *
+   * @return the SystemPropertiesAsyncSettings singleton.
+   */
+  public static FluentdAsyncSettings getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Acquires the dispatch buffer capacity using a system property. Fallbacks to 8192.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.async_capacity=<capacity>}.
+   * </ul><br>
+   *
+   * @return the dispatch buffer capacity based on a system property, fallbacks to 8192.
+   */
+  @Override
+  public int getCapacity() {
+    try {
+      int result = Integer.valueOf(System.getProperty(ASYNC_CAPACITY));
+      return result > 0 ? result : 8192;
+    } catch (Exception exception) {
+      return 8192;
+    }
+  }
+
+  /**
+   * Acquires the overflow policy using a system property. Fallbacks to block.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.async_overflow=<block/drop_newest/drop_oldest/drop_below_level>}.
+   * </ul><br>
+   *
+   * @return the overflow policy based on a system property, fallbacks to block.
+   */
+  @Override
+  public FluentdOverflowPolicy getOverflowPolicy() {
+    try {
+      return FluentdOverflowPolicy.valueOf(System.getProperty(ASYNC_OVERFLOW).toUpperCase());
+    } catch (Exception exception) {
+      return FluentdOverflowPolicy.BLOCK;
+    }
+  }
+
+  /**
+   * Acquires the overflow level using a system property. Fallbacks to WARNING.
+   *
+   * <p>To configure set the following (either a level name or an integer value):
+   *
+   * <ul>
+   *   <li>{@code flogger.async_overflow_level=<level>}.
+   * </ul><br>
+   *
+   * @return the overflow level based on a system property, fallbacks to WARNING.
+   */
+  @Override
+  public Level getOverflowLevel() {
+    try {
+      return Level.parse(System.getProperty(ASYNC_OVERFLOW_LEVEL));
+    } catch (Exception exception) {
+      return Level.WARNING;
+    }
+  }
+}
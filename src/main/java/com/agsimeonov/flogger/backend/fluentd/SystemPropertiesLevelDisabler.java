@@ -15,6 +15,12 @@
  */
 package com.agsimeonov.flogger.backend.fluentd;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /** 
@@ -28,17 +34,48 @@ import java.util.logging.Level;
  *   <li>{@code flogger.exclusive=<true/false>}.
  *   <li>{@code flogger.<name>=<true/false>}.
  *   <li>{@code flogger.level=<integer>}.
+ *   <li>{@code flogger.level.<prefix>=<level>}.
+ *   <li>{@code flogger.level_refresh=<milliseconds>}.
  * </ul>
+ *
+ * <p>A {@code flogger.level.<prefix>} property, such as {@code flogger.level.com.acme.db=FINE},
+ * overrides the other properties for the loggers whose name starts with the package or class name
+ * prefix, enabling exactly the levels greater than or equal to the given level. When several
+ * prefixes match a logger name the longest one wins.
+ *
+ * <p>The system properties are compiled into a snapshot when the level disabler is created and
+ * whenever {@link #refresh()} is called, or every {@code flogger.level_refresh} milliseconds if
+ * set, so that {@link #isLoggable(Level)} does not read system properties.
  */
 public class SystemPropertiesLevelDisabler implements FluentdLevelDisabler {
 
   static final String EXCLUSIVE = "flogger.exclusive";
   static final String LEVEL = "flogger.level";
+  static final String LEVEL_REFRESH = "flogger.level_refresh";
+  static final String LEVEL_PREFIX = "flogger.level.";
+
+  private static final String PREFIX = "flogger.";
+  private static final Level[] STANDARD_LEVELS = {
+    Level.OFF, Level.SEVERE, Level.WARNING, Level.INFO, Level.CONFIG, Level.FINE, Level.FINER, Level.FINEST, Level.ALL
+  };
 
   private static final FluentdLevelDisabler INSTANCE = new SystemPropertiesLevelDisabler();
 
+  private volatile Snapshot snapshot;
+
   /** Determines whether logging is disabled at specific levels based on system properties. */
-  private SystemPropertiesLevelDisabler() {}
+  private SystemPropertiesLevelDisabler() {
+    refresh();
+    long period = getRefreshPeriod();
+    if (period > 0) {
+      ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "flogger-level-refresh");
+        thread.setDaemon(true);
+        return thread;
+      });
+      executor.scheduleWithFixedDelay(this::refresh, period, period, TimeUnit.MILLISECONDS);
+    }
+  }
 
   /**
    * Acquires a singleton SystemPropertiesLoggingDisabler.
@@ -68,36 +105,60 @@ public class SystemPropertiesLevelDisabler implements FluentdLevelDisabler {
    * If flogger.exclusive is set to false and flogger.level is set returns true if parameter level is greater than or equal to flogger.level.<br>
    * Otherwise if flogger.exclusive is is to false returns false.<br>
    *
+   * <p>The outcome reflects the system properties as of the last {@link #refresh()}.
+   *
    * @param level the given level.
    * @return true if the given level is loggable, otherwise false.
    */
   @Override
   public boolean isLoggable(Level level) {
-    String exclusive = System.getProperty(EXCLUSIVE);
-    if (exclusive == null) return true;
-    boolean isExclusive = exclusive.toLowerCase().equals("true") ? true : false;
+    return snapshot.isLoggable(level);
+  }
 
-    String name = System.getProperty(getNamePropertyKey(level));
-    boolean isNameSet = name == null
-                      ? false
-                      : name.toLowerCase().equals("true") ? true : false;
+  /**
+   * Acquires a level disabler for a specific logger which honors the {@code
+   * flogger.level.<prefix>} overrides matching the logger name. The matching override is resolved
+   * once per snapshot, so checking a level remains a constant time operation.
+   *
+   * @param loggerName the name of the logger.
+   * @return the level disabler of the logger.
+   */
+  @Override
+  public FluentdLevelDisabler forLoggerName(String loggerName) {
+    return new LoggerLevelDisabler(loggerName);
+  }
 
+  /**
+   * Compiles the system properties into a new snapshot used by {@link #isLoggable(Level)}, to be
+   * called after the system properties change.
+   */
+  @Override
+  public void refresh() {
+    FluentdPrefixTrie<Level> overrides = new FluentdPrefixTrie<>();
+    for (String key : System.getProperties().stringPropertyNames()) {
+      if (!key.startsWith(LEVEL_PREFIX)) continue;
+      try {
+        overrides.put(key.substring(LEVEL_PREFIX.length()), Level.parse(System.getProperty(key).trim()));
+      } catch (RuntimeException exception) {
+        continue;
+      }
+    }
+    String exclusive = System.getProperty(EXCLUSIVE);
+    if (exclusive == null) {
+      snapshot = new Snapshot(true, false, null, Collections.emptySet(), overrides);
+      return;
+    }
     Integer value;
     try {
       value = Integer.valueOf(System.getProperty(LEVEL));
     } catch (Exception exception) {
       value = null;
     }
-    
-    if (isExclusive) {
-      if (isNameSet) return false;
-      if (value != null) return level.intValue() > value;
-      return true;
-    } else {
-      if (isNameSet) return true;
-      if (value != null) return level.intValue() >= value;
-      return false;
+    Set<String> names = new HashSet<>();
+    for (String key : System.getProperties().stringPropertyNames()) {
+      if (key.startsWith(PREFIX) && "true".equalsIgnoreCase(System.getProperty(key))) names.add(key.substring(PREFIX.length()));
     }
+    snapshot = new Snapshot(false, exclusive.toLowerCase().equals("true"), value, names, overrides);
   }
 
   /**
@@ -106,6 +167,113 @@ public class SystemPropertiesLevelDisabler implements FluentdLevelDisabler {
    * @return the flogger.<name> system property key.
    */
   static String getNamePropertyKey(Level level) {
-    return "flogger." + level.getName();
+    return PREFIX + level.getName();
+  }
+
+  /**
+   * Acquires the index of a standard level in the snapshot decision table.
+   *
+   * @param level the level.
+   * @return the index of the level, or -1 if the level is not one of the standard levels.
+   */
+  private static int indexOf(Level level) {
+    switch (level.intValue()) {
+      case Integer.MAX_VALUE: return level == Level.OFF ? 0 : -1;
+      case 1000: return level == Level.SEVERE ? 1 : -1;
+      case 900: return level == Level.WARNING ? 2 : -1;
+      case 800: return level == Level.INFO ? 3 : -1;
+      case 700: return level == Level.CONFIG ? 4 : -1;
+      case 500: return level == Level.FINE ? 5 : -1;
+      case 400: return level == Level.FINER ? 6 : -1;
+      case 300: return level == Level.FINEST ? 7 : -1;
+      case Integer.MIN_VALUE: return level == Level.ALL ? 8 : -1;
+      default: return -1;
+    }
+  }
+
+  private static long getRefreshPeriod() {
+    try {
+      return Long.valueOf(System.getProperty(LEVEL_REFRESH));
+    } catch (Exception exception) {
+      return 0;
+    }
+  }
+
+  /** A level disabler for a specific logger honoring the overrides matching its name. */
+  private final class LoggerLevelDisabler implements FluentdLevelDisabler {
+
+    private final String loggerName;
+    private volatile Resolution resolution;
+
+    private LoggerLevelDisabler(String loggerName) {
+      this.loggerName = loggerName;
+      this.resolution = new Resolution(snapshot, loggerName);
+    }
+
+    @Override
+    public boolean isLoggable(Level level) {
+      Resolution resolution = this.resolution;
+      Snapshot snapshot = SystemPropertiesLevelDisabler.this.snapshot;
+      if (resolution.snapshot != snapshot) this.resolution = resolution = new Resolution(snapshot, loggerName);
+      if (resolution.threshold == null) return snapshot.isLoggable(level);
+      return level.intValue() >= resolution.threshold.intValue();
+    }
+
+    @Override
+    public void refresh() {
+      SystemPropertiesLevelDisabler.this.refresh();
+    }
+  }
+
+  /** The override of a logger resolved against a snapshot. */
+  private static final class Resolution {
+
+    private final Snapshot snapshot;
+    private final Level threshold;
+
+    private Resolution(Snapshot snapshot, String loggerName) {
+      this.snapshot = snapshot;
+      this.threshold = snapshot.overrides.isEmpty() ? null : snapshot.overrides.find(loggerName);
+    }
+  }
+
+  /** The system properties compiled into an immutable decision table. */
+  private static final class Snapshot {
+
+    private final boolean all;
+    private final boolean exclusive;
+    private final Integer value;
+    private final Set<String> names;
+    private final FluentdPrefixTrie<Level> overrides;
+    private final boolean[] standard = new boolean[STANDARD_LEVELS.length];
+
+    private Snapshot(boolean all, boolean exclusive, Integer value, Set<String> names, FluentdPrefixTrie<Level> overrides) {
+      this.all = all;
+      this.exclusive = exclusive;
+      this.value = value;
+      this.names = names;
+      this.overrides = overrides;
+      for (int i = 0; i < STANDARD_LEVELS.length; i++) standard[i] = resolve(STANDARD_LEVELS[i]);
+    }
+
+    private boolean isLoggable(Level level) {
+      if (all) return true;
+      int index = indexOf(level);
+      return index >= 0 ? standard[index] : resolve(level);
+    }
+
+    private boolean resolve(Level level) {
+      if (all) return true;
+      boolean isNameSet = names.contains(level.getName());
+      if (exclusive) {
+        if (isNameSet) return false;
+        if (value != null) return level.intValue() > value;
+        return true;
+      } else {
+        if (isNameSet) return true;
+        if (value != null) return level.intValue() >= value;
+        return false;
+      }
+    }
   }
 }
@@ -24,12 +24,42 @@ package com.agsimeonov.flogger.backend.fluentd;
  *   <li>{@code flogger.remote_settings=com.agsimeonov.flogger.backend.fluentd.SystemPropertiesFluentdRemoteLoggerSettings#getInstance}.
  *   <li>{@code flogger.fluentd_host=<fluentd_host>}.
  *   <li>{@code flogger.fluentd_port=<fluentd_port>}.
+ *   <li>{@code flogger.fluentd_socket_path=<socket_path>}.
+ *   <li>{@code flogger.fluentd_packed_forward=<true/false>}.
+ *   <li>{@code flogger.fluentd_batch_size=<bytes>}.
+ *   <li>{@code flogger.fluentd_batch_entries=<entries>}.
+ *   <li>{@code flogger.fluentd_batch_linger=<milliseconds>}.
+ *   <li>{@code flogger.fluentd_compressed=<true/false>}.
+ *   <li>{@code flogger.fluentd_compression_level=<level>}.
+ *   <li>{@code flogger.fluentd_compression_threshold=<bytes>}.
+ *   <li>{@code flogger.fluentd_spill_directory=<directory>}.
+ *   <li>{@code flogger.fluentd_spill_capacity=<bytes>}.
+ *   <li>{@code flogger.fluentd_spill_segment_size=<bytes>}.
+ *   <li>{@code flogger.fluentd_spill_overflow=<drop_oldest/drop_newest>}.
+ *   <li>{@code flogger.fluentd_ack=<true/false>}.
+ *   <li>{@code flogger.fluentd_ack_window=<frames>}.
+ *   <li>{@code flogger.fluentd_ack_timeout=<milliseconds>}.
  * </ul>
  */
 public class SystemPropertiesRemoteSettings implements FluentdRemoteSettings {
 
   static final String FLUENTD_HOST = "flogger.fluentd_host";
   static final String FLUENTD_PORT = "flogger.fluentd_port";
+  static final String FLUENTD_SOCKET_PATH = "flogger.fluentd_socket_path";
+  static final String FLUENTD_PACKED_FORWARD = "flogger.fluentd_packed_forward";
+  static final String FLUENTD_BATCH_SIZE = "flogger.fluentd_batch_size";
+  static final String FLUENTD_BATCH_ENTRIES = "flogger.fluentd_batch_entries";
+  static final String FLUENTD_BATCH_LINGER = "flogger.fluentd_batch_linger";
+  static final String FLUENTD_COMPRESSED = "flogger.fluentd_compressed";
+  static final String FLUENTD_COMPRESSION_LEVEL = "flogger.fluentd_compression_level";
+  static final String FLUENTD_COMPRESSION_THRESHOLD = "flogger.fluentd_compression_threshold";
+  static final String FLUENTD_SPILL_DIRECTORY = "flogger.fluentd_spill_directory";
+  static final String FLUENTD_SPILL_CAPACITY = "flogger.fluentd_spill_capacity";
+  static final String FLUENTD_SPILL_SEGMENT_SIZE = "flogger.fluentd_spill_segment_size";
+  static final String FLUENTD_SPILL_OVERFLOW = "flogger.fluentd_spill_overflow";
+  static final String FLUENTD_ACK = "flogger.fluentd_ack";
+  static final String FLUENTD_ACK_WINDOW = "flogger.fluentd_ack_window";
+  static final String FLUENTD_ACK_TIMEOUT = "flogger.fluentd_ack_timeout";
 
   private static final FluentdRemoteSettings INSTANCE = new SystemPropertiesRemoteSettings();
 
@@ -81,4 +111,297 @@ public class SystemPropertiesRemoteSettings implements FluentdRemoteSettings {
       return 24224;
     }
   }
+  /**
+   * Acquires the Unix domain socket path using a system property. Fallbacks to null, connecting
+   * over TCP.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_socket_path=<socket_path>}.
+   * </ul><br>
+   *
+   * @return the socket path based on a system property, fallbacks to null.
+   */
+  @Override
+  public String getSocketPath() {
+    return System.getProperty(FLUENTD_SOCKET_PATH);
+  }
+
+
+  /**
+   * Determines whether log statements are batched into PackedForward frames using a system
+   * property. Fallbacks to false.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_packed_forward=<true/false>}.
+   * </ul><br>
+   *
+   * @return true if log statements are batched based on a system property, fallbacks to false.
+   */
+  @Override
+  public boolean isPackedForward() {
+    return Boolean.parseBoolean(System.getProperty(FLUENTD_PACKED_FORWARD));
+  }
+
+  /**
+   * Acquires the PackedForward batch size in bytes using a system property. Fallbacks to 262144.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_batch_size=<bytes>}.
+   * </ul><br>
+   *
+   * @return the batch size based on a system property, fallbacks to 262144.
+   */
+  @Override
+  public int getBatchSize() {
+    try {
+      return Integer.valueOf(System.getProperty(FLUENTD_BATCH_SIZE));
+    } catch (Exception exception) {
+      return FluentdRemoteSettings.super.getBatchSize();
+    }
+  }
+
+  /**
+   * Acquires the number of log statements in a PackedForward batch using a system property.
+   * Fallbacks to 1024.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_batch_entries=<entries>}.
+   * </ul><br>
+   *
+   * @return the number of log statements in a batch based on a system property, fallbacks to 1024.
+   */
+  @Override
+  public int getBatchEntries() {
+    try {
+      return Integer.valueOf(System.getProperty(FLUENTD_BATCH_ENTRIES));
+    } catch (Exception exception) {
+      return FluentdRemoteSettings.super.getBatchEntries();
+    }
+  }
+
+  /**
+   * Acquires the PackedForward batch linger time in milliseconds using a system property.
+   * Fallbacks to 100.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_batch_linger=<milliseconds>}.
+   * </ul><br>
+   *
+   * @return the batch linger time based on a system property, fallbacks to 100.
+   */
+  @Override
+  public long getBatchLinger() {
+    try {
+      return Long.valueOf(System.getProperty(FLUENTD_BATCH_LINGER));
+    } catch (Exception exception) {
+      return FluentdRemoteSettings.super.getBatchLinger();
+    }
+  }
+
+  /**
+   * Determines whether PackedForward batches are gzip compressed using a system property.
+   * Fallbacks to false.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_compressed=<true/false>}.
+   * </ul><br>
+   *
+   * @return true if batches are compressed based on a system property, fallbacks to false.
+   */
+  @Override
+  public boolean isCompressed() {
+    return Boolean.parseBoolean(System.getProperty(FLUENTD_COMPRESSED));
+  }
+
+  /**
+   * Acquires the gzip compression level using a system property. Fallbacks to -1, the default
+   * level.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_compression_level=<level>}.
+   * </ul><br>
+   *
+   * @return the compression level based on a system property, fallbacks to -1.
+   */
+  @Override
+  public int getCompressionLevel() {
+    try {
+      int level = Integer.valueOf(System.getProperty(FLUENTD_COMPRESSION_LEVEL));
+      return level >= -1 && level <= 9 ? level : FluentdRemoteSettings.super.getCompressionLevel();
+    } catch (Exception exception) {
+      return FluentdRemoteSettings.super.getCompressionLevel();
+    }
+  }
+
+  /**
+   * Acquires the minimum PackedForward batch size in bytes to compress using a system property.
+   * Fallbacks to 1024.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_compression_threshold=<bytes>}.
+   * </ul><br>
+   *
+   * @return the minimum batch size to compress based on a system property, fallbacks to 1024.
+   */
+  @Override
+  public int getCompressionThreshold() {
+    try {
+      return Integer.valueOf(System.getProperty(FLUENTD_COMPRESSION_THRESHOLD));
+    } catch (Exception exception) {
+      return FluentdRemoteSettings.super.getCompressionThreshold();
+    }
+  }
+
+  /**
+   * Acquires the spill directory using a system property. Fallbacks to null, frames which cannot
+   * be sent are kept in memory.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_spill_directory=<directory>}.
+   * </ul><br>
+   *
+   * @return the spill directory based on a system property, fallbacks to null.
+   */
+  @Override
+  public String getSpillDirectory() {
+    return System.getProperty(FLUENTD_SPILL_DIRECTORY);
+  }
+
+  /**
+   * Acquires the spill capacity in bytes using a system property. Fallbacks to 268435456.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_spill_capacity=<bytes>}.
+   * </ul><br>
+   *
+   * @return the spill capacity based on a system property, fallbacks to 268435456.
+   */
+  @Override
+  public long getSpillCapacity() {
+    try {
+      return Long.valueOf(System.getProperty(FLUENTD_SPILL_CAPACITY));
+    } catch (Exception exception) {
+      return FluentdRemoteSettings.super.getSpillCapacity();
+    }
+  }
+
+  /**
+   * Acquires the spill segment size in bytes using a system property. Fallbacks to 16777216.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_spill_segment_size=<bytes>}.
+   * </ul><br>
+   *
+   * @return the spill segment size based on a system property, fallbacks to 16777216.
+   */
+  @Override
+  public int getSpillSegmentSize() {
+    try {
+      return Integer.valueOf(System.getProperty(FLUENTD_SPILL_SEGMENT_SIZE));
+    } catch (Exception exception) {
+      return FluentdRemoteSettings.super.getSpillSegmentSize();
+    }
+  }
+
+  /**
+   * Acquires the spill overflow policy using a system property. Fallbacks to drop oldest.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_spill_overflow=<drop_oldest/drop_newest>}.
+   * </ul><br>
+   *
+   * @return the spill overflow policy based on a system property, fallbacks to drop oldest.
+   */
+  @Override
+  public FluentdOverflowPolicy getSpillOverflowPolicy() {
+    try {
+      return FluentdOverflowPolicy.valueOf(System.getProperty(FLUENTD_SPILL_OVERFLOW).toUpperCase());
+    } catch (Exception exception) {
+      return FluentdRemoteSettings.super.getSpillOverflowPolicy();
+    }
+  }
+
+  /**
+   * Determines whether PackedForward frames are acknowledged using a system property. Fallbacks to
+   * false.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_ack=<true/false>}.
+   * </ul><br>
+   *
+   * @return true if frames are acknowledged based on a system property, fallbacks to false.
+   */
+  @Override
+  public boolean isAcked() {
+    return Boolean.parseBoolean(System.getProperty(FLUENTD_ACK));
+  }
+
+  /**
+   * Acquires the number of unacknowledged frames in flight using a system property. Fallbacks to
+   * 16.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_ack_window=<frames>}.
+   * </ul><br>
+   *
+   * @return the number of unacknowledged frames in flight based on a system property, fallbacks to
+   *     16.
+   */
+  @Override
+  public int getAckWindow() {
+    try {
+      int window = Integer.valueOf(System.getProperty(FLUENTD_ACK_WINDOW));
+      return window > 0 ? window : FluentdRemoteSettings.super.getAckWindow();
+    } catch (Exception exception) {
+      return FluentdRemoteSettings.super.getAckWindow();
+    }
+  }
+
+  /**
+   * Acquires the ack timeout in milliseconds using a system property. Fallbacks to 30000.
+   *
+   * <p>To configure set the following:
+   *
+   * <ul>
+   *   <li>{@code flogger.fluentd_ack_timeout=<milliseconds>}.
+   * </ul><br>
+   *
+   * @return the ack timeout based on a system property, fallbacks to 30000.
+   */
+  @Override
+  public long getAckTimeout() {
+    try {
+      return Long.valueOf(System.getProperty(FLUENTD_ACK_TIMEOUT));
+    } catch (Exception exception) {
+      return FluentdRemoteSettings.super.getAckTimeout();
+    }
+  }
 }
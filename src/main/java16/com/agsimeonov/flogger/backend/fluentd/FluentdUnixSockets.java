@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Opens Unix domain socket connections.
+ *
+ * <p>Uses the {@code AF_UNIX} socket channels available from Java 16 on.
+ */
+final class FluentdUnixSockets {
+
+  private FluentdUnixSockets() {}
+
+  /**
+   * Determines whether Unix domain sockets are supported by the running Java version.
+   *
+   * @return true if Unix domain sockets are supported.
+   */
+  static boolean isSupported() {
+    return true;
+  }
+
+  /**
+   * Connects to a Unix domain socket.
+   *
+   * @param path the path of the socket file.
+   * @return the connected channel, in blocking mode.
+   * @throws IOException if the connection failed.
+   */
+  static SocketChannel connect(String path) throws IOException {
+    SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+    try {
+      channel.connect(UnixDomainSocketAddress.of(path));
+      return channel;
+    } catch (IOException | RuntimeException exception) {
+      channel.close();
+      throw exception;
+    }
+  }
+}
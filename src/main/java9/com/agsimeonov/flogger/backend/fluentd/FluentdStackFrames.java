@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.lang.StackWalker.Option;
+import java.lang.StackWalker.StackFrame;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Locates the caller of a class on the current stack.
+ *
+ * <p>Walks frames lazily, stopping at the caller, rather than capturing the whole stack.
+ */
+final class FluentdStackFrames {
+
+  private static final StackWalker WALKER = StackWalker.getInstance();
+  private static final StackWalker CLASS_WALKER = StackWalker.getInstance(Option.RETAIN_CLASS_REFERENCE);
+
+  private FluentdStackFrames() {}
+
+  /**
+   * Finds the first frame after the frames of a class, searching from the caller of this method.
+   *
+   * @param target the class whose caller is to be found.
+   * @param skip the number of frames to skip, starting with the caller of this method.
+   * @return the frame of the caller or null if the class was not found on the stack.
+   */
+  static StackTraceElement findCallerOf(Class<?> target, int skip) {
+    if (skip < 0) throw new IllegalArgumentException("skip count cannot be negative: " + skip);
+    String name = target.getName();
+    return WALKER.walk(frames -> callerOf(frames, name, skip).map(StackFrame::toStackTraceElement).orElse(null));
+  }
+
+  /**
+   * Finds the class of the first frame after the frames of a class, searching from the caller of
+   * this method.
+   *
+   * @param target the class whose caller is to be found.
+   * @param skip the number of frames to skip, starting with the caller of this method.
+   * @return the class of the caller or null if the class was not found on the stack.
+   */
+  static Class<?> findCallerClassOf(Class<?> target, int skip) {
+    if (skip < 0) throw new IllegalArgumentException("skip count cannot be negative: " + skip);
+    String name = target.getName();
+    return CLASS_WALKER.walk(frames -> callerOf(frames, name, skip).map(StackFrame::getDeclaringClass).orElse(null));
+  }
+
+  /** Skips the frames of the method which started the walk and the given frames before searching. */
+  private static Optional<StackFrame> callerOf(Stream<StackFrame> frames, String name, int skip) {
+    return frames.skip(skip + 1L)
+        .dropWhile(frame -> !name.equals(frame.getClassName()))
+        .dropWhile(frame -> name.equals(frame.getClassName()))
+        .findFirst();
+  }
+}
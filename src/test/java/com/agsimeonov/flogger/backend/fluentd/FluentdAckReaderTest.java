@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class FluentdAckReaderTest {
+
+  @Test
+  void testRead() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FluentdForwardServer.MESSAGE_PACK.write(out, Collections.singletonMap("ack", "AAAAAAAAAAAAAAAAAAAAAA=="));
+    Map<String, String> other = new LinkedHashMap<>();
+    other.put("other", "value");
+    FluentdForwardServer.MESSAGE_PACK.write(out, other);
+    out.write(new FluentdMessagePacker().packMapHeader(1).packString("ack").packString(new String(new char[300]).replace('\0', 'x')).toByteArray());
+    FluentdAckReader reader = new FluentdAckReader(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(reader.read(), "AAAAAAAAAAAAAAAAAAAAAA==");
+    assertNull(reader.read());
+    assertEquals(reader.read().length(), 300);
+    assertThrows(EOFException.class, reader::read);
+  }
+
+  @Test
+  void testReadUnexpected() throws IOException {
+    FluentdAckReader reader = new FluentdAckReader(new ByteArrayInputStream(new FluentdMessagePacker().packArrayHeader(1).toByteArray()));
+    assertThrows(IOException.class, reader::read);
+    reader = new FluentdAckReader(new ByteArrayInputStream(new FluentdMessagePacker().packMapHeader(1).packLong(1).toByteArray()));
+    assertThrows(IOException.class, reader::read);
+  }
+}
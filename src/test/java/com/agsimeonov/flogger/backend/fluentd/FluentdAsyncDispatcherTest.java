@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.fluentd.logger.FluentLogger;
+import org.fluentd.logger.errorhandler.ErrorHandler;
+import org.fluentd.logger.sender.Sender;
+import org.junit.jupiter.api.Test;
+
+class FluentdAsyncDispatcherTest {
+
+  @Test
+  void testDispatch() {
+    BlockingSender sender = new BlockingSender(0);
+    FluentdAsyncDispatcher dispatcher = new FluentdAsyncDispatcher(settings(16, FluentdOverflowPolicy.BLOCK));
+    FluentLogger logger = new FluentLogger(null, sender) {};
+    for (int i = 0; i < 100; i++) assertTrue(dispatcher.dispatch(logger, Level.INFO, Integer.toString(i), Collections.emptyMap(), 0));
+    dispatcher.flush();
+    assertEquals(sender.tags.size(), 100);
+    for (int i = 0; i < 100; i++) assertEquals(sender.tags.get(i), Integer.toString(i));
+    dispatcher.close();
+  }
+
+  @Test
+  void testDropNewest() throws Exception {
+    BlockingSender sender = new BlockingSender(1);
+    FluentdAsyncDispatcher dispatcher = fill(sender, FluentdOverflowPolicy.DROP_NEWEST);
+    assertFalse(dispatcher.dispatch(new FluentLogger(null, sender) {}, Level.SEVERE, "3", Collections.emptyMap(), 0));
+    sender.release.countDown();
+    dispatcher.flush();
+    assertEquals(sender.tags, Arrays.asList("0", "1", "2"));
+    assertEquals(dispatcher.getDropped(), 1);
+    dispatcher.close();
+  }
+
+  @Test
+  void testDropOldest() throws Exception {
+    BlockingSender sender = new BlockingSender(1);
+    FluentdAsyncDispatcher dispatcher = fill(sender, FluentdOverflowPolicy.DROP_OLDEST);
+    assertTrue(dispatcher.dispatch(new FluentLogger(null, sender) {}, Level.INFO, "3", Collections.emptyMap(), 0));
+    sender.release.countDown();
+    dispatcher.flush();
+    assertEquals(sender.tags, Arrays.asList("0", "2", "3"));
+    assertEquals(dispatcher.getDropped(), 1);
+    dispatcher.close();
+  }
+
+  @Test
+  void testDropBelowLevel() throws Exception {
+    BlockingSender sender = new BlockingSender(1);
+    FluentdAsyncDispatcher dispatcher = fill(sender, FluentdOverflowPolicy.DROP_BELOW_LEVEL);
+    assertFalse(dispatcher.dispatch(new FluentLogger(null, sender) {}, Level.INFO, "3", Collections.emptyMap(), 0));
+    Thread thread = new Thread(() -> dispatcher.dispatch(new FluentLogger(null, sender) {}, Level.SEVERE, "4", Collections.emptyMap(), 0));
+    thread.start();
+    thread.join(100);
+    assertTrue(thread.isAlive());
+    sender.release.countDown();
+    thread.join();
+    dispatcher.flush();
+    assertEquals(sender.tags, Arrays.asList("0", "1", "2", "4"));
+    assertEquals(dispatcher.getDropped(), 1);
+    dispatcher.close();
+  }
+
+  @Test
+  void testClose() throws Exception {
+    BlockingSender sender = new BlockingSender(1);
+    FluentdAsyncDispatcher dispatcher = fill(sender, FluentdOverflowPolicy.BLOCK);
+    sender.release.countDown();
+    dispatcher.close();
+    assertEquals(sender.tags, Arrays.asList("0", "1", "2"));
+    assertFalse(dispatcher.dispatch(new FluentLogger(null, sender) {}, Level.SEVERE, "3", Collections.emptyMap(), 0));
+  }
+
+  @Test
+  void testDispatchRecord() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdForwardSender sender = new FluentdForwardSender(FluentdForwardSenderTest.settings(server.getPort(), Integer.MAX_VALUE, Integer.MAX_VALUE, 60000));
+      FluentdAsyncDispatcher dispatcher = new FluentdAsyncDispatcher(settings(4, FluentdOverflowPolicy.BLOCK));
+      FluentdMessagePacker record = new FluentdMessagePacker();
+      for (int i = 0; i < 10; i++) {
+        record.reset();
+        record.packMapHeader(1).packString("index").packLong(i);
+        assertTrue(dispatcher.dispatch(sender, Level.INFO, "tag", record, i + 1));
+      }
+      dispatcher.flush();
+      sender.flush();
+      assertTrue(server.awaitEvents(10, 5000));
+      for (int i = 0; i < 10; i++) {
+        assertEquals(server.events.get(i).tag, "tag");
+        assertEquals(server.events.get(i).time, i + 1);
+        assertEquals(server.events.get(i).record, Collections.singletonMap("index", (long) i));
+      }
+      dispatcher.close();
+      sender.close();
+    }
+  }
+
+  /** Creates a dispatcher with a capacity of two whose drain thread is stuck sending a first event. */
+  static FluentdAsyncDispatcher fill(BlockingSender sender, FluentdOverflowPolicy policy) throws InterruptedException {
+    FluentdAsyncDispatcher dispatcher = new FluentdAsyncDispatcher(settings(2, policy));
+    FluentLogger logger = new FluentLogger(null, sender) {};
+    assertTrue(dispatcher.dispatch(logger, Level.INFO, "0", Collections.emptyMap(), 0));
+    assertTrue(sender.entered.await(5, TimeUnit.SECONDS));
+    assertTrue(dispatcher.dispatch(logger, Level.INFO, "1", Collections.emptyMap(), 0));
+    assertTrue(dispatcher.dispatch(logger, Level.INFO, "2", Collections.emptyMap(), 0));
+    return dispatcher;
+  }
+
+  static FluentdAsyncSettings settings(int capacity, FluentdOverflowPolicy policy) {
+    return new FluentdAsyncSettings() {
+      @Override
+      public int getCapacity() {
+        return capacity;
+      }
+
+      @Override
+      public FluentdOverflowPolicy getOverflowPolicy() {
+        return policy;
+      }
+
+      @Override
+      public Level getOverflowLevel() {
+        return Level.WARNING;
+      }
+    };
+  }
+
+  /** A sender which records tags and log statements and holds the drain thread until released. */
+  static class BlockingSender implements Sender {
+
+    final List<String> tags = new CopyOnWriteArrayList<>();
+    final List<Map<String, Object>> records = new CopyOnWriteArrayList<>();
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release;
+
+    BlockingSender(int permits) {
+      release = new CountDownLatch(permits);
+    }
+
+    @Override
+    public boolean emit(String tag, Map<String, Object> data) {
+      return emit(tag, 0, data);
+    }
+
+    @Override
+    public boolean emit(String tag, long timestamp, Map<String, Object> data) {
+      entered.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException exception) {
+        Thread.currentThread().interrupt();
+      }
+      records.add(data);
+      return tags.add(tag);
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public String getName() {
+      return getClass().getSimpleName();
+    }
+
+    @Override
+    public boolean isConnected() {
+      return true;
+    }
+
+    @Override
+    public void setErrorHandler(ErrorHandler errorHandler) {}
+
+    @Override
+    public void removeErrorHandler() {}
+  }
+}
@@ -19,6 +19,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.parallel.Resources.SYSTEM_PROPERTIES;
 import static org.junit.platform.commons.support.ReflectionSupport.findMethod;
@@ -27,13 +28,25 @@ import static org.junit.platform.commons.support.ReflectionSupport.newInstance;
 import static org.junit.platform.commons.support.ReflectionSupport.tryToReadFieldValue;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.stream.Stream;
 
 import com.google.common.flogger.backend.LoggerBackend;
 import com.google.common.flogger.backend.system.BackendFactory;
 import com.google.common.flogger.backend.system.StackBasedCallerFinder;
+import com.google.common.flogger.testing.FakeLogData;
 
 import org.fluentd.logger.Config;
 import org.fluentd.logger.FluentLogger;
@@ -79,6 +92,62 @@ class FluentdBackendFactoryTest {
     assertNotEquals(backendFactory.create(loggingClassName), backendFactory.create(stringProvider().findFirst().get()));
   }
 
+  @ParameterizedTest
+  @MethodSource("stringProvider")
+  void testCreateConcurrently(String loggingClassName) throws Exception {
+    int threads = 16;
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<LoggerBackend>> results = new ArrayList<>();
+      for (int i = 0; i < threads; i++) results.add(executor.submit(() -> {
+        start.await();
+        return backendFactory.create(loggingClassName);
+      }));
+      start.countDown();
+      LoggerBackend expected = backendFactory.create(loggingClassName);
+      for (Future<LoggerBackend> result : results) assertSame(result.get(), expected);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testCreateConcurrentlyOnce() throws Exception {
+    String previous = System.setProperty("flogger.level_disabler", CountingLevelDisabler.class.getName() + "#getInstance");
+    int threads = 16;
+    String loggingClassName = stringProvider().findFirst().get();
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<LoggerBackend>> results = new ArrayList<>();
+      for (int i = 0; i < threads; i++) results.add(executor.submit(() -> {
+        start.await();
+        return backendFactory.create(loggingClassName);
+      }));
+      start.countDown();
+      for (Future<LoggerBackend> result : results) result.get();
+      assertEquals(CountingLevelDisabler.CREATED.get(loggingClassName).get(), 1);
+    } finally {
+      executor.shutdown();
+      if (previous != null) System.setProperty("flogger.level_disabler", previous);
+      else System.clearProperty("flogger.level_disabler");
+    }
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testCreateSharesLogger() throws Exception {
+    System.setProperty(Config.FLUENT_SENDER_CLASS, RawSocketSender.class.getName());
+    String loggingClassName = stringProvider().findFirst().get();
+    LoggerBackend backend = backendFactory.create(loggingClassName + "$Inner");
+    LoggerBackend other = backendFactory.create(stringProvider().findFirst().get());
+    assertEquals(backend.getLoggerName(), loggingClassName + ".Inner");
+    Object logger = tryToReadFieldValue(backend.getClass().getDeclaredField("logger"), backend).get();
+    assertSame(tryToReadFieldValue(other.getClass().getDeclaredField("logger"), other).get(), logger);
+  }
+
   @Test
   @ResourceLock(SYSTEM_PROPERTIES)
   void testCreateWithRemoteSettings() throws Exception {
@@ -98,6 +167,41 @@ class FluentdBackendFactoryTest {
     assertEquals(tryToReadFieldValue(RawSocketSender.class.getDeclaredField("port"), logger.getSender()).get(), port);
   }
 
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testCreateWithNioSender() throws Exception {
+    System.clearProperty(Config.FLUENT_SENDER_CLASS);
+    LoggerBackend backend = backendFactory.create(stringProvider().findFirst().get());
+    FluentLogger logger = tryToReadFieldValue(backend.getClass().getDeclaredField("logger"), backend).andThenTry(x -> (FluentLogger) x).get();
+    assertTrue(logger.getSender() instanceof FluentdNioSender);
+    assertTrue(tryToReadFieldValue(backend.getClass().getDeclaredField("recordSender"), backend).get() instanceof FluentdNioSender);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testCreateWithPackedForward() throws Exception {
+    System.setProperty("flogger.remote_settings", "com.agsimeonov.flogger.backend.fluentd.SystemPropertiesRemoteSettings#getInstance");
+    System.setProperty("flogger.fluentd_packed_forward", "true");
+    LoggerBackend backend = backendFactory.create(stringProvider().findFirst().get());
+    FluentLogger logger = tryToReadFieldValue(backend.getClass().getDeclaredField("logger"), backend).andThenTry(x -> (FluentLogger) x).get();
+    assertTrue(logger.getSender() instanceof FluentdForwardSender);
+    System.clearProperty("flogger.fluentd_packed_forward");
+    System.clearProperty("flogger.remote_settings");
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testCreateReentrant() {
+    System.setProperty("flogger.remote_settings", LoggingRemoteSettings.class.getName() + "#getInstance");
+    try {
+      LoggerBackend backend = backendFactory.create(LoggingRemoteSettings.LOGGING_CLASS_NAME);
+      assertSame(backend, LoggingRemoteSettings.logged);
+      assertSame(backendFactory.create(LoggingRemoteSettings.LOGGING_CLASS_NAME), backend);
+    } finally {
+      System.clearProperty("flogger.remote_settings");
+    }
+  }
+
   @Test
   void testCreateWithLevelDisabler() throws Exception {
     LoggerBackend backend = backendFactory.create(stringProvider().findFirst().get());
@@ -106,7 +210,22 @@ class FluentdBackendFactoryTest {
     System.setProperty("flogger.level_disabler", "com.agsimeonov.flogger.backend.fluentd.SystemPropertiesLevelDisabler#getInstance");
     backend = backendFactory.create(stringProvider().findFirst().get());
     disabler = tryToReadFieldValue(backend.getClass().getDeclaredField("disabler"), backend).andThenTry(x -> (FluentdLevelDisabler) x).get();
-    assertEquals(disabler, SystemPropertiesLevelDisabler.getInstance());
+    assertEquals(disabler.getClass(), SystemPropertiesLevelDisabler.getInstance().forLoggerName("").getClass());
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testCreateWithAsyncSettings() throws Exception {
+    LoggerBackend backend = backendFactory.create(stringProvider().findFirst().get());
+    FluentdAsyncDispatcher dispatcher = tryToReadFieldValue(backend.getClass().getDeclaredField("dispatcher"), backend).andThenTry(x -> (FluentdAsyncDispatcher) x).get();
+    assertNull(dispatcher);
+    System.setProperty("flogger.async_settings", "com.agsimeonov.flogger.backend.fluentd.SystemPropertiesAsyncSettings#getInstance");
+    backend = backendFactory.create(stringProvider().findFirst().get());
+    dispatcher = tryToReadFieldValue(backend.getClass().getDeclaredField("dispatcher"), backend).andThenTry(x -> (FluentdAsyncDispatcher) x).get();
+    assertNotNull(dispatcher);
+    LoggerBackend other = backendFactory.create(stringProvider().findFirst().get());
+    assertEquals(tryToReadFieldValue(other.getClass().getDeclaredField("dispatcher"), other).get(), dispatcher);
+    System.clearProperty("flogger.async_settings");
   }
 
   @ParameterizedTest
@@ -117,6 +236,71 @@ class FluentdBackendFactoryTest {
     assertEquals(invokeMethod(method.get(), null, attributeName, type), SystemPropertiesCallerFinder.getInstance());
   }
 
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testResolveAttributeCached() {
+    Optional<Method> method = findMethod(FluentdBackendFactory.class, "resolveAttribute", String.class, Class.class);
+    assertTrue(method.isPresent());
+    System.setProperty("flogger.remote_settings", "com.agsimeonov.flogger.backend.fluentd.SystemPropertiesRemoteSettings#getInstance");
+    Object resolved = invokeMethod(method.get(), null, "remote_settings", FluentdRemoteSettings.class);
+    assertEquals(resolved, SystemPropertiesRemoteSettings.getInstance());
+    assertSame(invokeMethod(method.get(), null, "remote_settings", FluentdRemoteSettings.class), resolved);
+    System.clearProperty("flogger.remote_settings");
+    assertNull(invokeMethod(method.get(), null, "remote_settings", FluentdRemoteSettings.class));
+  }
+
+  /** Remote settings which log while they are first resolved, re-entering the backend factory. */
+  public static final class LoggingRemoteSettings implements FluentdRemoteSettings {
+
+    static final String LOGGING_CLASS_NAME = LoggingRemoteSettings.class.getName();
+    static final AtomicBoolean LOGGING = new AtomicBoolean();
+    static volatile LoggerBackend logged;
+
+    public static FluentdRemoteSettings getInstance() {
+      if (LOGGING.compareAndSet(false, true)) {
+        logged = backendFactory.create(LOGGING_CLASS_NAME);
+        logged.log(FakeLogData.of("Resolving remote settings"));
+      }
+      return new LoggingRemoteSettings();
+    }
+
+    @Override
+    public String getHost() {
+      return "localhost";
+    }
+
+    @Override
+    public int getPort() {
+      return 24224;
+    }
+  }
+
+  /** Level disabler counting the backends created per logger name, slowly to widen races. */
+  public static final class CountingLevelDisabler implements FluentdLevelDisabler {
+
+    static final ConcurrentMap<String, AtomicInteger> CREATED = new ConcurrentHashMap<>();
+
+    public static FluentdLevelDisabler getInstance() {
+      return new CountingLevelDisabler();
+    }
+
+    @Override
+    public boolean isLoggable(Level level) {
+      return true;
+    }
+
+    @Override
+    public FluentdLevelDisabler forLoggerName(String loggerName) {
+      CREATED.computeIfAbsent(loggerName, name -> new AtomicInteger()).incrementAndGet();
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException exception) {
+        Thread.currentThread().interrupt();
+      }
+      return this;
+    }
+  }
+
   static Stream<String> stringProvider() {
     String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
     int length = 30;
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.jupiter.api.Test;
+
+class FluentdConnectionTest {
+
+  @Test
+  void testConnect() throws IOException {
+    try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      FluentdConnection connection = FluentdConnection.connect("localhost", server.getLocalPort(), 3000);
+      try (Socket accepted = server.accept()) {
+        assertTrue(connection.isOpen());
+        connection.getOutputStream().write(new byte[] {1, 2, 3});
+        InputStream in = accepted.getInputStream();
+        assertEquals(in.read(), 1);
+        assertEquals(in.read(), 2);
+        assertEquals(in.read(), 3);
+        OutputStream out = accepted.getOutputStream();
+        out.write(4);
+        assertEquals(connection.getInputStream().read(), 4);
+      }
+      connection.close();
+      assertFalse(connection.isOpen());
+    }
+  }
+
+  @Test
+  void testConnectUnixUnsupported() {
+    if (FluentdUnixSockets.isSupported()) return;
+    assertThrows(IOException.class, () -> FluentdConnection.connect("/tmp/fluentd.sock"));
+  }
+}
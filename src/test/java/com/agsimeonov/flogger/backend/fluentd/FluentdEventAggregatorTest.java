@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import com.google.common.flogger.backend.LoggerBackend;
+import com.google.common.flogger.testing.FakeLogData;
+
+import org.fluentd.logger.FluentLogger;
+import org.junit.jupiter.api.Test;
+
+class FluentdEventAggregatorTest {
+
+  private static final long WINDOW = TimeUnit.HOURS.toNanos(1);
+
+  @Test
+  void testAggregate() {
+    AtomicLong now = new AtomicLong();
+    FluentdEventAggregator aggregator = new FluentdEventAggregator(WINDOW, now::get);
+    FluentdAsyncDispatcherTest.BlockingSender sender = new FluentdAsyncDispatcherTest.BlockingSender(0);
+    LoggerBackend backend = new FluentdLoggerBackend(new FluentLogger("", sender) {}, "aggregated", null, null, null, aggregator);
+    for (int i = 1; i <= 5; i++) backend.log(FakeLogData.of("Retrying").setLevel(Level.WARNING).setTimestampNanos(i));
+    backend.log(FakeLogData.of("Retrying").setLevel(Level.INFO).setTimestampNanos(6));
+    backend.log(FakeLogData.of("Giving up").setLevel(Level.WARNING).setTimestampNanos(7));
+    assertEquals(sender.records.size(), 3);
+    assertEquals(sender.records.get(0).get("timestampNanos"), 1L);
+    assertFalse(sender.records.get(0).containsKey("count"));
+    aggregator.sweep();
+    assertEquals(sender.records.size(), 3);
+    now.set(WINDOW);
+    aggregator.sweep();
+    assertEquals(sender.records.size(), 4);
+    assertEquals(sender.tags.get(3), "aggregated.WARNING");
+    assertEquals(sender.records.get(3).get("message"), "Retrying");
+    assertEquals(sender.records.get(3).get("count"), 4L);
+    assertEquals(sender.records.get(3).get("firstTimestampNanos"), 2L);
+    assertEquals(sender.records.get(3).get("lastTimestampNanos"), 5L);
+    assertEquals(sender.records.get(3).get("timestampNanos"), 1L);
+    backend.log(FakeLogData.of("Retrying").setLevel(Level.WARNING).setTimestampNanos(8));
+    assertEquals(sender.records.size(), 5);
+    aggregator.close();
+    assertEquals(sender.records.size(), 5);
+  }
+
+  @Test
+  void testAggregateOnNextWindow() {
+    AtomicLong now = new AtomicLong();
+    FluentdEventAggregator aggregator = new FluentdEventAggregator(WINDOW, now::get);
+    FluentdAsyncDispatcherTest.BlockingSender sender = new FluentdAsyncDispatcherTest.BlockingSender(0);
+    LoggerBackend backend = new FluentdLoggerBackend(new FluentLogger("", sender) {}, "aggregated", null, null, null, aggregator);
+    backend.log(FakeLogData.of("Retrying").setTimestampNanos(1));
+    backend.log(FakeLogData.of("Retrying").setTimestampNanos(2));
+    now.set(WINDOW);
+    backend.log(FakeLogData.of("Retrying").setTimestampNanos(3));
+    assertEquals(sender.records.size(), 3);
+    assertEquals(sender.records.get(1).get("count"), 1L);
+    assertEquals(sender.records.get(2).get("timestampNanos"), 3L);
+    backend.log(FakeLogData.of("Retrying").setTimestampNanos(4));
+    aggregator.flush();
+    assertEquals(sender.records.size(), 4);
+    assertEquals(sender.records.get(3).get("count"), 1L);
+    aggregator.close();
+  }
+
+  @Test
+  void testAggregateEncoded() throws Exception {
+    AtomicLong now = new AtomicLong();
+    FluentdEventAggregator aggregator = new FluentdEventAggregator(WINDOW, now::get);
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdForwardSender sender = new FluentdForwardSender(FluentdForwardSenderTest.settings(server.getPort(), Integer.MAX_VALUE, Integer.MAX_VALUE, 60000));
+      LoggerBackend backend = new FluentdLoggerBackend(new FluentLogger("", sender) {}, "aggregated", null, null, null, aggregator);
+      for (int i = 1; i <= 3; i++) backend.log(FakeLogData.withPrintfStyle("Hello %s", "Foo").setTimestampNanos(TimeUnit.SECONDS.toNanos(i)));
+      aggregator.close();
+      sender.flush();
+      assertTrue(server.awaitEvents(2, 5000));
+      assertEquals(server.events.size(), 2);
+      FluentdForwardServer.Event event = server.events.get(1);
+      assertEquals(event.tag, "aggregated.INFO");
+      assertEquals(event.time, 3);
+      assertEquals(event.record.get("message"), "Hello Foo");
+      assertEquals(event.record.get("className"), "com.google.FakeClass");
+      assertEquals(event.record.get("count"), 2L);
+      assertEquals(event.record.get("firstTimestampNanos"), TimeUnit.SECONDS.toNanos(2));
+      assertEquals(event.record.get("lastTimestampNanos"), TimeUnit.SECONDS.toNanos(3));
+      assertEquals(event.record.get("timestampNanos"), TimeUnit.SECONDS.toNanos(1));
+      sender.close();
+    }
+  }
+}
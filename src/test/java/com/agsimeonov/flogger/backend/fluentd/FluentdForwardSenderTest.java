@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FluentdForwardSenderTest {
+
+  @Test
+  void testBatchEntries() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdForwardSender sender = new FluentdForwardSender(settings(server.getPort(), Integer.MAX_VALUE, 3, 60000));
+      for (int i = 0; i < 6; i++) assertTrue(sender.emit("tag", i, Collections.singletonMap("index", i)));
+      assertTrue(server.awaitEvents(6, 5000));
+      assertEquals(server.frames.size(), 2);
+      for (List<Object> frame : server.frames) {
+        assertEquals(frame.get(0), "tag");
+        assertTrue(frame.get(1) instanceof byte[]);
+        assertEquals(frame.get(2), Collections.singletonMap("size", 3L));
+      }
+      for (int i = 0; i < 6; i++) {
+        assertEquals(server.events.get(i).time, i);
+        assertEquals(server.events.get(i).record, Collections.singletonMap("index", (long) i));
+      }
+      sender.close();
+    }
+  }
+
+  @Test
+  void testBatchSize() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdForwardSender sender = new FluentdForwardSender(settings(server.getPort(), 1, Integer.MAX_VALUE, 60000));
+      assertTrue(sender.emit("tag", 0, Collections.singletonMap("index", 0)));
+      assertTrue(sender.emit("tag", 1, Collections.singletonMap("index", 1)));
+      assertTrue(server.awaitEvents(2, 5000));
+      assertEquals(server.frames.size(), 2);
+      sender.close();
+    }
+  }
+
+  @Test
+  void testBatchLinger() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdForwardSender sender = new FluentdForwardSender(settings(server.getPort(), Integer.MAX_VALUE, Integer.MAX_VALUE, 10));
+      assertTrue(sender.emit("tag", 0, Collections.emptyMap()));
+      assertTrue(server.awaitEvents(1, 5000));
+      sender.close();
+    }
+  }
+
+  @Test
+  void testBatchPerTag() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdForwardSender sender = new FluentdForwardSender(settings(server.getPort(), Integer.MAX_VALUE, Integer.MAX_VALUE, 60000));
+      assertTrue(sender.emit("first", 0, Collections.emptyMap()));
+      assertTrue(sender.emit("second", 0, Collections.emptyMap()));
+      assertTrue(sender.emit("first", 0, Collections.emptyMap()));
+      sender.flush();
+      assertTrue(server.awaitEvents(3, 5000));
+      assertEquals(server.frames.size(), 2);
+      Map<String, Long> sizes = Collections.singletonMap("size", 2L);
+      assertTrue(server.frames.stream().anyMatch(frame -> frame.get(0).equals("first") && frame.get(2).equals(sizes)));
+      sender.close();
+    }
+  }
+
+  @Test
+  void testCompressed() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdForwardSender sender = new FluentdForwardSender(settings(server.getPort(), Integer.MAX_VALUE, Integer.MAX_VALUE, 60000, true, 64));
+      assertTrue(sender.emit("small", 0, Collections.singletonMap("index", 0)));
+      sender.flush();
+      for (int i = 0; i < 100; i++) assertTrue(sender.emit("large", i, Collections.singletonMap("className", "com.example.Example")));
+      sender.flush();
+      assertTrue(server.awaitEvents(101, 5000));
+      assertEquals(server.frames.get(0).get(2), Collections.singletonMap("size", 1L));
+      Map<String, Object> option = new HashMap<>();
+      option.put("size", 100L);
+      option.put("compressed", "gzip");
+      assertEquals(server.frames.get(1).get(2), option);
+      assertTrue(((byte[]) server.frames.get(1).get(1)).length < 100 * 20 / 4);
+      for (int i = 0; i < 100; i++) {
+        assertEquals(server.events.get(i + 1).time, i);
+        assertEquals(server.events.get(i + 1).record, Collections.singletonMap("className", "com.example.Example"));
+      }
+      sender.close();
+    }
+  }
+
+  @Test
+  void testClose() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdForwardSender sender = new FluentdForwardSender(settings(server.getPort(), Integer.MAX_VALUE, Integer.MAX_VALUE, 60000, true, 0));
+      assertTrue(sender.emit("tag", 0, Collections.singletonMap("index", 0)));
+      sender.close();
+      assertTrue(server.awaitEvents(1, 5000));
+      assertFalse(sender.emit("tag", 1, Collections.singletonMap("index", 1)));
+      sender.close();
+    }
+  }
+
+  @Test
+  void testUnreachable() throws Exception {
+    try (Socket reserved = reservePort()) {
+      FluentdForwardSender sender = new FluentdForwardSender(settings(reserved.getLocalPort(), Integer.MAX_VALUE, 1, 60000));
+      assertTrue(sender.emit("tag", 0, Collections.emptyMap()));
+      assertFalse(sender.isConnected());
+      sender.close();
+    }
+  }
+
+  @Test
+  void testStall() throws Exception {
+    char[] chars = new char[1024];
+    Arrays.fill(chars, 'x');
+    Map<String, Object> record = Collections.singletonMap("message", new String(chars));
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      server.stalled = true;
+      FluentdForwardSender sender = new FluentdForwardSender(settings(server.getPort(), Integer.MAX_VALUE, 1, 60000));
+      int accepted = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+        int emitted = 0;
+        while (sender.emit("tag", emitted, record)) emitted++;
+        return emitted;
+      });
+      server.stalled = false;
+      assertTrue(server.awaitEvents(accepted, 10000));
+      for (int i = 0; i < accepted; i++) assertEquals(server.events.get(i).time, i);
+      sender.close();
+    }
+  }
+
+  @Test
+  void testSpill(@TempDir Path directory) throws Exception {
+    int port;
+    FluentdForwardSender sender;
+    try (Socket reserved = reservePort()) {
+      port = reserved.getLocalPort();
+      sender = new FluentdForwardSender(settings(port, Integer.MAX_VALUE, 1, 60000, directory));
+      for (int i = 0; i < 10; i++) assertTrue(sender.emit("tag", i, Collections.singletonMap("index", i)));
+      sender.flush();
+      assertFalse(sender.isConnected());
+      assertEquals(FluentdSpillStoreTest.segments(directory), 1);
+    }
+    try (FluentdForwardServer server = new FluentdForwardServer(port)) {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (server.events.size() < 10 && System.currentTimeMillis() < deadline) {
+        sender.flush();
+        Thread.sleep(50);
+      }
+      assertTrue(server.awaitEvents(10, 0));
+      for (int i = 0; i < 10; i++) assertEquals(server.events.get(i).record, Collections.singletonMap("index", (long) i));
+      assertTrue(sender.emit("tag", 10, Collections.singletonMap("index", 10)));
+      assertTrue(server.awaitEvents(11, 5000));
+      sender.close();
+    }
+    assertEquals(FluentdSpillStoreTest.segments(directory), 0);
+  }
+
+  @Test
+  void testAcked() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdForwardSender sender = new FluentdForwardSender(acked(server.getPort(), 2, 60000));
+      for (int i = 0; i < 6; i++) assertTrue(sender.emit("tag", i, Collections.singletonMap("index", i)));
+      sender.close();
+      assertTrue(server.awaitEvents(6, 5000));
+      assertEquals(server.chunks.size(), 6);
+      assertEquals(new HashSet<>(server.chunks).size(), 6);
+      for (String chunk : server.chunks) assertEquals(Base64.getDecoder().decode(chunk).length, 16);
+      for (int i = 0; i < 6; i++) assertEquals(server.events.get(i).record, Collections.singletonMap("index", (long) i));
+    }
+  }
+
+  @Test
+  void testAckedRetransmit() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      server.acking = false;
+      FluentdForwardSender sender = new FluentdForwardSender(acked(server.getPort(), 2, 100));
+      for (int i = 0; i < 4; i++) assertTrue(sender.emit("tag", i, Collections.singletonMap("index", i)));
+      assertTrue(server.awaitEvents(2, 5000));
+      Thread.sleep(300);
+      assertEquals(server.events.size(), 2);
+      assertTrue(server.chunks.size() > 2);
+      server.acking = true;
+      long deadline = System.currentTimeMillis() + 5000;
+      while (server.events.size() < 4 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+      sender.close();
+      assertEquals(server.events.size(), 4);
+      for (int i = 0; i < 4; i++) assertEquals(server.events.get(i).record, Collections.singletonMap("index", (long) i));
+    }
+  }
+
+  @Test
+  void testAckedDisconnect() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      server.disconnectAfter = 3;
+      FluentdForwardSender sender = new FluentdForwardSender(acked(server.getPort(), 2, 100));
+      for (int i = 0; i < 10; i++) assertTrue(sender.emit("tag", i, Collections.singletonMap("index", i)));
+      long deadline = System.currentTimeMillis() + 10000;
+      while (server.events.size() < 10 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+      sender.close();
+      assertEquals(server.events.size(), 10);
+      assertTrue(server.getConnections() > 1);
+      Set<Object> records = new HashSet<>();
+      for (FluentdForwardServer.Event event : server.events) records.add(event.record.get("index"));
+      for (long i = 0; i < 10; i++) assertTrue(records.contains(i));
+    }
+  }
+
+  static FluentdRemoteSettings acked(int port, int ackWindow, long ackTimeout) {
+    FluentdRemoteSettings settings = settings(port, Integer.MAX_VALUE, 1, 10);
+    return new FluentdRemoteSettings() {
+      @Override
+      public String getHost() {
+        return settings.getHost();
+      }
+
+      @Override
+      public int getPort() {
+        return port;
+      }
+
+      @Override
+      public int getBatchEntries() {
+        return 1;
+      }
+
+      @Override
+      public long getBatchLinger() {
+        return 10;
+      }
+
+      @Override
+      public boolean isAcked() {
+        return true;
+      }
+
+      @Override
+      public int getAckWindow() {
+        return ackWindow;
+      }
+
+      @Override
+      public long getAckTimeout() {
+        return ackTimeout;
+      }
+    };
+  }
+
+  /**
+   * Reserves a port without listening on it, so that connections to it are refused and no other
+   * socket binds it until the reservation is closed.
+   */
+  static Socket reservePort() throws IOException {
+    Socket socket = new Socket();
+    socket.setReuseAddress(false);
+    socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    return socket;
+  }
+
+  static FluentdRemoteSettings settings(int port, int batchSize, int batchEntries, long batchLinger) {
+    return settings(port, batchSize, batchEntries, batchLinger, false, 0);
+  }
+
+  static FluentdRemoteSettings settings(int port, int batchSize, int batchEntries, long batchLinger, Path spillDirectory) {
+    FluentdRemoteSettings settings = settings(port, batchSize, batchEntries, batchLinger);
+    return new FluentdRemoteSettings() {
+      @Override
+      public String getHost() {
+        return settings.getHost();
+      }
+
+      @Override
+      public int getPort() {
+        return port;
+      }
+
+      @Override
+      public int getBatchEntries() {
+        return batchEntries;
+      }
+
+      @Override
+      public long getBatchLinger() {
+        return batchLinger;
+      }
+
+      @Override
+      public String getSpillDirectory() {
+        return spillDirectory.toString();
+      }
+
+      @Override
+      public int getSpillSegmentSize() {
+        return 4096;
+      }
+    };
+  }
+
+  static FluentdRemoteSettings settings(int port, int batchSize, int batchEntries, long batchLinger, boolean compressed, int compressionThreshold) {
+    return new FluentdRemoteSettings() {
+      @Override
+      public String getHost() {
+        return "localhost";
+      }
+
+      @Override
+      public int getPort() {
+        return port;
+      }
+
+      @Override
+      public boolean isPackedForward() {
+        return true;
+      }
+
+      @Override
+      public int getBatchSize() {
+        return batchSize;
+      }
+
+      @Override
+      public int getBatchEntries() {
+        return batchEntries;
+      }
+
+      @Override
+      public long getBatchLinger() {
+        return batchLinger;
+      }
+
+      @Override
+      public boolean isCompressed() {
+        return compressed;
+      }
+
+      @Override
+      public int getCompressionThreshold() {
+        return compressionThreshold;
+      }
+    };
+  }
+}
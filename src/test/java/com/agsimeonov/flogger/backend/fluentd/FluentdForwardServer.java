@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import org.msgpack.MessagePack;
+import org.msgpack.type.Value;
+import org.msgpack.unpacker.Unpacker;
+
+/**
+ * An in-process stand-in for a Fluentd Forward protocol input used to test senders.
+ *
+ * <p>Frames carrying a {@code chunk} option are acknowledged unless acks are turned off, and their
+ * events are received only once per chunk id as Fluentd would.
+ *
+ * <p>Faults can be injected to exercise senders against a misbehaving destination: a latency
+ * delaying every frame along with its ack, a stall leaving data unread so the socket buffers fill
+ * up and senders see backpressure, and disconnects either on demand or after a number of frames per
+ * connection, dropping the ack of the last frame.
+ *
+ * <p>Received frames and events are kept for inspection unless recording is turned off for long
+ * runs, events are then only counted and handed to the listener.
+ */
+class FluentdForwardServer implements Closeable {
+
+  static final MessagePack MESSAGE_PACK = new MessagePack();
+
+  final List<Event> events = new CopyOnWriteArrayList<>();
+  final List<List<Object>> frames = new CopyOnWriteArrayList<>();
+  final List<String> chunks = new CopyOnWriteArrayList<>();
+
+  volatile boolean acking = true;
+  volatile boolean recording = true;
+  volatile Consumer<Event> listener;
+  volatile long latency;
+  volatile boolean stalled;
+  volatile int disconnectAfter;
+
+  private final ServerSocket serverSocket;
+  private final Thread acceptor;
+  private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+  private final Set<Object> receivedChunks = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger accepted = new AtomicInteger();
+  private final AtomicInteger receivedEvents = new AtomicInteger();
+
+  FluentdForwardServer() throws IOException {
+    this(0);
+  }
+
+  FluentdForwardServer(int port) throws IOException {
+    serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    acceptor = new Thread(this::accept, "fluentd-forward-server");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Acquires the number of events received so far, whether recorded or not.
+   *
+   * @return the number of received events.
+   */
+  int getEvents() {
+    return receivedEvents.get();
+  }
+
+  /**
+   * Acquires the number of connections accepted so far, including closed ones.
+   *
+   * @return the number of accepted connections.
+   */
+  int getConnections() {
+    return accepted.get();
+  }
+
+  /** Closes every open connection while still accepting new ones. */
+  void disconnect() {
+    for (Socket connection : connections) {
+      try {
+        connection.close();
+      } catch (IOException exception) {
+        continue;
+      }
+    }
+  }
+
+  /** Waits until the given number of events were received or the timeout elapses. */
+  boolean awaitEvents(int count, long timeoutMillis) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (receivedEvents.get() < count) {
+      if (System.nanoTime() > deadline) return false;
+      Thread.sleep(5);
+    }
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    disconnect();
+  }
+
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        connections.add(socket);
+        accepted.incrementAndGet();
+        Thread reader = new Thread(() -> read(socket), "fluentd-forward-connection");
+        reader.setDaemon(true);
+        reader.start();
+      } catch (IOException exception) {
+        return;
+      }
+    }
+  }
+
+  private void read(Socket socket) {
+    try (Socket connection = socket) {
+      Unpacker unpacker = MESSAGE_PACK.createUnpacker(new BufferedInputStream(connection.getInputStream()));
+      OutputStream out = connection.getOutputStream();
+      for (int frames = 1;; frames++) {
+        while (stalled) Thread.sleep(5);
+        List<Object> frame = new ArrayList<>();
+        for (Value value : unpacker.readValue().asArrayValue()) {
+          frame.add(frame.size() == 1 && value.isRawValue() ? value.asRawValue().getByteArray() : toObject(value));
+        }
+        if (latency > 0) Thread.sleep(latency);
+        if (recording) this.frames.add(frame);
+        int options = frame.get(1) instanceof Long ? 3 : 2;
+        Object chunk = frame.size() > options && frame.get(options) instanceof Map ? ((Map<?, ?>) frame.get(options)).get("chunk") : null;
+        if (chunk == null || receivedChunks.add(chunk)) receive(frame);
+        if (chunk != null && recording) chunks.add((String) chunk);
+        if (disconnectAfter > 0 && frames >= disconnectAfter) return;
+        if (chunk != null && acking) {
+          MESSAGE_PACK.write(out, Collections.singletonMap("ack", chunk));
+          out.flush();
+        }
+      }
+    } catch (EOFException exception) {
+      return;
+    } catch (IOException exception) {
+      return;
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    } finally {
+      connections.remove(socket);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void receive(List<Object> frame) throws IOException {
+    String tag = (String) frame.get(0);
+    Object entries = frame.get(1);
+    if (entries instanceof Long) {
+      receive(new Event(tag, (Long) entries, (Map<String, Object>) frame.get(2)));
+    } else if (entries instanceof List) {
+      for (Object entry : (List<Object>) entries) {
+        List<Object> event = (List<Object>) entry;
+        receive(new Event(tag, (Long) event.get(0), (Map<String, Object>) event.get(1)));
+      }
+    } else {
+      byte[] bytes = (byte[]) entries;
+      Map<String, Object> option = frame.size() > 2 ? (Map<String, Object>) frame.get(2) : null;
+      if (option != null && "gzip".equals(option.get("compressed"))) bytes = gunzip(bytes);
+      for (Value value : MESSAGE_PACK.createBufferUnpacker(bytes)) {
+        List<Object> event = (List<Object>) toObject(value);
+        receive(new Event(tag, (Long) event.get(0), (Map<String, Object>) event.get(1)));
+      }
+    }
+  }
+
+  private void receive(Event event) {
+    if (recording) events.add(event);
+    Consumer<Event> listener = this.listener;
+    if (listener != null) listener.accept(event);
+    receivedEvents.incrementAndGet();
+  }
+
+  private static byte[] gunzip(byte[] bytes) throws IOException {
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] chunk = new byte[4096];
+      for (int read; (read = in.read(chunk)) > 0;) out.write(chunk, 0, read);
+      return out.toByteArray();
+    }
+  }
+
+  /** Converts a MessagePack value into plain Java objects, raw values are converted to strings. */
+  static Object toObject(Value value) {
+    if (value.isNilValue()) return null;
+    if (value.isBooleanValue()) return value.asBooleanValue().getBoolean();
+    if (value.isIntegerValue()) return value.asIntegerValue().getLong();
+    if (value.isFloatValue()) return value.asFloatValue().getDouble();
+    if (value.isRawValue()) return value.asRawValue().getString();
+    if (value.isArrayValue()) {
+      List<Object> result = new ArrayList<>();
+      for (Value element : value.asArrayValue()) result.add(toObject(element));
+      return result;
+    }
+    Map<Object, Object> result = new LinkedHashMap<>();
+    for (Map.Entry<Value, Value> entry : value.asMapValue().entrySet()) result.put(toObject(entry.getKey()), toObject(entry.getValue()));
+    return result;
+  }
+
+  /** An event received by the server. */
+  static class Event {
+
+    final String tag;
+    final long time;
+    final Map<String, Object> record;
+    final long received = System.nanoTime();
+
+    Event(String tag, long time, Map<String, Object> record) {
+      this.tag = tag;
+      this.time = time;
+      this.record = record;
+    }
+  }
+}
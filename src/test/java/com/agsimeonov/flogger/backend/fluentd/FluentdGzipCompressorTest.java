@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class FluentdGzipCompressorTest {
+
+  @ParameterizedTest
+  @ValueSource(ints = {-1, 0, 1, 9})
+  void testCompress(int level) throws IOException {
+    FluentdMessagePacker source = new FluentdMessagePacker();
+    for (int i = 0; i < 1000; i++) source.packString("className").packString("com.example.Example").packLong(i);
+    FluentdMessagePacker target = new FluentdMessagePacker(16);
+    FluentdGzipCompressor compressor = new FluentdGzipCompressor(level);
+    for (int i = 0; i < 2; i++) {
+      target.reset();
+      compressor.compress(source, target);
+      assertArrayEquals(gunzip(target.toByteArray()), source.toByteArray());
+    }
+    if (level != 0) assertTrue(target.size() < source.size() / 4);
+  }
+
+  @Test
+  void testClose() {
+    FluentdMessagePacker source = new FluentdMessagePacker().packString("closed");
+    FluentdGzipCompressor compressor = new FluentdGzipCompressor(-1);
+    compressor.close();
+    assertThrows(NullPointerException.class, () -> compressor.compress(source, new FluentdMessagePacker()));
+  }
+
+  static byte[] gunzip(byte[] bytes) throws IOException {
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] chunk = new byte[4096];
+      for (int read; (read = in.read(chunk)) > 0;) out.write(chunk, 0, read);
+      return out.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class FluentdKeyCacheTest {
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", "label", "\u00e9t\u00e9", "0123456789012345678901234567890123456789"})
+  void testWrite(String key) throws IOException {
+    FluentdKeyCache cache = new FluentdKeyCache(16);
+    for (int i = 0; i < 2; i++) {
+      FluentdMessagePacker packer = new FluentdMessagePacker();
+      assertSame(cache.write(key, packer), packer);
+      assertArrayEquals(packer.toByteArray(), new FluentdMessagePacker().packString(key).toByteArray());
+      assertEquals(FluentdMessagePackerTest.unpack(packer), key);
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 1})
+  void testWriteFull(int capacity) throws IOException {
+    FluentdKeyCache cache = new FluentdKeyCache(capacity);
+    FluentdMessagePacker packer = new FluentdMessagePacker();
+    cache.write("first", packer).packNil();
+    cache.write("second", packer).packNil();
+    cache.write("second", packer).packNil();
+    FluentdMessagePacker expected = new FluentdMessagePacker();
+    expected.packString("first").packNil().packString("second").packNil().packString("second").packNil();
+    assertArrayEquals(packer.toByteArray(), expected.toByteArray());
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class FluentdLatencyHistogramTest {
+
+  @ParameterizedTest
+  @ValueSource(longs = {0, 1, 15, 16, 17, 100, 1000, 123456, 1L << 40, Long.MAX_VALUE})
+  void testBucket(long value) {
+    long highest = FluentdLatencyHistogram.highest(FluentdLatencyHistogram.bucket(value));
+    assertTrue(highest >= value);
+    assertTrue(highest - value <= value / 8);
+  }
+
+  @Test
+  void testBucketOrder() {
+    for (long value = 1; value < 1 << 20; value++) {
+      assertTrue(FluentdLatencyHistogram.bucket(value) >= FluentdLatencyHistogram.bucket(value - 1));
+    }
+  }
+
+  @Test
+  void testSnapshot() {
+    FluentdLatencyHistogram histogram = new FluentdLatencyHistogram();
+    for (long i = 1; i <= 1000; i++) histogram.record(i * 1000);
+    FluentdMetrics.Latency latency = histogram.snapshot();
+    assertEquals(latency.getCount(), 1000);
+    assertEquals(latency.getMean(), 500500);
+    assertEquals(latency.getMax(), 1000000);
+    assertTrue(latency.getP50() >= 500000 && latency.getP50() <= 500000 * 9 / 8);
+    assertTrue(latency.getP99() >= 990000 && latency.getP99() <= 1000000);
+    assertTrue(latency.getP999() <= latency.getMax());
+  }
+
+  @Test
+  void testReset() {
+    FluentdLatencyHistogram histogram = new FluentdLatencyHistogram();
+    histogram.record(42);
+    histogram.record(-1);
+    assertEquals(histogram.snapshot().getCount(), 2);
+    histogram.reset();
+    FluentdMetrics.Latency latency = histogram.snapshot();
+    assertEquals(latency.getCount(), 0);
+    assertEquals(latency.getP50(), 0);
+    assertEquals(latency.getMax(), 0);
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.platform.commons.support.ReflectionSupport.newInstance;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import com.google.common.flogger.MetadataKey;
+import com.google.common.flogger.backend.LoggerBackend;
+import com.google.common.flogger.testing.FakeLogData;
+
+import org.fluentd.logger.Config;
+
+/**
+ * A multi-threaded load generator driving backends created by {@link FluentdBackendFactory} against
+ * a {@link FluentdForwardServer}, reporting the sustained throughput along with the latency of the
+ * log calls and of the delivery from log call to receipt.
+ *
+ * <p>Backends are created from system properties pointing the remote settings at the server, so the
+ * sender and its options are chosen the way they are in production. When a rate is given log calls
+ * are paced and their latency is measured from their intended start, so a stalled sender is not
+ * hidden by the calls it held back. Log statements refused by the sender or the asynchronous
+ * dispatcher are told apart from those lost on the way by the {@link FluentdMetrics} of the tags of
+ * the run.
+ */
+final class FluentdLoadGenerator {
+
+  static final MetadataKey<Long> NANOS = MetadataKey.single("nanos", Long.class);
+
+  private static final AtomicInteger RUNS = new AtomicInteger();
+
+  private final FluentdForwardServer server;
+  private final Map<String, String> properties;
+  private final int threads;
+  private final int loggers;
+  private final long rate;
+
+  /**
+   * A load generator sending to a server.
+   *
+   * @param server the server receiving the log statements.
+   * @param properties additional system properties the backends are created with, such as the
+   *     remote settings choosing PackedForward or acks.
+   * @param threads the number of logging threads.
+   * @param loggers the number of logging classes, and thus backends and tags, logged to in turn.
+   * @param rate the log statements per second of each thread, or 0 to log as fast as possible.
+   */
+  FluentdLoadGenerator(FluentdForwardServer server, Map<String, String> properties, int threads, int loggers, long rate) {
+    this.server = server;
+    this.properties = properties;
+    this.threads = threads;
+    this.loggers = loggers;
+    this.rate = rate;
+  }
+
+  /**
+   * Logs from every thread for a duration and then waits for the server to receive everything.
+   *
+   * @param durationMillis the duration of logging in milliseconds.
+   * @param drainMillis the time to wait for the server to receive everything in milliseconds.
+   * @return the report of the run.
+   * @throws InterruptedException if interrupted while waiting for the logging threads or the server.
+   */
+  Report run(long durationMillis, long drainMillis) throws InterruptedException {
+    FluentdBackendFactory factory = newInstance(FluentdBackendFactory.class);
+    String prefix = FluentdLoadGenerator.class.getName() + "$Run" + RUNS.incrementAndGet() + "$Logger";
+    LoggerBackend[] backends = createBackends(factory, prefix);
+    FluentdLatencyHistogram calls = new FluentdLatencyHistogram();
+    FluentdLatencyHistogram delivery = new FluentdLatencyHistogram();
+    LongAdder sent = new LongAdder();
+    int offset = server.getEvents();
+    long start = System.nanoTime();
+    AtomicLong last = new AtomicLong(start);
+    server.listener = event -> {
+      Object nanos = event.record.get(NANOS.getLabel());
+      if (nanos instanceof Long) delivery.record(event.received - (Long) nanos);
+      last.accumulateAndGet(event.received, Math::max);
+    };
+    long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      int thread = i;
+      workers[i] = new Thread(() -> generate(backends, thread, start, end, calls, sent), "fluentd-load-generator-" + i);
+      workers[i].start();
+    }
+    for (Thread worker : workers) worker.join();
+    factory.flush();
+    server.awaitEvents(offset + (int) sent.sum(), drainMillis);
+    factory.close();
+    server.listener = null;
+    long refused = 0;
+    for (Map.Entry<String, FluentdMetrics.Counts> entry : FluentdMetrics.getInstance().getTags().entrySet()) {
+      if (entry.getKey().startsWith(prefix.replace('$', '.'))) refused += entry.getValue().getDropped() + entry.getValue().getFailed();
+    }
+    return new Report(sent.sum(), refused, server.getEvents() - offset, last.get() - start, calls.snapshot(), delivery.snapshot());
+  }
+
+  /**
+   * Creates one backend per logging class with the remote settings pointed at the server, restoring
+   * the system properties afterwards.
+   */
+  private LoggerBackend[] createBackends(FluentdBackendFactory factory, String prefix) {
+    Map<String, String> overrides = new HashMap<>(properties);
+    overrides.put("flogger.remote_settings", SystemPropertiesRemoteSettings.class.getName() + "#getInstance");
+    overrides.put(SystemPropertiesRemoteSettings.FLUENTD_HOST, "localhost");
+    overrides.put(SystemPropertiesRemoteSettings.FLUENTD_PORT, Integer.toString(server.getPort()));
+    overrides.put(Config.FLUENT_SENDER_CLASS, null);
+    Map<String, String> previous = new HashMap<>();
+    for (Map.Entry<String, String> entry : overrides.entrySet()) previous.put(entry.getKey(), set(entry.getKey(), entry.getValue()));
+    try {
+      LoggerBackend[] result = new LoggerBackend[loggers];
+      for (int i = 0; i < loggers; i++) result[i] = factory.create(prefix + i);
+      return result;
+    } finally {
+      for (Map.Entry<String, String> entry : previous.entrySet()) set(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private static String set(String key, String value) {
+    return value != null ? System.setProperty(key, value) : System.clearProperty(key);
+  }
+
+  /** Logs from a single thread until the end of the run, cycling through the backends. */
+  private void generate(LoggerBackend[] backends, int thread, long start, long end, FluentdLatencyHistogram calls, LongAdder sent) {
+    long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+    long next = start;
+    for (long i = 0;; i++) {
+      for (long now = System.nanoTime(); now < next; now = System.nanoTime()) LockSupport.parkNanos(next - now);
+      long intended = interval > 0 ? next : System.nanoTime();
+      if (intended >= end) return;
+      backends[(int) ((thread + i) % backends.length)].log(FakeLogData.withPrintfStyle("Load %d of thread %d", i, thread)
+                                                                     .setLevel(Level.INFO)
+                                                                     .setTimestampNanos(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()))
+                                                                     .addMetadata(NANOS, intended));
+      calls.record(System.nanoTime() - intended);
+      sent.increment();
+      next += interval;
+    }
+  }
+
+  /**
+   * Runs the load generator against a server with optional faults, for longer runs than the tests.
+   *
+   * @param args the number of threads, loggers, the rate per thread, the duration in milliseconds
+   *     and the latency the server injects per frame in milliseconds, each optional.
+   * @throws Exception if the server cannot be started.
+   */
+  public static void main(String[] args) throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      server.recording = false;
+      server.latency = args.length > 4 ? Long.parseLong(args[4]) : 0;
+      FluentdLoadGenerator generator = new FluentdLoadGenerator(server,
+                                                                Collections.emptyMap(),
+                                                                args.length > 0 ? Integer.parseInt(args[0]) : 4,
+                                                                args.length > 1 ? Integer.parseInt(args[1]) : 16,
+                                                                args.length > 2 ? Long.parseLong(args[2]) : 0);
+      System.out.println(generator.run(args.length > 3 ? Long.parseLong(args[3]) : 10000, 30000));
+    }
+  }
+
+  /** The outcome of a run, latencies in nanoseconds. */
+  static final class Report {
+
+    final long sent;
+    final long refused;
+    final long received;
+    final long elapsedNanos;
+    final FluentdMetrics.Latency calls;
+    final FluentdMetrics.Latency delivery;
+
+    Report(long sent, long refused, long received, long elapsedNanos, FluentdMetrics.Latency calls, FluentdMetrics.Latency delivery) {
+      this.sent = sent;
+      this.refused = refused;
+      this.received = received;
+      this.elapsedNanos = elapsedNanos;
+      this.calls = calls;
+      this.delivery = delivery;
+    }
+
+    /**
+     * Acquires the sustained throughput, the log statements received per second from the start of
+     * the run until the last one was received.
+     *
+     * @return the log statements received per second.
+     */
+    double getThroughput() {
+      return elapsedNanos > 0 ? received * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("{sent=%d,refused=%d,received=%d,throughput=%.0f/s,calls=%s,delivery=%s}", sent, refused, received, getThroughput(), calls, delivery);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.parallel.Resources.SYSTEM_PROPERTIES;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.ResourceLock;
+
+@ResourceLock(SYSTEM_PROPERTIES)
+class FluentdLoadGeneratorTest {
+
+  @Test
+  void testNio() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdLoadGenerator.Report report = new FluentdLoadGenerator(server, Collections.emptyMap(), 4, 8, 2000).run(500, 10000);
+      assertTrue(report.sent > 0);
+      assertEquals(report.received, report.sent);
+      assertEquals(report.calls.getCount(), report.sent);
+      assertEquals(report.delivery.getCount(), report.sent);
+      assertTrue(report.getThroughput() > 0);
+      for (List<Object> frame : server.frames) assertEquals(frame.size(), 3);
+    }
+  }
+
+  @Test
+  void testPackedForwardLatency() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      server.latency = 20;
+      FluentdLoadGenerator.Report report = new FluentdLoadGenerator(server, packedForward(false), 4, 8, 2000).run(500, 10000);
+      assertEquals(report.received, report.sent);
+      assertTrue(report.delivery.getMax() >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+  }
+
+  @Test
+  void testAckedDisconnect() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      server.disconnectAfter = 40;
+      FluentdLoadGenerator.Report report = new FluentdLoadGenerator(server, packedForward(true), 4, 8, 2000).run(500, 20000);
+      assertEquals(report.received, report.sent);
+
+      assertTrue(server.getConnections() > 1);
+    }
+  }
+
+  private static Map<String, String> packedForward(boolean acked) {
+    Map<String, String> properties = new HashMap<>();
+    properties.put(SystemPropertiesRemoteSettings.FLUENTD_PACKED_FORWARD, "true");
+    properties.put(SystemPropertiesRemoteSettings.FLUENTD_BATCH_LINGER, "5");
+    if (acked) {
+      properties.put(SystemPropertiesRemoteSettings.FLUENTD_ACK, "true");
+      properties.put(SystemPropertiesRemoteSettings.FLUENTD_ACK_TIMEOUT, "200");
+    }
+    return properties;
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.flogger.LogSite;
+import com.google.common.flogger.util.StackBasedLogSite;
+
+import org.junit.jupiter.api.Test;
+
+class FluentdLogSiteCacheTest {
+
+  @Test
+  void testWrite() throws IOException {
+    FluentdLogSiteCache cache = new FluentdLogSiteCache(16);
+    for (int i = 0; i < 2; i++) {
+      LogSite logSite = new StackBasedLogSite(new StackTraceElement("com.example.Example", "method", "Example.java", 42));
+      FluentdMessagePacker packer = new FluentdMessagePacker().packMapHeader(4);
+      assertEquals(cache.write(logSite, packer), 4);
+      Map<String, Object> expected = new HashMap<>();
+      expected.put("className", "com.example.Example");
+      expected.put("fileName", "Example.java");
+      expected.put("lineNumber", 42L);
+      expected.put("methodName", "method");
+      assertEquals(FluentdMessagePackerTest.unpack(packer), expected);
+    }
+  }
+
+  @Test
+  void testWriteMissingFields() throws IOException {
+    FluentdLogSiteCache cache = new FluentdLogSiteCache(16);
+    LogSite logSite = new StackBasedLogSite(new StackTraceElement("com.example.Example", "method", null, -2));
+    FluentdMessagePacker packer = new FluentdMessagePacker().packMapHeader(3);
+    assertEquals(cache.write(logSite, packer), 3);
+    assertEquals(((Map<?, ?>) FluentdMessagePackerTest.unpack(packer)).get("lineNumber"), (long) LogSite.UNKNOWN_LINE);
+  }
+
+  @Test
+  void testWriteCached() {
+    FluentdLogSiteCache cache = new FluentdLogSiteCache(16);
+    CountingLogSite logSite = new CountingLogSite(1);
+    FluentdMessagePacker first = new FluentdMessagePacker();
+    cache.write(logSite, first);
+    FluentdMessagePacker second = new FluentdMessagePacker();
+    cache.write(new CountingLogSite(1), second);
+    assertArrayEquals(second.toByteArray(), first.toByteArray());
+    assertEquals(logSite.reads, 4);
+  }
+
+  @Test
+  void testWriteReplaced() throws IOException {
+    FluentdLogSiteCache cache = new FluentdLogSiteCache(1);
+    for (int i = 0; i < 3; i++) {
+      FluentdMessagePacker packer = new FluentdMessagePacker().packMapHeader(4);
+      cache.write(new CountingLogSite(i), packer);
+      assertEquals(((Map<?, ?>) FluentdMessagePackerTest.unpack(packer)).get("lineNumber"), (long) i);
+    }
+  }
+
+  /** A log site counting how often its fields were read, equal to other log sites of its line. */
+  private static class CountingLogSite extends LogSite {
+
+    private final int lineNumber;
+    private int reads;
+
+    CountingLogSite(int lineNumber) {
+      this.lineNumber = lineNumber;
+    }
+
+    @Override
+    public String getClassName() {
+      reads++;
+      return "com.example.Example";
+    }
+
+    @Override
+    public String getMethodName() {
+      reads++;
+      return "method";
+    }
+
+    @Override
+    public int getLineNumber() {
+      reads++;
+      return lineNumber;
+    }
+
+    @Override
+    public String getFileName() {
+      reads++;
+      return "Example.java";
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof CountingLogSite && ((CountingLogSite) obj).lineNumber == lineNumber;
+    }
+
+    @Override
+    public int hashCode() {
+      return lineNumber;
+    }
+  }
+}
@@ -18,9 +18,12 @@ package com.agsimeonov.flogger.backend.fluentd;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.junit.jupiter.api.parallel.Resources.SYSTEM_PROPERTIES;
 import static org.junit.platform.commons.support.ReflectionSupport.tryToReadFieldValue;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -28,15 +31,18 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
+import com.google.common.flogger.LogContext;
 import com.google.common.flogger.MetadataKey;
 import com.google.common.flogger.backend.LogData;
 import com.google.common.flogger.backend.LoggerBackend;
 import com.google.common.flogger.backend.Tags;
 import com.google.common.flogger.backend.system.SimpleLogRecord;
 import com.google.common.flogger.testing.FakeLogData;
+import com.sun.management.ThreadMXBean;
 
 import org.fluentd.logger.Config;
 import org.fluentd.logger.FluentLogger;
+import org.fluentd.logger.errorhandler.ErrorHandler;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.parallel.ResourceLock;
@@ -49,6 +55,10 @@ import net.moznion.fluent.logger.mock.sender.MockSender;
 class FluentdLoggerBackendTest {
 
   static final String MOCK_SENDER = "MOCK_SENDER";
+  static final int ALLOCATION_WARMUP = 20000;
+  static final int ALLOCATION_ITERATIONS = 20000;
+  static final int ALLOCATION_ROUNDS = 5;
+  static final int ALLOCATION_FLUSH = 256;
 
   static LoggerBackend backend;
   static MockSender sender;
@@ -56,7 +66,7 @@ class FluentdLoggerBackendTest {
   @BeforeAll
   static void initialize() throws Exception {
     System.setProperty(Config.FLUENT_SENDER_CLASS, MockSender.class.getName());
-    backend = new FluentdLoggerBackend(FluentLogger.getLogger(FluentdLoggerBackendTest.class.getSimpleName()), SystemPropertiesLevelDisabler.getInstance());
+    backend = new FluentdLoggerBackend(FluentLogger.getLogger(FluentdLoggerBackendTest.class.getSimpleName()), null, SystemPropertiesLevelDisabler.getInstance(), null, null, null);
     sender = tryToReadFieldValue(backend.getClass().getDeclaredField("logger"), backend)
       .andThenTry(x -> (FluentLogger) x)
       .andThenTry(logger -> (MockSender) logger.getSender())
@@ -71,12 +81,15 @@ class FluentdLoggerBackendTest {
   @Test
   @ResourceLock(SYSTEM_PROPERTIES)
   public void testIsLoggable() {
+    SystemPropertiesLevelDisabler.getInstance().refresh();
     assertTrue(backend.isLoggable(Level.FINEST));
     System.setProperty("flogger.exclusive", "true");
     System.setProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(Level.FINEST), "true");
+    SystemPropertiesLevelDisabler.getInstance().refresh();
     assertFalse(backend.isLoggable(Level.FINEST));
     System.setProperty("flogger.exclusive", "false");
     System.setProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(Level.FINEST), "false");
+    SystemPropertiesLevelDisabler.getInstance().refresh();
   }
 
   @Test
@@ -111,6 +124,128 @@ class FluentdLoggerBackendTest {
     sender.clearFluentLogs();
   }
 
+  @Test
+  @ResourceLock(MOCK_SENDER)
+  public void testLogCause() {
+    backend.log(FakeLogData.of("Failed").setLevel(Level.SEVERE).addMetadata(LogContext.Key.LOG_CAUSE, new IllegalStateException("cause")));
+    assertTrue(sender.getFluentLogs().size() == 1);
+    Map<String, Object> log = sender.getFluentLogs().get(0).getData();
+    assertFalse(log.containsKey(LogContext.Key.LOG_CAUSE.getLabel()));
+    assertTrue(log.containsKey("thrown"));
+    assertTrue(log.values().stream().noneMatch(value -> value instanceof Throwable));
+    sender.clearFluentLogs();
+  }
+
+  @Test
+  public void testLogEncoded() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdForwardSender sender = new FluentdForwardSender(FluentdForwardSenderTest.settings(server.getPort(), Integer.MAX_VALUE, Integer.MAX_VALUE, 60000));
+      LoggerBackend backend = new FluentdLoggerBackend(new FluentLogger("", sender) {}, "prefix", null, null, null, null);
+      backend.log(FakeLogData.withPrintfStyle("Hello %s", "Foo").setLevel(Level.CONFIG).setTimestampNanos(TimeUnit.SECONDS.toNanos(42)));
+      backend.log(FakeLogData.of("World").setLevel(Level.WARNING));
+      sender.flush();
+      assertTrue(server.awaitEvents(2, 5000));
+      FluentdForwardServer.Event config = server.events.stream().filter(event -> event.tag.equals("prefix.CONFIG")).findFirst().get();
+      assertEquals(config.time, 42);
+      assertEquals(config.record.get("message"), "Hello Foo");
+      assertEquals(config.record.get("className"), "com.google.FakeClass");
+      FluentdForwardServer.Event warning = server.events.stream().filter(event -> event.tag.equals("prefix.WARNING")).findFirst().get();
+      assertEquals(warning.record.get("message"), "World");
+      sender.close();
+    }
+  }
+
+  @Test
+  public void testLogSampled() {
+    System.setProperty(FluentdRateLimiter.SAMPLE + ".prefix", "INFO:0");
+    FluentdAsyncDispatcherTest.BlockingSender sender = new FluentdAsyncDispatcherTest.BlockingSender(0);
+    FluentdRateLimiter limiter = FluentdRateLimiter.snapshot().forLoggerName("prefix");
+    System.clearProperty(FluentdRateLimiter.SAMPLE + ".prefix");
+    LoggerBackend backend = new FluentdLoggerBackend(new FluentLogger("", sender) {}, "prefix", null, limiter, null, null);
+    for (int i = 0; i < 3; i++) backend.log(FakeLogData.of("sampled").setLevel(Level.INFO));
+    backend.log(FakeLogData.of("kept").setLevel(Level.WARNING));
+    backend.log(FakeLogData.of("kept").setLevel(Level.WARNING));
+    assertEquals(sender.records.size(), 2);
+    assertEquals(sender.records.get(0).get("message"), "kept");
+    assertEquals(sender.records.get(0).get("suppressed"), 3L);
+    assertFalse(sender.records.get(1).containsKey("suppressed"));
+  }
+
+  /**
+   * Guards the bytes allocated per log statement on the map and the encoded paths against
+   * regressions, both with a sender discarding records and with the default sender writing to a
+   * Forward server. Each statement is measured over several rounds and the round allocating the
+   * least counts, so allocations of the JIT compiler settling down do not fail the build. The
+   * encoded path allocates nothing for plain, printf and metadata statements, other budgets are set
+   * to roughly one and a half times what is allocated today.
+   */
+  @ParameterizedTest
+  @CsvSource({
+    "plain, false, false, 1280",
+    "plain, true, false, 0",
+    "plain, true, true, 0",
+    "printf, false, false, 1280",
+    "printf, true, false, 0",
+    "printf, true, true, 0",
+    "metadata, false, false, 2112",
+    "metadata, true, false, 0",
+    "metadata, true, true, 0",
+    "thrown, false, false, 15360",
+    "thrown, true, false, 1344",
+    "thrown, true, true, 1664"
+  })
+  public void testLogAllocation(String shape, boolean encoded, boolean sending, long budget) throws IOException {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      server.recording = false;
+      FluentdRecordSender recordSender = sending ? new FluentdNioSender("localhost", server.getPort(), 3 * 1000, 1024 * 1024) : new DiscardingSender();
+      LoggerBackend backend = new FluentdLoggerBackend(new FluentLogger(encoded ? "" : "allocation", recordSender) {}, encoded ? "allocation" : null, null, null, null, null);
+      LogData data = shape(shape);
+      for (int i = 0; i < ALLOCATION_WARMUP; i++) log(backend, recordSender, data, i);
+      long thread = Thread.currentThread().getId();
+      long fewest = Long.MAX_VALUE;
+      for (int round = 0; round < ALLOCATION_ROUNDS; round++) {
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ALLOCATION_ITERATIONS; i++) log(backend, recordSender, data, i);
+        fewest = Math.min(fewest, (threads.getThreadAllocatedBytes(thread) - start) / ALLOCATION_ITERATIONS);
+      }
+      long allocated = fewest;
+      recordSender.close();
+      String path = (encoded ? " encoded" : " map") + (sending ? " sent" : " discarded");
+      assertTrue(allocated <= budget, () -> shape + path + " allocated " + allocated + " bytes per call, budget is " + budget);
+    }
+  }
+
+  /** Logs, flushing the sender every so often so a sender writing to a server never fills up. */
+  private static void log(LoggerBackend backend, FluentdRecordSender sender, LogData data, int i) {
+    backend.log(data);
+    if (i % ALLOCATION_FLUSH == ALLOCATION_FLUSH - 1) sender.flush();
+  }
+
+  /** Builds one of the representative log statements the allocation budgets are set for. */
+  static LogData shape(String shape) {
+    switch (shape) {
+      case "plain":
+        return FakeLogData.of("Hello World").setLevel(Level.INFO);
+      case "printf":
+        return FakeLogData.withPrintfStyle("Hello %s %d", "Foo", 42).setLevel(Level.INFO);
+      case "metadata":
+        return FakeLogData.withPrintfStyle("Hello %s", "Foo")
+          .setLevel(Level.INFO)
+          .addMetadata(MetadataKey.single("tags", Tags.class), Tags.builder().addTag("a").addTag("d", 1L).build())
+          .addMetadata(MetadataKey.single("test", String.class), "test")
+          .addMetadata(MetadataKey.repeated("integers", Integer.class), 2)
+          .addMetadata(MetadataKey.repeated("integers", Integer.class), 3);
+      case "thrown":
+        return FakeLogData.of("Failed").setLevel(Level.SEVERE).addMetadata(LogContext.Key.LOG_CAUSE, new IllegalStateException("cause"));
+      default:
+        throw new IllegalArgumentException(shape);
+    }
+  }
+
   @ParameterizedTest
   @CsvSource("java.lang.RuntimeException, test")
   @ResourceLock(MOCK_SENDER)
@@ -123,4 +258,45 @@ class FluentdLoggerBackendTest {
     assertEquals(log.get("message").toString(), SimpleLogRecord.error(expected, data).toString());
     sender.clearFluentLogs();
   }
+
+  /** A sender accepting and discarding records, so only the backend itself allocates. */
+  static class DiscardingSender implements FluentdRecordSender {
+
+    @Override
+    public boolean emit(String tag, Map<String, Object> data) {
+      return true;
+    }
+
+    @Override
+    public boolean emit(String tag, long timestamp, Map<String, Object> data) {
+      return true;
+    }
+
+    @Override
+    public boolean emit(String tag, long timestamp, FluentdMessagePacker record) {
+      return true;
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public String getName() {
+      return getClass().getSimpleName();
+    }
+
+    @Override
+    public boolean isConnected() {
+      return true;
+    }
+
+    @Override
+    public void setErrorHandler(ErrorHandler errorHandler) {}
+
+    @Override
+    public void removeErrorHandler() {}
+  }
 }
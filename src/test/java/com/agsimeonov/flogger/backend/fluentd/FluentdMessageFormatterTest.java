@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.Formattable;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+import com.google.common.flogger.MetadataKey;
+import com.google.common.flogger.backend.LogData;
+import com.google.common.flogger.backend.SimpleMessageFormatter;
+import com.google.common.flogger.testing.FakeLogData;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+class FluentdMessageFormatterTest {
+
+  @ParameterizedTest
+  @MethodSource("logDataProvider")
+  void testFormat(LogData data) {
+    String[] expected = new String[1];
+    SimpleMessageFormatter.format(data, (level, message, thrown) -> expected[0] = message);
+    assertEquals(FluentdMessageFormatter.format(data), expected[0]);
+  }
+
+  @Test
+  void testFormatWithoutContext() {
+    LogData data = FakeLogData.withPrintfStyle("Hello %s", "World").addMetadata(MetadataKey.single("key", String.class), "value");
+    assertEquals(FluentdMessageFormatter.format(data), "Hello World");
+    assertEquals(FluentdMessageFormatter.format(FakeLogData.of("[CONTEXT literal ]")), "[CONTEXT literal ]");
+  }
+
+  @Test
+  void testFormatReusesBuilder() {
+    StringBuilder out = new StringBuilder("previous");
+    assertSame(FluentdMessageFormatter.format(FakeLogData.withPrintfStyle("%d", 42), out), out);
+    assertEquals(out.toString(), "42");
+  }
+
+  @Test
+  void testFormatCachedTemplate() {
+    for (int i = 0; i < 3; i++) {
+      assertEquals(FluentdMessageFormatter.format(FakeLogData.withPrintfStyle("cached %s %d%%", "run", i)), "cached run " + i + "%");
+    }
+    assertEquals(FluentdMessageFormatter.format(FakeLogData.withPrintfStyle(new String("cached %s %d%%"), "copy", 3)), "cached copy 3%");
+  }
+
+  @Test
+  void testFormatReentrant() {
+    Object reentrant = new Object() {
+      @Override
+      public String toString() {
+        return FluentdMessageFormatter.format(FakeLogData.withPrintfStyle("inner %s", "value"));
+      }
+    };
+    assertEquals(FluentdMessageFormatter.format(FakeLogData.withPrintfStyle("outer %s!", reentrant)), "outer inner value!");
+  }
+
+  static Stream<LogData> logDataProvider() {
+    Formattable formattable = (formatter, flags, width, precision) -> formatter.format("formattable");
+    Formattable failing = (formatter, flags, width, precision) -> {
+      formatter.format("partial");
+      throw new IllegalStateException();
+    };
+    return Stream.of(
+      FakeLogData.of("literal"),
+      FakeLogData.of(null),
+      FakeLogData.of(new int[] {1, 2}),
+      FakeLogData.withPrintfStyle("%s %s %s", "string", null, new Object[] {"a", 1}),
+      FakeLogData.withPrintfStyle("%d %,d %05d %b %c %c %C", 42, 1234567, 42, true, 'x', 0x1f600, 'y'),
+      FakeLogData.withPrintfStyle("%d %d %d %d %b %c", 1L << 40, (short) -2, (byte) 3, BigInteger.TEN, false, (int) 'z'),
+      FakeLogData.withPrintfStyle("%x %X %x %x %x %x %#x", 255L, 255, (byte) -1, (short) -1, -1, BigInteger.valueOf(4096), 16),
+      FakeLogData.withPrintfStyle("%.2f %e %g %10s|%-10s|", 3.14159, 1e10, 0.5, "right", "left"),
+      FakeLogData.withPrintfStyle("%s %S %s", formattable, formattable, failing),
+      FakeLogData.withPrintfStyle("%2$.1f %1$10s %2$s", "first", 1.25),
+      FakeLogData.withPrintfStyle("%tY %d", new Date(0), "invalid"),
+      FakeLogData.withPrintfStyle("missing %s %s", "one"),
+      FakeLogData.withPrintfStyle("extra %s", "one", "two"),
+      FakeLogData.withPrintfStyle("%%escaped%n%s", "done").setLevel(Level.FINE));
+  }
+}
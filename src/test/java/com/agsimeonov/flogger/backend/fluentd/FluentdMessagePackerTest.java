@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class FluentdMessagePackerTest {
+
+  @ParameterizedTest
+  @ValueSource(longs = {0, 1, 127, 128, 255, 256, 65535, 65536, 4294967295L, 4294967296L, Long.MAX_VALUE, -1, -32, -33, -128, -129, -32768, -32769, Integer.MIN_VALUE, Integer.MIN_VALUE - 1L, Long.MIN_VALUE})
+  void testPackLong(long value) throws IOException {
+    assertEquals(unpack(new FluentdMessagePacker().packLong(value)), value);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", "a", "\u00e9t\u00e9", "\u65e5\u672c", "\ud83d\ude00", "0123456789012345678901234567890123456789"})
+  void testPackString(String value) throws IOException {
+    assertEquals(unpack(new FluentdMessagePacker().packString(value)), value);
+  }
+
+  @Test
+  void testPackLoneSurrogate() throws IOException {
+    assertEquals(unpack(new FluentdMessagePacker().packString("a\ud83db")), "a?b");
+  }
+
+  @Test
+  void testPackLongString() throws IOException {
+    char[] chars = new char[70000];
+    Arrays.fill(chars, 'x');
+    String value = new String(chars);
+    assertEquals(unpack(new FluentdMessagePacker(16).packString(value)), value);
+  }
+
+  @Test
+  void testPackValue() throws IOException {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("string", "value");
+    map.put("long", 42L);
+    map.put("double", 4.2);
+    map.put("boolean", true);
+    map.put("null", null);
+    map.put("list", Arrays.asList(1L, "two"));
+    map.put("array", new Object[] {3L});
+    map.put("map", Collections.singletonMap("key", "value"));
+    map.put("other", Level.INFO);
+    Object result = unpack(new FluentdMessagePacker().packValue(map));
+    map.put("array", Arrays.asList(3L));
+    map.put("other", "INFO");
+    assertEquals(result, map);
+  }
+
+  @Test
+  void testTruncate() throws IOException {
+    FluentdMessagePacker packer = new FluentdMessagePacker().packString("kept");
+    int size = packer.size();
+    packer.packString("discarded");
+    packer.truncate(size);
+    assertEquals(unpack(packer), "kept");
+  }
+
+  @Test
+  void testMap32Header() throws IOException {
+    FluentdMessagePacker packer = new FluentdMessagePacker().packMap32Header(0x12345678);
+    assertEquals(packer.readMap32Header(0), 0x12345678);
+    packer.patchMap32Header(0, 1);
+    assertEquals(packer.readMap32Header(0), 1);
+    packer.packString("key").packLong(1);
+    assertEquals(unpack(packer), Collections.singletonMap("key", 1L));
+  }
+
+  @Test
+  void testWrite() {
+    FluentdMessagePacker other = new FluentdMessagePacker().packLong(1).packLong(2);
+    FluentdMessagePacker packer = new FluentdMessagePacker().packRawHeader(other.size()).write(other);
+    assertArrayEquals(packer.toByteArray(), new byte[] {(byte) 0xa2, 1, 2});
+  }
+
+  static Object unpack(FluentdMessagePacker packer) throws IOException {
+    return FluentdForwardServer.toObject(FluentdForwardServer.MESSAGE_PACK.createBufferUnpacker(packer.toByteArray()).readValue());
+  }
+
+  /** A type unknown to the packer. */
+  private enum Level {
+    INFO
+  }
+}
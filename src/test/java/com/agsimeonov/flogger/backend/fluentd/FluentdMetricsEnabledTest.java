@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.parallel.Resources.SYSTEM_PROPERTIES;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.logging.Level;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import com.google.common.flogger.backend.LoggerBackend;
+import com.google.common.flogger.testing.FakeLogData;
+
+import org.fluentd.logger.FluentLogger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.parallel.ResourceLock;
+
+@EnabledIfSystemProperty(named = FluentdMetrics.METRICS, matches = "true")
+class FluentdMetricsEnabledTest {
+
+  @Test
+  void testMXBean() throws Exception {
+    FluentdMetrics.getInstance().register();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(FluentdMetrics.OBJECT_NAME);
+    assertTrue(server.isRegistered(name));
+    assertTrue(server.getAttribute(name, "Logged") instanceof Long);
+    assertTrue(server.getAttribute(name, "Levels") instanceof TabularData);
+    CompositeData latency = (CompositeData) server.getAttribute(name, "FormattingLatency");
+    assertTrue(latency.containsKey("count"));
+    assertTrue(latency.containsKey("max"));
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testLogMetrics() {
+    System.setProperty(FluentdRateLimiter.SAMPLE + ".metrics", "INFO:0");
+    FluentdAsyncDispatcherTest.BlockingSender sender = new FluentdAsyncDispatcherTest.BlockingSender(0) {
+      @Override
+      public boolean emit(String tag, long timestamp, Map<String, Object> data) {
+        return false;
+      }
+    };
+    FluentdRateLimiter limiter = FluentdRateLimiter.snapshot().forLoggerName("metrics");
+    System.clearProperty(FluentdRateLimiter.SAMPLE + ".metrics");
+    LoggerBackend backend = new FluentdLoggerBackend(new FluentLogger("", sender) {}, "metrics", null, limiter, null, null);
+    long sending = FluentdMetrics.getInstance().getSendingLatency().getCount();
+    for (int i = 0; i < 3; i++) backend.log(FakeLogData.of("sampled").setLevel(Level.INFO));
+    backend.log(FakeLogData.of("failed").setLevel(Level.WARNING));
+    Map<String, FluentdMetrics.Counts> tags = FluentdMetrics.getInstance().getTags();
+    assertEquals(tags.get("metrics.INFO").getLogged(), 3);
+    assertEquals(tags.get("metrics.INFO").getFiltered(), 3);
+    assertEquals(tags.get("metrics.WARNING").getLogged(), 1);
+    assertEquals(tags.get("metrics.WARNING").getFailed(), 1);
+    assertTrue(FluentdMetrics.getInstance().getSendingLatency().getCount() > sending);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
+
+class FluentdMetricsTest {
+
+  @Test
+  void testCounts() {
+    FluentdMetrics metrics = new FluentdMetrics(true);
+    metrics.counter("first.INFO", Level.INFO).logged.add(2);
+    metrics.counter("second.INFO", Level.INFO).logged.increment();
+    metrics.counter("second.INFO", Level.INFO).failed.increment();
+    metrics.counter("first.WARNING", Level.WARNING).dropped.increment();
+    metrics.counter("first.WARNING", Level.WARNING).filtered.increment();
+    assertEquals(metrics.getLogged(), 3);
+    assertEquals(metrics.getFiltered(), 1);
+    assertEquals(metrics.getDropped(), 1);
+    assertEquals(metrics.getFailed(), 1);
+    Map<String, FluentdMetrics.Counts> levels = metrics.getLevels();
+    assertEquals(levels.keySet(), new TreeSet<>(Arrays.asList("INFO", "WARNING")));
+    assertEquals(levels.get("INFO").getLogged(), 3);
+    assertEquals(levels.get("INFO").getFailed(), 1);
+    assertEquals(levels.get("WARNING").getDropped(), 1);
+    assertEquals(metrics.getTags().get("second.INFO").getLogged(), 1);
+  }
+
+  @Test
+  void testGauges() {
+    FluentdMetrics metrics = new FluentdMetrics(true);
+    LongSupplier events = () -> 3;
+    LongSupplier bytes = () -> 1024;
+    metrics.addQueuedEvents(events);
+    metrics.addQueuedEvents(() -> 2);
+    metrics.addQueuedBytes(bytes);
+    assertEquals(metrics.getQueuedEvents(), 5);
+    assertEquals(metrics.getQueuedBytes(), 1024);
+    metrics.removeQueuedEvents(events);
+    metrics.removeQueuedBytes(bytes);
+    assertEquals(metrics.getQueuedEvents(), 2);
+    assertEquals(metrics.getQueuedBytes(), 0);
+  }
+
+  @Test
+  void testReset() {
+    FluentdMetrics metrics = new FluentdMetrics(true);
+    FluentdMetrics.Counter counter = metrics.counter("tag.INFO", Level.INFO);
+    counter.logged.increment();
+    metrics.sent(100);
+    metrics.connected();
+    metrics.connectionFailed();
+    metrics.recordSending(1000);
+    metrics.reset();
+    assertEquals(metrics.getLogged(), 0);
+    assertEquals(metrics.getBytesSent(), 0);
+    assertEquals(metrics.getConnections(), 0);
+    assertEquals(metrics.getConnectionFailures(), 0);
+    assertEquals(metrics.getSendingLatency().getCount(), 0);
+    counter.logged.increment();
+    assertEquals(metrics.getLogged(), 1);
+  }
+
+  @Test
+  @DisabledIfSystemProperty(named = FluentdMetrics.METRICS, matches = "true")
+  void testDisabled() throws Exception {
+    FluentdBackendFactory.getInstance().create(FluentdMetricsTest.class.getName());
+    FluentdMetrics.getInstance().register();
+    assertFalse(FluentdMetrics.getInstance().isEnabled());
+    assertNull(FluentdMetrics.active());
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(FluentdMetrics.OBJECT_NAME)));
+  }
+}
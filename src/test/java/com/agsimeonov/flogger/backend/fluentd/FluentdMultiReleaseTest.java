@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+@EnabledIfSystemProperty(named = "flogger.multi_release", matches = "true")
+class FluentdMultiReleaseTest {
+
+  private static final int VERSION = version();
+
+  @Test
+  void testStackFrames() {
+    boolean walking = Arrays.stream(FluentdStackFrames.class.getDeclaredFields()).anyMatch(field -> field.getName().equals("WALKER"));
+    assertEquals(walking, VERSION >= 9);
+    assertEquals(Caller.find(), FluentdMultiReleaseTest.class);
+  }
+
+  @Test
+  void testUnixSockets() {
+    assertEquals(FluentdUnixSockets.isSupported(), VERSION >= 16);
+  }
+
+  private static int version() {
+    String version = System.getProperty("java.specification.version");
+    return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+  }
+
+  private static final class Caller {
+
+    private static Class<?> find() {
+      return FluentdStackFrames.findCallerClassOf(Caller.class, 0);
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.fluentd.logger.errorhandler.ErrorHandler;
+import org.junit.jupiter.api.Test;
+
+class FluentdNioSenderTest {
+
+  @Test
+  void testEmit() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdNioSender sender = new FluentdNioSender("localhost", server.getPort(), 3000, 1024 * 1024);
+      for (int i = 0; i < 100; i++) assertTrue(sender.emit("tag", i, Collections.singletonMap("index", i)));
+      sender.flush();
+      assertTrue(server.awaitEvents(100, 5000));
+      assertTrue(sender.isConnected());
+      for (List<Object> frame : server.frames) assertEquals(frame.size(), 3);
+      for (int i = 0; i < 100; i++) {
+        assertEquals(server.events.get(i).tag, "tag");
+        assertEquals(server.events.get(i).time, i);
+        assertEquals(server.events.get(i).record, Collections.singletonMap("index", (long) i));
+      }
+      sender.close();
+    }
+  }
+
+  @Test
+  void testEmitRecord() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdNioSender sender = new FluentdNioSender("localhost", server.getPort(), 3000, 1024 * 1024);
+      FluentdMessagePacker record = new FluentdMessagePacker().packMapHeader(1).packString("message").packString("encoded");
+      assertTrue(sender.emit("tag", 42, record));
+      assertTrue(server.awaitEvents(1, 5000));
+      assertEquals(server.events.get(0).time, 42);
+      assertEquals(server.events.get(0).record, Collections.singletonMap("message", "encoded"));
+      sender.close();
+    }
+  }
+
+  @Test
+  void testEmitReentrant() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdNioSender sender = new FluentdNioSender("localhost", server.getPort(), 3000, 1024 * 1024);
+      Object reentrant = new Object() {
+        @Override
+        public String toString() {
+          sender.emit("inner", 1, new FluentdMessagePacker().packMapHeader(1).packString("message").packString("inner"));
+          return "outer";
+        }
+      };
+      assertTrue(sender.emit("outer", 2, Collections.singletonMap("message", reentrant)));
+      assertTrue(server.awaitEvents(2, 5000));
+      assertEquals(server.events.get(0).tag, "inner");
+      assertEquals(server.events.get(0).record, Collections.singletonMap("message", "inner"));
+      assertEquals(server.events.get(1).tag, "outer");
+      assertEquals(server.events.get(1).record, Collections.singletonMap("message", "outer"));
+      sender.close();
+    }
+  }
+
+  @Test
+  void testPartialWrites() throws Exception {
+    char[] chars = new char[64 * 1024];
+    Arrays.fill(chars, 'x');
+    String message = new String(chars);
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdNioSender sender = new FluentdNioSender("localhost", server.getPort(), 3000, 64 * 1024 * 1024);
+      for (int i = 0; i < 200; i++) assertTrue(sender.emit("tag", i, Collections.singletonMap("message", message)));
+      sender.flush();
+      assertTrue(server.awaitEvents(200, 10000));
+      for (int i = 0; i < 200; i++) {
+        assertEquals(server.events.get(i).time, i);
+        assertEquals(server.events.get(i).record, Collections.singletonMap("message", message));
+      }
+      sender.close();
+    }
+  }
+
+  @Test
+  void testReconnect() throws Exception {
+    int port;
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      port = server.getPort();
+    }
+    FluentdNioSender sender = new FluentdNioSender("localhost", port, 3000, 1024 * 1024);
+    List<IOException> errors = new CopyOnWriteArrayList<>();
+    sender.setErrorHandler(new ErrorHandler() {
+      @Override
+      public void handleNetworkError(IOException exception) {
+        errors.add(exception);
+      }
+    });
+    for (int i = 0; i < 10; i++) assertTrue(sender.emit("tag", i, Collections.singletonMap("index", i)));
+    sender.flush();
+    assertFalse(sender.isConnected());
+    assertFalse(errors.isEmpty());
+    try (FluentdForwardServer server = new FluentdForwardServer(port)) {
+      assertTrue(server.awaitEvents(10, 5000));
+      for (int i = 0; i < 10; i++) assertEquals(server.events.get(i).record, Collections.singletonMap("index", (long) i));
+      assertTrue(sender.isConnected());
+      sender.close();
+    }
+  }
+
+  @Test
+  void testUnknownHost() throws Exception {
+    FluentdNioSender sender = new FluentdNioSender("unknown.invalid", 24224, 3000, 1024 * 1024);
+    List<IOException> errors = new CopyOnWriteArrayList<>();
+    sender.setErrorHandler(new ErrorHandler() {
+      @Override
+      public void handleNetworkError(IOException exception) {
+        errors.add(exception);
+      }
+    });
+    assertTrue(sender.emit("tag", 0, Collections.emptyMap()));
+    long deadline = System.currentTimeMillis() + 10000;
+    while (errors.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+    assertTrue(errors.get(0) instanceof UnknownHostException);
+    assertFalse(sender.isConnected());
+    sender.close();
+  }
+
+  @Test
+  void testStall() throws Exception {
+    char[] chars = new char[1024];
+    Arrays.fill(chars, 'x');
+    String message = new String(chars);
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      server.stalled = true;
+      FluentdNioSender sender = new FluentdNioSender("localhost", server.getPort(), 3000, 256 * 1024);
+      int accepted = 0;
+      long deadline = System.currentTimeMillis() + 10000;
+      while (System.currentTimeMillis() < deadline) {
+        if (sender.emit("tag", accepted, Collections.singletonMap("message", message))) {
+          accepted++;
+        } else {
+          Thread.sleep(50);
+          if (!sender.emit("tag", accepted, Collections.singletonMap("message", message))) break;
+          accepted++;
+        }
+      }
+      assertFalse(sender.emit("tag", accepted, Collections.singletonMap("message", message)));
+      server.stalled = false;
+      assertTrue(server.awaitEvents(accepted, 10000));
+      assertTrue(sender.emit("tag", accepted, Collections.singletonMap("message", message)));
+      assertTrue(server.awaitEvents(accepted + 1, 5000));
+      for (int i = 0; i <= accepted; i++) assertEquals(server.events.get(i).time, i);
+      sender.close();
+    }
+  }
+
+  @Test
+  void testDisconnect() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdNioSender sender = new FluentdNioSender("localhost", server.getPort(), 3000, 1024 * 1024);
+      assertTrue(sender.emit("tag", 0, Collections.emptyMap()));
+      assertTrue(server.awaitEvents(1, 5000));
+      server.disconnect();
+      long deadline = System.currentTimeMillis() + 5000;
+      for (int i = 1; server.getConnections() < 2 && System.currentTimeMillis() < deadline; i++) {
+        sender.emit("tag", i, Collections.emptyMap());
+        Thread.sleep(20);
+      }
+      assertEquals(server.getConnections(), 2);
+      assertTrue(sender.emit("tag", 0, Collections.singletonMap("reconnected", true)));
+      deadline = System.currentTimeMillis() + 5000;
+      while (server.events.stream().noneMatch(event -> event.record.containsKey("reconnected")) && System.currentTimeMillis() < deadline) Thread.sleep(20);
+      assertTrue(server.events.stream().anyMatch(event -> event.record.containsKey("reconnected")));
+      sender.close();
+    }
+  }
+
+  @Test
+  void testBufferCapacity() throws Exception {
+    int port;
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      port = server.getPort();
+    }
+    FluentdNioSender sender = new FluentdNioSender("localhost", port, 3000, 64);
+    int accepted = 0;
+    while (sender.emit("tag", accepted, Collections.singletonMap("index", accepted))) accepted++;
+    assertTrue(accepted > 0);
+    assertTrue(accepted < 64);
+    sender.close();
+  }
+
+  @Test
+  void testClose() throws Exception {
+    try (FluentdForwardServer server = new FluentdForwardServer()) {
+      FluentdNioSender sender = new FluentdNioSender("localhost", server.getPort(), 3000, 1024 * 1024);
+      assertTrue(sender.emit("tag", 0, Collections.emptyMap()));
+      sender.close();
+      assertTrue(server.awaitEvents(1, 5000));
+      assertFalse(sender.emit("tag", 1, Collections.emptyMap()));
+    }
+  }
+}
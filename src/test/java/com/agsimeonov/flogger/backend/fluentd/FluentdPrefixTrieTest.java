@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class FluentdPrefixTrieTest {
+
+  @ParameterizedTest
+  @CsvSource({
+    "com.acme.db.Dao, db",
+    "com.acme.db, db",
+    "com.acme.web.Controller, acme",
+    "com.acme, acme",
+    "com.acmex.Dao, com",
+    "com, com",
+    "org.example.Example, ",
+    "'', "
+  })
+  void testFind(String name, String expected) {
+    FluentdPrefixTrie<String> trie = new FluentdPrefixTrie<>();
+    trie.put("com.acme.db", "db");
+    trie.put("com.acme", "acme");
+    trie.put("com", "com");
+    assertEquals(trie.find(name), expected);
+  }
+
+  @Test
+  void testRoot() {
+    FluentdPrefixTrie<String> trie = new FluentdPrefixTrie<>();
+    assertTrue(trie.isEmpty());
+    assertNull(trie.find("com.acme"));
+    trie.put("", "root");
+    assertFalse(trie.isEmpty());
+    assertEquals(trie.find("com.acme"), "root");
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import com.google.common.flogger.LogSite;
+import com.google.common.flogger.util.StackBasedLogSite;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.ResourceLock;
+import org.junit.jupiter.api.parallel.Resources;
+
+class FluentdRateLimiterTest {
+
+  private static final LogSite FIRST = new StackBasedLogSite(new StackTraceElement("com.example.Example", "first", "Example.java", 1));
+  private static final LogSite SECOND = new StackBasedLogSite(new StackTraceElement("com.example.Example", "second", "Example.java", 2));
+
+  @Test
+  void testTokenBucket() {
+    AtomicLong now = new AtomicLong();
+    FluentdRateLimiter limiter = new FluentdRateLimiter(16, 10, 2, Collections.emptyMap(), now::get, () -> 0);
+    assertEquals(limiter.admit(FIRST, Level.INFO), 0);
+    assertEquals(limiter.admit(FIRST, Level.INFO), 0);
+    assertEquals(limiter.admit(FIRST, Level.INFO), -1);
+    assertEquals(limiter.admit(FIRST, Level.INFO), -1);
+    assertEquals(limiter.admit(SECOND, Level.INFO), 0);
+    now.set(TimeUnit.MILLISECONDS.toNanos(50));
+    assertEquals(limiter.admit(FIRST, Level.INFO), -1);
+    now.set(TimeUnit.MILLISECONDS.toNanos(100));
+    assertEquals(limiter.admit(FIRST, Level.INFO), 3);
+    assertEquals(limiter.admit(FIRST, Level.INFO), -1);
+    now.set(TimeUnit.SECONDS.toNanos(10));
+    assertEquals(limiter.admit(new StackBasedLogSite(new StackTraceElement("com.example.Example", "first", "Example.java", 1)), Level.INFO), 1);
+    assertEquals(limiter.admit(FIRST, Level.INFO), 0);
+    assertEquals(limiter.admit(FIRST, Level.INFO), -1);
+  }
+
+  @Test
+  void testSampling() {
+    Map<Level, Double> probabilities = new HashMap<>();
+    probabilities.put(Level.FINE, 0.25);
+    probabilities.put(Level.INFO, 0.0);
+    double[] random = {0.5};
+    FluentdRateLimiter limiter = new FluentdRateLimiter(16, 0, 0, probabilities, () -> 0, () -> random[0]);
+    assertEquals(limiter.admit(FIRST, Level.FINE), -1);
+    assertEquals(limiter.admit(FIRST, Level.INFO), -1);
+    assertEquals(limiter.admit(FIRST, Level.WARNING), 2);
+    random[0] = 0.1;
+    assertEquals(limiter.admit(FIRST, Level.FINE), 0);
+    assertEquals(limiter.admit(FIRST, Level.INFO), -1);
+    assertEquals(limiter.admit(null, Level.FINE), 0);
+    assertEquals(limiter.admit(FIRST, Level.FINE), 1);
+  }
+
+  @Test
+  void testEviction() {
+    LogSite third = new StackBasedLogSite(new StackTraceElement("com.example.Example", "third", "Example.java", 3));
+    LogSite fourth = new StackBasedLogSite(new StackTraceElement("com.example.Example", "fourth", "Example.java", 4));
+    FluentdRateLimiter limiter = new FluentdRateLimiter(2, 1, 1, Collections.emptyMap(), () -> 0, () -> 0);
+    assertEquals(limiter.admit(FIRST, Level.INFO), 0);
+    assertEquals(limiter.admit(SECOND, Level.INFO), 0);
+    assertEquals(limiter.admit(third, Level.INFO), 0);
+    assertEquals(limiter.admit(fourth, Level.INFO), 0);
+    assertEquals(limiter.admit(fourth, Level.INFO), -1);
+    assertEquals(limiter.admit(FIRST, Level.INFO), 0);
+    assertEquals(limiter.admit(SECOND, Level.INFO), 0);
+    for (int i = 0; i < 100; i++) {
+      LogSite logSite = new StackBasedLogSite(new StackTraceElement("com.example.Example", "method", "Example.java", 100 + i));
+      assertEquals(limiter.admit(logSite, Level.INFO), 0);
+      assertEquals(limiter.admit(logSite, Level.INFO), -1);
+    }
+  }
+
+  @Test
+  @ResourceLock(Resources.SYSTEM_PROPERTIES)
+  void testForLoggerName() {
+    assertNull(FluentdRateLimiter.snapshot().forLoggerName("com.acme.Dao"));
+    System.setProperty(FluentdRateLimiter.RATE + ".com.acme", "1:1");
+    System.setProperty(FluentdRateLimiter.SAMPLE + ".com.acme.db", "FINE:0.5, INFO:0");
+    System.setProperty(FluentdRateLimiter.SAMPLE + ".com.other", "invalid");
+    try {
+      FluentdRateLimiter.Snapshot snapshot = FluentdRateLimiter.snapshot();
+      assertNull(snapshot.forLoggerName("com.acmex.Dao"));
+      assertNull(snapshot.forLoggerName("com.other.Dao"));
+      FluentdRateLimiter limiter = snapshot.forLoggerName("com.acme.Dao");
+      assertNotNull(limiter);
+      assertEquals(limiter.admit(FIRST, Level.INFO), 0);
+      assertEquals(limiter.admit(FIRST, Level.INFO), -1);
+      limiter = snapshot.forLoggerName("com.acme.db.Dao");
+      assertEquals(limiter.admit(FIRST, Level.INFO), -1);
+      assertEquals(limiter.admit(FIRST, Level.WARNING), 1);
+      assertEquals(limiter.admit(FIRST, Level.WARNING), -1);
+      System.setProperty(FluentdRateLimiter.RATE, "1000000");
+      assertNull(snapshot.forLoggerName("org.example.Example"));
+      limiter = FluentdRateLimiter.snapshot().forLoggerName("org.example.Example");
+      for (int i = 0; i < 100; i++) assertEquals(limiter.admit(FIRST, Level.INFO), 0);
+    } finally {
+      System.clearProperty(FluentdRateLimiter.RATE);
+      System.clearProperty(FluentdRateLimiter.RATE + ".com.acme");
+      System.clearProperty(FluentdRateLimiter.SAMPLE + ".com.acme.db");
+      System.clearProperty(FluentdRateLimiter.SAMPLE + ".com.other");
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+import com.google.common.flogger.LogContext;
+import com.google.common.flogger.MetadataKey;
+import com.google.common.flogger.backend.LogData;
+import com.google.common.flogger.backend.Tags;
+import com.google.common.flogger.testing.FakeLogData;
+
+import org.fluentd.logger.FluentLogger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+class FluentdRecordEncoderTest {
+
+  @ParameterizedTest
+  @MethodSource("logDataProvider")
+  void testEncode(LogData data) throws IOException {
+    FluentdAsyncDispatcherTest.BlockingSender sender = new FluentdAsyncDispatcherTest.BlockingSender(0);
+    new FluentdLoggerBackend(new FluentLogger(null, sender) {}, null, null, null, null, null).log(data);
+    Object expected = FluentdMessagePackerTest.unpack(new FluentdMessagePacker().packValue(sender.records.get(0)));
+    assertEquals(FluentdMessagePackerTest.unpack(FluentdRecordEncoder.get().encode(data)), expected);
+  }
+
+  @Test
+  void testEncodeDeduplicated() throws IOException {
+    FluentdThrowableDeduplicator deduplicator = new FluentdThrowableDeduplicator(Long.MAX_VALUE, System::nanoTime);
+    List<Map<?, ?>> records = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      LogData data = FakeLogData.of("thrown").setLevel(Level.SEVERE).addMetadata(LogContext.Key.LOG_CAUSE, new IllegalStateException());
+      records.add((Map<?, ?>) FluentdMessagePackerTest.unpack(FluentdRecordEncoder.get().encode(data, deduplicator)));
+    }
+    assertEquals(records.get(0).get("fingerprint"), records.get(1).get("fingerprint"));
+    assertNotNull(records.get(0).get("thrown"));
+    assertNotNull(records.get(0).get("stackTrace"));
+    assertNull(records.get(0).get("occurrences"));
+    assertNull(records.get(1).get("thrown"));
+    assertNull(records.get(1).get("stackTrace"));
+    assertEquals(records.get(1).get("occurrences"), 2L);
+  }
+
+  @Test
+  void testEncodeCause() throws IOException {
+    LogData data = FakeLogData.of("thrown").setLevel(Level.SEVERE).addMetadata(LogContext.Key.LOG_CAUSE, new IllegalStateException("cause"));
+    Map<?, ?> record = (Map<?, ?>) FluentdMessagePackerTest.unpack(FluentdRecordEncoder.get().encode(data));
+    assertFalse(record.containsKey(LogContext.Key.LOG_CAUSE.getLabel()));
+    assertNotNull(record.get("thrown"));
+  }
+
+  @Test
+  void testEncodeCachedTags() throws IOException {
+    Tags tags = Tags.builder().addTag("a").addTag("d", 1L).build();
+    LogData first = FakeLogData.of("first").addMetadata(MetadataKey.single("tags", Tags.class), tags);
+    LogData second = FakeLogData.of("first").addMetadata(MetadataKey.single("labels", Tags.class), tags);
+    Object expected = FluentdMessagePackerTest.unpack(FluentdRecordEncoder.get().encode(first));
+    assertEquals(FluentdMessagePackerTest.unpack(FluentdRecordEncoder.get().encode(first)), expected);
+    Map<?, ?> record = (Map<?, ?>) FluentdMessagePackerTest.unpack(FluentdRecordEncoder.get().encode(second));
+    assertEquals(record.get("labels"), Collections.singletonList("a"));
+    assertFalse(record.containsKey("tags"));
+  }
+
+  @Test
+  void testGet() throws IOException {
+    FluentdRecordEncoder encoder = FluentdRecordEncoder.get();
+    assertSame(FluentdRecordEncoder.get(), encoder);
+    Object reentrant = new Object() {
+      @Override
+      public String toString() {
+        assertNotSame(FluentdRecordEncoder.get(), encoder);
+        FluentdRecordEncoder.get().encode(FakeLogData.of("inner"));
+        return "outer";
+      }
+    };
+    LogData data = FakeLogData.withPrintfStyle("%s", reentrant);
+    assertEquals(FluentdMessagePackerTest.unpack(encoder.encode(data)), FluentdMessagePackerTest.unpack(new FluentdRecordEncoder().encode(FakeLogData.of("outer"))));
+  }
+
+  static Stream<LogData> logDataProvider() {
+    return Stream.of(
+      FakeLogData.of("literal"),
+      FakeLogData.of(""),
+      FakeLogData.withPrintfStyle("Hello %s %s", "Foo", "Bar").setLevel(Level.CONFIG).setTimestampNanos(123456789L),
+      FakeLogData.withPrintfStyle("Hello %s", "Foo")
+        .addMetadata(MetadataKey.single("tags", Tags.class), Tags.builder().addTag("a").addTag("b").addTag("d", 1L).addTag("e", "f").build())
+        .addMetadata(MetadataKey.single("test", String.class), "test")
+        .addMetadata(MetadataKey.repeated("integers", Integer.class), 2)
+        .addMetadata(MetadataKey.repeated("strings", String.class), "x")
+        .addMetadata(MetadataKey.repeated("integers", Integer.class), 3)
+        .addMetadata(MetadataKey.single("empty", String.class), null),
+      FakeLogData.of("duplicate").addMetadata(MetadataKey.single("message", String.class), "overridden"),
+      FakeLogData.of("thrown").setLevel(Level.SEVERE).addMetadata(LogContext.Key.LOG_CAUSE, new IllegalStateException("cause")),
+      FakeLogData.of("\u00e9t\u00e9 \ud83d\ude00").setLogSite(null));
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class FluentdSelectorLoopTest {
+
+  @Test
+  void testShared() {
+    assertSame(FluentdSelectorLoop.get(), FluentdSelectorLoop.get());
+  }
+
+  @Test
+  void testExecute() throws Exception {
+    FluentdSelectorLoop loop = FluentdSelectorLoop.get();
+    CountDownLatch done = new CountDownLatch(1);
+    List<Boolean> inLoop = new CopyOnWriteArrayList<>();
+    loop.execute(() -> {
+      inLoop.add(loop.inLoop());
+      done.countDown();
+    });
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(inLoop, Arrays.asList(true));
+  }
+
+  @Test
+  void testSchedule() throws Exception {
+    FluentdSelectorLoop loop = FluentdSelectorLoop.get();
+    CountDownLatch done = new CountDownLatch(3);
+    List<Integer> order = new CopyOnWriteArrayList<>();
+    long start = System.nanoTime();
+    loop.execute(() -> {
+      loop.schedule(() -> {
+        order.add(2);
+        done.countDown();
+      }, TimeUnit.MILLISECONDS.toNanos(100));
+      loop.schedule(() -> {
+        order.add(0);
+        done.countDown();
+      }, TimeUnit.MILLISECONDS.toNanos(20));
+      loop.schedule(() -> {
+        order.add(1);
+        done.countDown();
+      }, TimeUnit.MILLISECONDS.toNanos(20));
+    });
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    assertEquals(order, Arrays.asList(0, 1, 2));
+  }
+}
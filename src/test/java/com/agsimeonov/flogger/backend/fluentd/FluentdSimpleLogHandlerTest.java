@@ -16,16 +16,17 @@
 package com.agsimeonov.flogger.backend.fluentd;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -52,30 +53,46 @@ class FluentdSimpleLogHandlerTest {
   void testHandleFormattedMessageWithContext(FluentdSimpleLogHandler handler, @SuppressWarnings("rawtypes") Map out) {
     String message = "test [CONTEXT test]";
     handler.handleFormattedLogMessage(null, message, null);
-    assertEquals(out.get("message"), "test");
+    assertEquals(out.get("message"), message);
   }
 
   @ParameterizedTest
   @MethodSource("handlerComponentsProvider")
-  void testHandleFormattedContext(FluentdSimpleLogHandler handler, @SuppressWarnings("rawtypes") Map out) {
-    String message = "[CONTEXT test]";
-    handler.handleFormattedLogMessage(null, message, null);
+  void testHandleFormattedEmptyMessage(FluentdSimpleLogHandler handler, @SuppressWarnings("rawtypes") Map out) {
+    out.remove("message");
+    handler.handleFormattedLogMessage(null, "", null);
     assertNull(out.get("message"));
   }
 
   @ParameterizedTest
   @MethodSource("handlerComponentsProvider")
-  void testHandleFormattedThrown(FluentdSimpleLogHandler handler, @SuppressWarnings("rawtypes") Map out) throws IOException {
+  void testHandleFormattedThrown(FluentdSimpleLogHandler handler, @SuppressWarnings("rawtypes") Map out) {
     Throwable thrown = new Exception();
     handler.handleFormattedLogMessage(null, null, thrown);
-    assertEquals(out.get("thrown"), thrown);
-    try (StringWriter stringWriter = new StringWriter()) {
-      try (PrintWriter printWriter = new PrintWriter(stringWriter)) {
-        thrown.printStackTrace(printWriter);
-        assertEquals(out.get("stackTrace"), stringWriter.toString());
-      }
-    } catch (IOException exception) {
-      throw exception;
+    FluentdThrowableEncoder encoder = new FluentdThrowableEncoder();
+    assertEquals(out.get("thrown"), encoder.encode(thrown));
+    assertEquals(out.get("stackTrace"), encoder.render(thrown).toString());
+  }
+
+  @Test
+  void testHandleFormattedThrownDeduplicated() {
+    FluentdThrowableDeduplicator deduplicator = new FluentdThrowableDeduplicator(Long.MAX_VALUE, System::nanoTime);
+    List<Map<String, Object>> outs = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      Map<String, Object> out = new HashMap<>();
+      new FluentdSimpleLogHandler(out, deduplicator).handleFormattedLogMessage(Level.SEVERE, null, new Exception("message " + i));
+      outs.add(out);
+    }
+    String fingerprint = (String) outs.get(0).get("fingerprint");
+    assertEquals(fingerprint.length(), 16);
+    assertNotNull(outs.get(0).get("thrown"));
+    assertNotNull(outs.get(0).get("stackTrace"));
+    assertNull(outs.get(0).get("occurrences"));
+    for (int i = 1; i < 3; i++) {
+      assertEquals(outs.get(i).get("fingerprint"), fingerprint);
+      assertEquals(outs.get(i).get("occurrences"), i + 1L);
+      assertNull(outs.get(i).get("thrown"));
+      assertNull(outs.get(i).get("stackTrace"));
     }
   }
 
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FluentdSpillStoreTest {
+
+  @Test
+  void testAppendAndRemove(@TempDir Path directory) throws IOException {
+    FluentdSpillStore store = new FluentdSpillStore(directory, 1024 * 1024, 64, true);
+    assertTrue(store.isEmpty());
+    assertNull(store.peek());
+    for (int i = 0; i < 20; i++) assertTrue(append(store, "frame-" + i));
+    assertEquals(store.size(), 20 * 7 + 10 * 1);
+    assertTrue(segments(directory) > 1);
+    for (int i = 0; i < 20; i++) {
+      assertEquals(toString(store.peek()), "frame-" + i);
+      assertEquals(toString(store.peek()), "frame-" + i);
+      store.remove();
+    }
+    assertTrue(store.isEmpty());
+    assertEquals(store.size(), 0);
+    assertEquals(segments(directory), 1);
+    assertTrue(append(store, "again"));
+    assertEquals(toString(store.peek()), "again");
+    store.remove();
+    store.close();
+    assertEquals(segments(directory), 0);
+  }
+
+  @Test
+  void testRecover(@TempDir Path directory) throws IOException {
+    FluentdSpillStore store = new FluentdSpillStore(directory, 1024 * 1024, 64, true);
+    for (int i = 0; i < 10; i++) append(store, "frame-" + i);
+    for (int i = 0; i < 3; i++) store.remove();
+    store.close();
+    store = new FluentdSpillStore(directory, 1024 * 1024, 64, true);
+    assertEquals(store.size(), 7 * 7);
+    append(store, "frame-10");
+    for (int i = 3; i <= 10; i++) {
+      assertEquals(toString(store.peek()), "frame-" + i);
+      store.remove();
+    }
+    assertTrue(store.isEmpty());
+    store.close();
+  }
+
+  @Test
+  void testDropOldest(@TempDir Path directory) throws IOException {
+    FluentdSpillStore store = new FluentdSpillStore(directory, 128, 64, true);
+    for (int i = 0; i < 12; i++) assertTrue(append(store, "frame-" + i));
+    assertEquals(store.getDropped(), 5);
+    assertEquals(toString(store.peek()), "frame-5");
+    assertEquals(segments(directory), 2);
+    store.close();
+  }
+
+  @Test
+  void testDropNewest(@TempDir Path directory) throws IOException {
+    FluentdSpillStore store = new FluentdSpillStore(directory, 128, 64, false);
+    for (int i = 0; i < 10; i++) assertTrue(append(store, "frame-" + i));
+    assertFalse(append(store, "frame-10"));
+    assertFalse(append(store, new String(new char[64])));
+    assertEquals(store.getDropped(), 2);
+    assertEquals(toString(store.peek()), "frame-0");
+    store.remove();
+    assertFalse(append(store, "frame-10"));
+    for (int i = 1; i < 5; i++) store.remove();
+    assertTrue(append(store, "frame-10"));
+    assertEquals(toString(store.peek()), "frame-5");
+    store.close();
+  }
+
+  @Test
+  void testLock(@TempDir Path directory) throws IOException {
+    FluentdSpillStore store = new FluentdSpillStore(directory, 1024 * 1024, 64, true);
+    append(store, "frame");
+    assertThrows(IOException.class, () -> new FluentdSpillStore(directory, 1024 * 1024, 64, true));
+    store.close();
+    store = new FluentdSpillStore(directory, 1024 * 1024, 64, true);
+    assertEquals(toString(store.peek()), "frame");
+    store.close();
+  }
+
+  static long segments(Path directory) throws IOException {
+    long count = 0;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.spill")) {
+      for (Path path : stream) count++;
+    }
+    return count;
+  }
+
+  private static boolean append(FluentdSpillStore store, String frame) {
+    byte[] bytes = frame.getBytes(StandardCharsets.UTF_8);
+    return store.append(bytes, 0, bytes.length);
+  }
+
+  private static String toString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class FluentdStackFramesTest {
+
+  @Test
+  void testFindCallerOf() {
+    StackTraceElement caller = Api.log(3);
+    assertEquals(caller.getClassName(), FluentdStackFramesTest.class.getName());
+    assertEquals(caller.getMethodName(), "testFindCallerOf");
+  }
+
+  @Test
+  void testFindCallerClassOf() {
+    assertEquals(Api.logClass(3), FluentdStackFramesTest.class);
+  }
+
+  @Test
+  void testFindCallerOfSkip() {
+    assertNull(Api.log(3, 5));
+  }
+
+  @Test
+  void testFindCallerOfMissing() {
+    assertNull(FluentdStackFrames.findCallerOf(String.class, 0));
+  }
+
+  @Test
+  void testFindCallerOfNegativeSkip() {
+    assertThrows(IllegalArgumentException.class, () -> FluentdStackFrames.findCallerOf(Api.class, -1));
+  }
+
+  /** A stand-in for a logging API calling itself a number of times before looking for its caller. */
+  private static class Api {
+
+    static StackTraceElement log(int depth) {
+      return log(depth, 0);
+    }
+
+    static StackTraceElement log(int depth, int skip) {
+      return depth == 0 ? FluentdStackFrames.findCallerOf(Api.class, skip) : log(depth - 1, skip);
+    }
+
+    static Class<?> logClass(int depth) {
+      return depth == 0 ? FluentdStackFrames.findCallerClassOf(Api.class, 0) : logClass(depth - 1);
+    }
+  }
+}
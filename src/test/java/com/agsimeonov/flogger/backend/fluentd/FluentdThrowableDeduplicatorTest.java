@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.ResourceLock;
+import org.junit.jupiter.api.parallel.Resources;
+
+class FluentdThrowableDeduplicatorTest {
+
+  @Test
+  void testOccurrences() {
+    AtomicLong now = new AtomicLong();
+    FluentdThrowableDeduplicator deduplicator = new FluentdThrowableDeduplicator(10, now::get);
+    assertEquals(deduplicator.occurrences(Level.SEVERE, 1), 1);
+    assertEquals(deduplicator.occurrences(Level.SEVERE, 1), 2);
+    assertEquals(deduplicator.occurrences(Level.SEVERE, 2), 1);
+    assertEquals(deduplicator.occurrences(Level.WARNING, 1), 1);
+    now.set(9);
+    assertEquals(deduplicator.occurrences(Level.SEVERE, 1), 3);
+    now.set(10);
+    assertEquals(deduplicator.occurrences(Level.SEVERE, 1), 1);
+    assertEquals(deduplicator.occurrences(Level.SEVERE, 1), 2);
+  }
+
+  @Test
+  void testEviction() {
+    AtomicLong now = new AtomicLong();
+    FluentdThrowableDeduplicator deduplicator = new FluentdThrowableDeduplicator(10, now::get);
+    for (int i = 0; i < 2048; i++) assertEquals(deduplicator.occurrences(Level.SEVERE, i), 1);
+    assertEquals(deduplicator.occurrences(Level.SEVERE, 2047), 2);
+  }
+
+  @Test
+  void testToString() {
+    assertEquals(FluentdThrowableDeduplicator.toString(0), "0000000000000000");
+    assertEquals(FluentdThrowableDeduplicator.toString(0x1234abcdL), "000000001234abcd");
+    assertEquals(FluentdThrowableDeduplicator.toString(-1), "ffffffffffffffff");
+  }
+
+  @Test
+  @ResourceLock(Resources.SYSTEM_PROPERTIES)
+  void testCreate() {
+    System.clearProperty(FluentdThrowableDeduplicator.STACK_DEDUPE);
+    assertNull(FluentdThrowableDeduplicator.create());
+    System.setProperty(FluentdThrowableDeduplicator.STACK_DEDUPE, "0");
+    assertNull(FluentdThrowableDeduplicator.create());
+    System.setProperty(FluentdThrowableDeduplicator.STACK_DEDUPE, "invalid");
+    assertNull(FluentdThrowableDeduplicator.create());
+    System.setProperty(FluentdThrowableDeduplicator.STACK_DEDUPE, "1000");
+    assertNotNull(FluentdThrowableDeduplicator.create());
+    System.clearProperty(FluentdThrowableDeduplicator.STACK_DEDUPE);
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.ResourceLock;
+import org.junit.jupiter.api.parallel.Resources;
+
+class FluentdThrowableEncoderTest {
+
+  @Test
+  void testEncode() {
+    Throwable thrown = new IllegalStateException("outer", new IllegalArgumentException());
+    List<Map<String, Object>> causes = new FluentdThrowableEncoder(2, 8).encode(thrown);
+    assertEquals(causes.size(), 2);
+    assertEquals(causes.get(0).get("class"), IllegalStateException.class.getName());
+    assertEquals(causes.get(0).get("message"), "outer");
+    assertEquals(causes.get(0).get("frames"), Arrays.asList(frame(thrown, 0), frame(thrown, 1)));
+    assertEquals(causes.get(0).get("framesOmitted"), thrown.getStackTrace().length - 2);
+    assertEquals(causes.get(1).get("class"), IllegalArgumentException.class.getName());
+    assertFalse(causes.get(1).containsKey("message"));
+    assertFalse(causes.get(1).containsKey("causesOmitted"));
+  }
+
+  @Test
+  void testEncodeCommonFrames() {
+    Throwable cause = new IllegalArgumentException();
+    Throwable thrown = new IllegalStateException(cause);
+    List<Map<String, Object>> causes = new FluentdThrowableEncoder(Integer.MAX_VALUE, 8).encode(thrown);
+    assertEquals(causes.get(0).get("frames"), Arrays.asList(Arrays.stream(thrown.getStackTrace()).map(FluentdThrowableEncoderTest::frame).toArray()));
+    assertFalse(causes.get(0).containsKey("framesOmitted"));
+    assertEquals(causes.get(1).get("frames"), Arrays.asList(frame(cause, 0)));
+    assertEquals(causes.get(1).get("framesOmitted"), cause.getStackTrace().length - 1);
+  }
+
+  @Test
+  void testEncodeCauses() {
+    Throwable first = new Exception("first");
+    Throwable second = new Exception("second", first);
+    first.initCause(second);
+    List<Map<String, Object>> causes = new FluentdThrowableEncoder(0, 3).encode(first);
+    assertEquals(causes.size(), 3);
+    assertEquals(causes.get(2).get("message"), "first");
+    assertEquals(causes.get(2).get("causesOmitted"), 1021);
+    assertEquals(causes.get(2).get("frames"), Arrays.asList());
+  }
+
+  @Test
+  void testEncodePacked() throws IOException {
+    Throwable first = new Exception("first");
+    Throwable thrown = new IllegalStateException(new RuntimeException("second", first));
+    FluentdThrowableEncoder encoder = new FluentdThrowableEncoder(3, 2);
+    FluentdMessagePacker packer = new FluentdMessagePacker();
+    encoder.encode(thrown, packer);
+    assertEquals(FluentdMessagePackerTest.unpack(packer), FluentdMessagePackerTest.unpack(new FluentdMessagePacker().packValue(encoder.encode(thrown))));
+  }
+
+  @Test
+  void testRender() {
+    Throwable cause = new IllegalArgumentException("inner");
+    Throwable thrown = new IllegalStateException("outer", cause);
+    String trace = new FluentdThrowableEncoder(1, 8).render(thrown).toString();
+    String expected = IllegalStateException.class.getName() + ": outer\n"
+                    + "\tat " + frame(thrown, 0) + "\n"
+                    + "\t... " + (thrown.getStackTrace().length - 1) + " more\n"
+                    + "Caused by: " + IllegalArgumentException.class.getName() + ": inner\n"
+                    + "\tat " + frame(cause, 0) + "\n"
+                    + "\t... " + (cause.getStackTrace().length - 1) + " more\n";
+    assertEquals(trace, expected);
+  }
+
+  @Test
+  void testRenderCauses() {
+    Throwable thrown = new Exception(new Exception(new Exception()));
+    String trace = new FluentdThrowableEncoder(0, 1).render(thrown).toString();
+    assertFalse(trace.contains("Caused by: "));
+    assertTrue(trace.endsWith("\t... 2 more causes\n"));
+  }
+
+  @Test
+  void testFingerprint() {
+    Throwable[] thrown = new Throwable[3];
+    for (int i = 0; i < 2; i++) thrown[i] = new IllegalStateException("message " + i, new IllegalArgumentException());
+    thrown[2] = new IllegalStateException("message", new IllegalArgumentException());
+    assertEquals(FluentdThrowableEncoder.fingerprint(thrown[0]), FluentdThrowableEncoder.fingerprint(thrown[1]));
+    assertNotEquals(FluentdThrowableEncoder.fingerprint(thrown[0]), FluentdThrowableEncoder.fingerprint(thrown[2]));
+    assertNotEquals(FluentdThrowableEncoder.fingerprint(thrown[0]), FluentdThrowableEncoder.fingerprint(thrown[0].getCause()));
+  }
+
+  @Test
+  void testGet() {
+    FluentdThrowableEncoder encoder = FluentdThrowableEncoder.get();
+    assertSame(FluentdThrowableEncoder.get(), encoder);
+    Throwable thrown = new Exception() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public String getLocalizedMessage() {
+        assertNotSame(FluentdThrowableEncoder.get(), encoder);
+        FluentdThrowableEncoder.get().render(new Exception("inner"));
+        return "outer";
+      }
+    };
+    assertTrue(encoder.render(thrown).toString().contains(": outer\n\tat "));
+  }
+
+  @Test
+  @ResourceLock(Resources.SYSTEM_PROPERTIES)
+  void testSystemProperties() {
+    System.setProperty(FluentdThrowableEncoder.STACK_FRAMES, "1");
+    System.setProperty(FluentdThrowableEncoder.STACK_CAUSES, "invalid");
+    Throwable thrown = new Exception(new Exception());
+    List<Map<String, Object>> causes = new FluentdThrowableEncoder().encode(thrown);
+    System.clearProperty(FluentdThrowableEncoder.STACK_FRAMES);
+    System.clearProperty(FluentdThrowableEncoder.STACK_CAUSES);
+    assertEquals(causes.size(), 2);
+    assertEquals(((List<?>) causes.get(0).get("frames")).size(), 1);
+  }
+
+  private static String frame(Throwable thrown, int index) {
+    return frame(thrown.getStackTrace()[index]);
+  }
+
+  private static String frame(StackTraceElement frame) {
+    String location = frame.isNativeMethod() ? "Native Method" : frame.getFileName() + ":" + frame.getLineNumber();
+    return frame.getClassName() + "." + frame.getMethodName() + "(" + location + ")";
+  }
+}
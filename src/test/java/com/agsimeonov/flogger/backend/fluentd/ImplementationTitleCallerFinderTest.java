@@ -15,7 +15,9 @@
  */
 package com.agsimeonov.flogger.backend.fluentd;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.Test;
@@ -31,4 +33,27 @@ class ImplementationTitleCallerFinderTest {
   void testFindLoggingClass() {
     assertThrows(IllegalStateException.class, () -> ImplementationTitleCallerFinder.getInstance().findLoggingClass(null));
   }
+
+  @Test
+  void testFindLoggingClassWithoutTitle() {
+    for (int i = 0; i < 2; i++) assertThrows(IllegalStateException.class, () -> Api.findLoggingClass());
+  }
+
+  @Test
+  void testImplementationTitle() {
+    String title = ImplementationTitleCallerFinder.implementationTitle(Test.class);
+    assertNotNull(title);
+    assertEquals(ImplementationTitleCallerFinder.implementationTitle(Test.class), title);
+    assertNull(ImplementationTitleCallerFinder.implementationTitle(ImplementationTitleCallerFinderTest.class));
+    assertNull(ImplementationTitleCallerFinder.implementationTitle(int.class));
+  }
+
+  /** A stand-in for a logging API looking for the implementation title of its caller. */
+  private static class Api {
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static String findLoggingClass() {
+      return ImplementationTitleCallerFinder.getInstance().findLoggingClass((Class) Api.class);
+    }
+  }
 }
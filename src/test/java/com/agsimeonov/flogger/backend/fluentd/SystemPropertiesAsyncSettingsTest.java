@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2019 Alexander Simeonov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agsimeonov.flogger.backend.fluentd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.parallel.Resources.SYSTEM_PROPERTIES;
+
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.ResourceLock;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class SystemPropertiesAsyncSettingsTest {
+
+  @Test
+  void testGetInstance() {
+    assertNotNull(SystemPropertiesAsyncSettings.getInstance());
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = 1024)
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetCapacity(Integer capacity) {
+    System.setProperty(SystemPropertiesAsyncSettings.ASYNC_CAPACITY, capacity.toString());
+    assertEquals(SystemPropertiesAsyncSettings.getInstance().getCapacity(), capacity);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetCapacityFallback() {
+    System.clearProperty(SystemPropertiesAsyncSettings.ASYNC_CAPACITY);
+    assertEquals(SystemPropertiesAsyncSettings.getInstance().getCapacity(), 8192);
+  }
+
+  @ParameterizedTest
+  @EnumSource(FluentdOverflowPolicy.class)
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetOverflowPolicy(FluentdOverflowPolicy policy) {
+    System.setProperty(SystemPropertiesAsyncSettings.ASYNC_OVERFLOW, policy.name().toLowerCase());
+    assertEquals(SystemPropertiesAsyncSettings.getInstance().getOverflowPolicy(), policy);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetOverflowPolicyFallback() {
+    System.clearProperty(SystemPropertiesAsyncSettings.ASYNC_OVERFLOW);
+    assertEquals(SystemPropertiesAsyncSettings.getInstance().getOverflowPolicy(), FluentdOverflowPolicy.BLOCK);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"FINE", "500"})
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetOverflowLevel(String level) {
+    System.setProperty(SystemPropertiesAsyncSettings.ASYNC_OVERFLOW_LEVEL, level);
+    assertEquals(SystemPropertiesAsyncSettings.getInstance().getOverflowLevel(), Level.FINE);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetOverflowLevelFallback() {
+    System.clearProperty(SystemPropertiesAsyncSettings.ASYNC_OVERFLOW_LEVEL);
+    assertEquals(SystemPropertiesAsyncSettings.getInstance().getOverflowLevel(), Level.WARNING);
+  }
+}
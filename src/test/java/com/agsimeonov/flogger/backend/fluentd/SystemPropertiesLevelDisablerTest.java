@@ -19,6 +19,7 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.parallel.Resources.SYSTEM_PROPERTIES;
+import static org.junit.platform.commons.support.ReflectionSupport.newInstance;
 
 import java.util.logging.Level;
 
@@ -36,6 +37,7 @@ class SystemPropertiesLevelDisablerTest {
   @ResourceLock(SYSTEM_PROPERTIES)
   void testModeNotSet() {
     System.clearProperty(SystemPropertiesLevelDisabler.EXCLUSIVE);
+    SystemPropertiesLevelDisabler.getInstance().refresh();
     assertTrue(SystemPropertiesLevelDisabler.getInstance().isLoggable(null));
   }
 
@@ -46,6 +48,7 @@ class SystemPropertiesLevelDisablerTest {
     String namePropertyKey = SystemPropertiesLevelDisabler.getNamePropertyKey(Level.CONFIG);
     System.clearProperty(namePropertyKey);
     System.clearProperty(SystemPropertiesLevelDisabler.LEVEL);
+    SystemPropertiesLevelDisabler.getInstance().refresh();
     assertTrue(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.CONFIG));
   }
 
@@ -55,6 +58,7 @@ class SystemPropertiesLevelDisablerTest {
     System.setProperty(SystemPropertiesLevelDisabler.EXCLUSIVE, "true");
     System.setProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(Level.CONFIG), "true");
     System.clearProperty(SystemPropertiesLevelDisabler.LEVEL);
+    SystemPropertiesLevelDisabler.getInstance().refresh();
     assertFalse(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.CONFIG));
   }
 
@@ -64,6 +68,7 @@ class SystemPropertiesLevelDisablerTest {
     System.setProperty(SystemPropertiesLevelDisabler.EXCLUSIVE, "true");
     System.clearProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(Level.CONFIG));
     System.setProperty(SystemPropertiesLevelDisabler.LEVEL, Integer.valueOf(Level.CONFIG.intValue()).toString());
+    SystemPropertiesLevelDisabler.getInstance().refresh();
     assertFalse(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.CONFIG));
     assertFalse(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.FINEST));
     assertTrue(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.SEVERE));
@@ -76,6 +81,7 @@ class SystemPropertiesLevelDisablerTest {
     String namePropertyKey = SystemPropertiesLevelDisabler.getNamePropertyKey(Level.CONFIG);
     System.clearProperty(namePropertyKey);
     System.clearProperty(SystemPropertiesLevelDisabler.LEVEL);
+    SystemPropertiesLevelDisabler.getInstance().refresh();
     assertFalse(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.CONFIG));
   }
 
@@ -85,6 +91,7 @@ class SystemPropertiesLevelDisablerTest {
     System.setProperty(SystemPropertiesLevelDisabler.EXCLUSIVE, "false");
     System.setProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(Level.CONFIG), "true");
     System.clearProperty(SystemPropertiesLevelDisabler.LEVEL);
+    SystemPropertiesLevelDisabler.getInstance().refresh();
     assertTrue(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.CONFIG));
   }
 
@@ -94,8 +101,95 @@ class SystemPropertiesLevelDisablerTest {
     System.setProperty(SystemPropertiesLevelDisabler.EXCLUSIVE, "false");
     System.clearProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(Level.CONFIG));
     System.setProperty(SystemPropertiesLevelDisabler.LEVEL, Integer.valueOf(Level.CONFIG.intValue()).toString());
+    SystemPropertiesLevelDisabler.getInstance().refresh();
     assertTrue(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.CONFIG));
     assertFalse(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.FINEST));
     assertTrue(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.SEVERE));
   }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testRefresh() {
+    System.setProperty(SystemPropertiesLevelDisabler.EXCLUSIVE, "false");
+    System.clearProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(Level.CONFIG));
+    System.clearProperty(SystemPropertiesLevelDisabler.LEVEL);
+    SystemPropertiesLevelDisabler.getInstance().refresh();
+    assertFalse(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.CONFIG));
+    System.setProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(Level.CONFIG), "true");
+    assertFalse(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.CONFIG));
+    SystemPropertiesLevelDisabler.getInstance().refresh();
+    assertTrue(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.CONFIG));
+    System.clearProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(Level.CONFIG));
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testCustomLevel() {
+    Level custom = new Level("CUSTOM", Level.CONFIG.intValue()) {
+      private static final long serialVersionUID = 1L;
+    };
+    System.setProperty(SystemPropertiesLevelDisabler.EXCLUSIVE, "false");
+    System.setProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(custom), "true");
+    System.clearProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(Level.CONFIG));
+    System.clearProperty(SystemPropertiesLevelDisabler.LEVEL);
+    SystemPropertiesLevelDisabler.getInstance().refresh();
+    assertTrue(SystemPropertiesLevelDisabler.getInstance().isLoggable(custom));
+    assertFalse(SystemPropertiesLevelDisabler.getInstance().isLoggable(Level.CONFIG));
+    System.clearProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(custom));
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testRefreshPeriodically() throws InterruptedException {
+    System.setProperty(SystemPropertiesLevelDisabler.LEVEL_REFRESH, "10");
+    System.setProperty(SystemPropertiesLevelDisabler.EXCLUSIVE, "false");
+    System.clearProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(Level.CONFIG));
+    System.clearProperty(SystemPropertiesLevelDisabler.LEVEL);
+    FluentdLevelDisabler disabler = newInstance(SystemPropertiesLevelDisabler.class);
+    System.clearProperty(SystemPropertiesLevelDisabler.LEVEL_REFRESH);
+    assertFalse(disabler.isLoggable(Level.CONFIG));
+    System.setProperty(SystemPropertiesLevelDisabler.LEVEL, Integer.valueOf(Level.CONFIG.intValue()).toString());
+    for (int i = 0; i < 500 && !disabler.isLoggable(Level.CONFIG); i++) Thread.sleep(10);
+    assertTrue(disabler.isLoggable(Level.CONFIG));
+    System.clearProperty(SystemPropertiesLevelDisabler.LEVEL);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testForLoggerName() {
+    System.clearProperty(SystemPropertiesLevelDisabler.EXCLUSIVE);
+    System.setProperty(SystemPropertiesLevelDisabler.LEVEL_PREFIX + "com.acme", "WARNING");
+    System.setProperty(SystemPropertiesLevelDisabler.LEVEL_PREFIX + "com.acme.db", "500");
+    SystemPropertiesLevelDisabler.getInstance().refresh();
+    FluentdLevelDisabler db = SystemPropertiesLevelDisabler.getInstance().forLoggerName("com.acme.db.Dao");
+    FluentdLevelDisabler web = SystemPropertiesLevelDisabler.getInstance().forLoggerName("com.acme.web.Controller");
+    FluentdLevelDisabler other = SystemPropertiesLevelDisabler.getInstance().forLoggerName("com.acmex.Dao");
+    assertTrue(db.isLoggable(Level.FINE));
+    assertFalse(db.isLoggable(Level.FINER));
+    assertTrue(web.isLoggable(Level.WARNING));
+    assertFalse(web.isLoggable(Level.INFO));
+    assertTrue(other.isLoggable(Level.FINEST));
+    System.clearProperty(SystemPropertiesLevelDisabler.LEVEL_PREFIX + "com.acme");
+    SystemPropertiesLevelDisabler.getInstance().refresh();
+    assertTrue(web.isLoggable(Level.INFO));
+    assertFalse(db.isLoggable(Level.FINER));
+    System.clearProperty(SystemPropertiesLevelDisabler.LEVEL_PREFIX + "com.acme.db");
+    SystemPropertiesLevelDisabler.getInstance().refresh();
+    assertTrue(db.isLoggable(Level.FINER));
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testForLoggerNameFallback() {
+    System.setProperty(SystemPropertiesLevelDisabler.EXCLUSIVE, "false");
+    System.clearProperty(SystemPropertiesLevelDisabler.getNamePropertyKey(Level.CONFIG));
+    System.setProperty(SystemPropertiesLevelDisabler.LEVEL, Integer.valueOf(Level.CONFIG.intValue()).toString());
+    System.setProperty(SystemPropertiesLevelDisabler.LEVEL_PREFIX + "com.acme", "invalid");
+    SystemPropertiesLevelDisabler.getInstance().refresh();
+    FluentdLevelDisabler disabler = SystemPropertiesLevelDisabler.getInstance().forLoggerName("com.acme.Example");
+    assertTrue(disabler.isLoggable(Level.CONFIG));
+    assertFalse(disabler.isLoggable(Level.FINE));
+    System.clearProperty(SystemPropertiesLevelDisabler.LEVEL_PREFIX + "com.acme");
+    System.clearProperty(SystemPropertiesLevelDisabler.LEVEL);
+  }
 }
@@ -61,4 +61,211 @@ class SystemPropertiesRemoteSettingsTest {
     System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_PORT);
     assertEquals(SystemPropertiesRemoteSettings.getInstance().getPort(), 24224);
   }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testIsPackedForward(Boolean packedForward) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_PACKED_FORWARD, packedForward.toString());
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().isPackedForward(), packedForward);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testIsPackedForwardFallback() {
+    System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_PACKED_FORWARD);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().isPackedForward(), false);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = 1024)
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetBatchSize(Integer batchSize) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_BATCH_SIZE, batchSize.toString());
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getBatchSize(), batchSize);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetBatchSizeFallback() {
+    System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_BATCH_SIZE);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getBatchSize(), 262144);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = 16)
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetBatchEntries(Integer batchEntries) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_BATCH_ENTRIES, batchEntries.toString());
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getBatchEntries(), batchEntries);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetBatchEntriesFallback() {
+    System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_BATCH_ENTRIES);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getBatchEntries(), 1024);
+  }
+
+  @ParameterizedTest
+  @ValueSource(longs = 10)
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetBatchLinger(Long batchLinger) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_BATCH_LINGER, batchLinger.toString());
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getBatchLinger(), batchLinger);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetBatchLingerFallback() {
+    System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_BATCH_LINGER);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getBatchLinger(), 100);
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testIsCompressed(Boolean compressed) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_COMPRESSED, compressed.toString());
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().isCompressed(), compressed);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testIsCompressedFallback() {
+    System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_COMPRESSED);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().isCompressed(), false);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {-1, 0, 9})
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetCompressionLevel(Integer level) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_COMPRESSION_LEVEL, level.toString());
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getCompressionLevel(), level);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"10", "-2", "fast"})
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetCompressionLevelFallback(String level) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_COMPRESSION_LEVEL, level);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getCompressionLevel(), -1);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = 4096)
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetCompressionThreshold(Integer threshold) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_COMPRESSION_THRESHOLD, threshold.toString());
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getCompressionThreshold(), threshold);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetCompressionThresholdFallback() {
+    System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_COMPRESSION_THRESHOLD);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getCompressionThreshold(), 1024);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetSpillDirectory() {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_SPILL_DIRECTORY, "/var/spool/flogger");
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getSpillDirectory(), "/var/spool/flogger");
+    System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_SPILL_DIRECTORY);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getSpillDirectory(), null);
+  }
+
+  @ParameterizedTest
+  @ValueSource(longs = 8589934592L)
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetSpillCapacity(Long capacity) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_SPILL_CAPACITY, capacity.toString());
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getSpillCapacity(), capacity);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetSpillCapacityFallback() {
+    System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_SPILL_CAPACITY);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getSpillCapacity(), 268435456L);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = 65536)
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetSpillSegmentSize(Integer segmentSize) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_SPILL_SEGMENT_SIZE, segmentSize.toString());
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getSpillSegmentSize(), segmentSize);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetSpillSegmentSizeFallback() {
+    System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_SPILL_SEGMENT_SIZE);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getSpillSegmentSize(), 16777216);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"drop_newest", "DROP_OLDEST"})
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetSpillOverflowPolicy(String policy) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_SPILL_OVERFLOW, policy);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getSpillOverflowPolicy(), FluentdOverflowPolicy.valueOf(policy.toUpperCase()));
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetSpillOverflowPolicyFallback() {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_SPILL_OVERFLOW, "invalid");
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getSpillOverflowPolicy(), FluentdOverflowPolicy.DROP_OLDEST);
+    System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_SPILL_OVERFLOW);
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testIsAcked(Boolean acked) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_ACK, acked.toString());
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().isAcked(), acked);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testIsAckedFallback() {
+    System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_ACK);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().isAcked(), false);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = 64)
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetAckWindow(Integer window) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_ACK_WINDOW, window.toString());
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getAckWindow(), window);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"0", "many"})
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetAckWindowFallback(String window) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_ACK_WINDOW, window);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getAckWindow(), 16);
+  }
+
+  @ParameterizedTest
+  @ValueSource(longs = 5000)
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetAckTimeout(Long timeout) {
+    System.setProperty(SystemPropertiesRemoteSettings.FLUENTD_ACK_TIMEOUT, timeout.toString());
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getAckTimeout(), timeout);
+  }
+
+  @Test
+  @ResourceLock(SYSTEM_PROPERTIES)
+  void testGetAckTimeoutFallback() {
+    System.clearProperty(SystemPropertiesRemoteSettings.FLUENTD_ACK_TIMEOUT);
+    assertEquals(SystemPropertiesRemoteSettings.getInstance().getAckTimeout(), 30000);
+  }
 }